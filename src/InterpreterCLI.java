@@ -6,9 +6,21 @@ import java.util.Scanner;
 import lexer.Lexer;
 import parser.Parser;
 import ast.Program;
+import interpreter.closure.ClosureCompiler;
+import interpreter.jit.JitCompiler;
 import interpreter.modules.AstPrinter;
 import interpreter.modules.Executor;
+import interpreter.modules.PurityAnalyzer;
+import interpreter.modules.Resolver;
+import interpreter.modules.SafetyAnalyzer;
 import interpreter.modules.SemanticChecker;
+import interpreter.modules.TypeSpecializer;
+import interpreter.optimizer.PassManager;
+import interpreter.vm.BytecodeCompiler;
+import interpreter.vm.CompiledProgram;
+import interpreter.vm.RegisterCompiler;
+import interpreter.vm.RegisterMachine;
+import interpreter.vm.VirtualMachine;
 
 
 
@@ -16,23 +28,64 @@ public class InterpreterCLI {
     private AstPrinter astPrinter;
     private Executor executor;
     private SemanticChecker semanticChecker;
+    private Resolver resolver;
+    private PurityAnalyzer purityAnalyzer;
+    private SafetyAnalyzer safetyAnalyzer;
+    private TypeSpecializer typeSpecializer;
+    private PassManager passManager;
+    private BytecodeCompiler bytecodeCompiler;
+    private VirtualMachine virtualMachine;
+    private RegisterCompiler registerCompiler;
+    private RegisterMachine registerMachine;
+    private ClosureCompiler closureCompiler;
+    private JitCompiler jitCompiler;
     private Lexer lexer;
     private Parser parser;
 
     private boolean printAST;
+    private boolean optimize;
+    private boolean dumpPasses;
     private boolean running;
+    private String engine;
+    private int maxCallDepth;
+    private boolean memoize;
+    private long memoBudget;
+    private boolean intern;
+    private int tierCalls;
+    private int tierLoops;
     private String testFolder = "tests";
 
+    private static String[] engines = { "tree", "closure", "vm", "register", "jit", "tiered", "trace" };
     private static String horizontalLine = "=====================================================================";
 
     public InterpreterCLI(){
         astPrinter = new AstPrinter();
         executor = new Executor();
         semanticChecker = new SemanticChecker();
+        resolver = new Resolver();
+        purityAnalyzer = new PurityAnalyzer();
+        safetyAnalyzer = new SafetyAnalyzer();
+        typeSpecializer = new TypeSpecializer();
+        passManager = new PassManager();
+        bytecodeCompiler = new BytecodeCompiler();
+        virtualMachine = new VirtualMachine();
+        registerCompiler = new RegisterCompiler();
+        registerMachine = new RegisterMachine();
+        closureCompiler = new ClosureCompiler();
+        jitCompiler = new JitCompiler();
         lexer = new Lexer();
         parser = new Parser();
         printAST = false;
+        optimize = true;
+        dumpPasses = false;
         running = true;
+        engine = "tree";
+        maxCallDepth = 100;
+        memoize = true;
+        memoBudget = Executor.DEFAULT_MEMO_BUDGET;
+        intern = false;
+        tierCalls = Executor.DEFAULT_CALL_THRESHOLD;
+        tierLoops = Executor.DEFAULT_LOOP_THRESHOLD;
     }
 
 
@@ -80,12 +133,41 @@ public class InterpreterCLI {
                     System.out.println("run tests            ==>  Runs all the files from the '" + testFolder + "' folder");
                     System.out.println("list                 ==>  Lists files from the '" + testFolder + "' folder");
                     System.out.println("print on/off         ==>  Whether to print the abstract syntax tree after parsing or not");
+                    System.out.println("opt on/off           ==>  Whether to run the optimization passes before execution or not");
+                    System.out.println("opt [PASS] on/off    ==>  Enables or disables a single optimization pass: " + String.join(", ", passManager.getPassNames()));
+                    System.out.println("inline size [N]      ==>  Only functions whose body has at most N ast nodes are inlined");
+                    System.out.println("inline calls [N]     ==>  Only functions called from at most N places are inlined");
+                    System.out.println("spec budget [N]      ==>  Copies of functions specialized on literal arguments may add at most N ast nodes to a program");
+                    System.out.println("dump on/off          ==>  Whether to print the changes made by each optimization pass or not");
+                    System.out.println("bench [FILE_NAME]    ==>  Runs the file once on every engine and reports how long each run took");
+                    System.out.println("engine [ENGINE]      ==>  Execute with the tree-walking Executor ('tree'), closure compiled code ('closure'), the stack machine ('vm'), the register machine ('register'), JVM bytecode ('jit'), the Executor with hot code moved to JVM bytecode ('tiered') or the same with hot loops compiled as traces ('trace')");
+                    System.out.println("depth [N]            ==>  Sets the maximum function call depth. The 'vm' and 'register' engines keep their frames off the Java stack and can go as deep as memory allows");
+                    System.out.println("memo on/off          ==>  Whether the 'tree' engine caches the results of pure functions or not");
+                    System.out.println("memo budget [KB]     ==>  Memory budget of every function's result cache, in kilobytes");
+                    System.out.println("intern on/off        ==>  Whether the Executor interns the strings built-in functions return, so they compare by identity with equal literals");
+                    System.out.println("tier calls [N]       ==>  With the 'tiered' and 'trace' engines, a function is called in compiled code after N calls");
+                    System.out.println("tier loops [N]       ==>  With the 'tiered' and 'trace' engines, a loop continues in compiled code after N iterations");
                     System.out.println("conf                 ==>  Shows current configuration");
                     System.out.println("exit                 ==>  Exits the interpreter");
                     break;
                 
                 case "conf":
                     System.out.println("print: " + printAST);
+                    System.out.println("engine: " + engine);
+                    System.out.println("depth: " + maxCallDepth);
+                    System.out.println("memo: " + memoize);
+                    System.out.println("memo budget: " + (memoBudget / 1024) + " KB");
+                    System.out.println("intern: " + intern);
+                    System.out.println("tier calls: " + tierCalls);
+                    System.out.println("tier loops: " + tierLoops);
+                    System.out.println("optimize: " + optimize);
+                    for(String pass: passManager.getPassNames()){
+                        System.out.println("    " + pass + ": " + passManager.isEnabled(pass));
+                    }
+                    System.out.println("inline size: " + passManager.getInlining().getMaxSize());
+                    System.out.println("inline calls: " + passManager.getInlining().getMaxCallSites());
+                    System.out.println("spec budget: " + passManager.getSpecialization().getBudget());
+                    System.out.println("dump: " + dumpPasses);
                     break;
 
                 case "exit":
@@ -110,6 +192,43 @@ public class InterpreterCLI {
                     else System.out.println("Invalid print mode. You can do 'print on' or 'print off'");
                     break;
 
+                case "opt":
+                    if(words[1].equals("on")) optimize = true;
+                    else if(words[1].equals("off")) optimize = false;
+                    else System.out.println("Invalid optimization mode. You can do 'opt on', 'opt off' or 'opt [PASS] on/off'");
+                    break;
+
+                case "dump":
+                    if(words[1].equals("on")) dumpPasses = true;
+                    else if(words[1].equals("off")) dumpPasses = false;
+                    else System.out.println("Invalid dump mode. You can do 'dump on' or 'dump off'");
+                    break;
+
+                case "engine":
+                    if(isEngine(words[1])) engine = words[1];
+                    else System.out.println("Invalid engine. You can do 'engine tree', 'engine closure', 'engine vm', 'engine register', 'engine jit', 'engine tiered' or 'engine trace'");
+                    break;
+
+                case "depth":
+                    setMaxCallDepth(words[1]);
+                    break;
+
+                case "memo":
+                    if(words[1].equals("on")) memoize = true;
+                    else if(words[1].equals("off")) memoize = false;
+                    else System.out.println("Invalid memo mode. You can do 'memo on', 'memo off' or 'memo budget [KB]'");
+                    break;
+
+                case "intern":
+                    if(words[1].equals("on")) intern = true;
+                    else if(words[1].equals("off")) intern = false;
+                    else System.out.println("Invalid intern mode. You can do 'intern on' or 'intern off'");
+                    break;
+
+                case "bench":
+                    benchFile(words[1]);
+                    break;
+
                 case "run":
                     if(words[1].equals("tests")) runTests();
                     else runFile(words[1]);
@@ -120,6 +239,26 @@ public class InterpreterCLI {
                     break;
             }
         }
+        else if(words.length == 3 && words[0].equals("memo") && words[1].equals("budget")){
+            setMemoBudget(words[2]);
+        }
+        else if(words.length == 3 && words[0].equals("tier")){
+            setTierThreshold(words[1], words[2]);
+        }
+        else if(words.length == 3 && words[0].equals("inline")){
+            setInliningThreshold(words[1], words[2]);
+        }
+        else if(words.length == 3 && words[0].equals("spec") && words[1].equals("budget")){
+            setSpecializationBudget(words[2]);
+        }
+        else if(words.length == 3 && words[0].equals("opt")){
+            if(!passManager.isPass(words[1])){
+                System.out.println("Invalid pass. Available passes are: " + String.join(", ", passManager.getPassNames()));
+            }
+            else if(words[2].equals("on")) passManager.setEnabled(words[1], true);
+            else if(words[2].equals("off")) passManager.setEnabled(words[1], false);
+            else System.out.println("Invalid pass mode. You can do 'opt " + words[1] + " on' or 'opt " + words[1] + " off'");
+        }
         else{
             System.out.println("Invalid command. Use 'help' to show available commands");
         }
@@ -185,13 +324,19 @@ public class InterpreterCLI {
             System.out.println();
 
             phase = 2;
-            semanticChecker.checkSemantics(ast);
+            prepare(ast);
+            if(optimize && dumpPasses) System.out.print("\n" + passManager.report());
 
             phase = 3;
-            Object value = executor.executeProgram(ast);;
+            Object value = execute(ast, engine);
 
             if(value instanceof String) System.out.println("\nFinished: The program returned: \"" + value + "\"");
             else System.out.println("\nFinished: The program returned " + value);
+
+            if(engine.equals("tree") && memoize){
+                String memoReport = executor.memoReport();
+                if(!memoReport.isEmpty()) System.out.print("\nMemoized calls:\n" + memoReport);
+            }
         }
         catch(Exception e){
             errorInfo(phase);
@@ -200,6 +345,210 @@ public class InterpreterCLI {
     }
 
 
+    // Checks the program and gets it ready for execution. Optimization passes need variable names, so they run before the Resolver.
+    // Unreachable functions and unused globals are removed even before checking, and the liveness pass works on the Resolver's slots
+
+    private void prepare(Program ast) throws Exception{
+        if(optimize) passManager.shake(ast);
+        semanticChecker.checkSemantics(ast);
+        if(optimize) passManager.optimize(ast);
+        resolver.resolve(ast);
+        if(optimize) passManager.optimizeResolved(ast);
+        purityAnalyzer.analyze(ast);
+        safetyAnalyzer.analyze(ast);
+        typeSpecializer.specialize(ast);
+    }
+
+
+    // Runs a checked and resolved program on the given engine
+
+    // The 'tree', 'closure' and 'jit' engines recurse on the Java stack, so with a high call depth limit they can run out of it
+    // Calls that can repeat without end are all counted against the limit, so a low enough limit is reached before the stack runs out
+    private Object execute(Program ast,String engine) throws Exception{
+        CompiledProgram program;
+
+        try{
+            switch(engine){
+                case "vm":
+                    program = bytecodeCompiler.compile(ast);
+                    if(printAST) System.out.println(program.disassemble());
+                    virtualMachine.setMaxCallDepth(maxCallDepth);
+                    return virtualMachine.execute(program);
+
+                case "register":
+                    program = registerCompiler.compile(ast);
+                    if(printAST) System.out.println(program.disassemble());
+                    registerMachine.setMaxCallDepth(maxCallDepth);
+                    return registerMachine.execute(program);
+
+                case "closure":
+                    closureCompiler.setMaxCallDepth(maxCallDepth);
+                    return closureCompiler.compile(ast).execute();
+
+                case "jit":
+                    jitCompiler.setMaxCallDepth(maxCallDepth);
+                    return jitCompiler.compile(ast).execute();
+
+                case "tiered":
+                case "trace":
+                    executor.setMaxCallDepth(maxCallDepth);
+                    executor.setMemoization(memoize, memoBudget);
+                    executor.setInterning(intern);
+                    executor.setTiering(jitCompiler, tierCalls, tierLoops);
+                    executor.setTracing(engine.equals("trace"));
+                    return executor.executeProgram(ast);
+
+                default:
+                    executor.setMaxCallDepth(maxCallDepth);
+                    executor.setMemoization(memoize, memoBudget);
+                    executor.setInterning(intern);
+                    executor.setTiering(null, tierCalls, tierLoops);
+                    executor.setTracing(false);
+                    return executor.executeProgram(ast);
+            }
+        }
+        catch(StackOverflowError e){
+            System.out.println("Runtime error: The Java stack overflowed. Use 'engine vm' or 'engine register' for deep recursion, or lower the call depth limit with 'depth [N]' so it is reached first");
+            throw new Exception();
+        }
+    }
+
+
+    private void setInliningThreshold(String threshold,String value){
+        int number;
+        try{
+            number = Integer.parseInt(value);
+        }
+        catch(NumberFormatException e){
+            number = -1;
+        }
+
+        if(number < 0){
+            System.out.println("Invalid threshold. It has to be a number, for example 'inline size 16'");
+        }
+        else if(threshold.equals("size")) passManager.getInlining().setMaxSize(number);
+        else if(threshold.equals("calls")) passManager.getInlining().setMaxCallSites(number);
+        else System.out.println("Invalid threshold. You can do 'inline size [N]' or 'inline calls [N]'");
+    }
+
+
+    private void setSpecializationBudget(String value){
+        try{
+            int nodes = Integer.parseInt(value);
+            if(nodes >= 0){
+                passManager.getSpecialization().setBudget(nodes);
+                return;
+            }
+        }
+        catch(NumberFormatException e){}
+
+        System.out.println("Invalid specialization budget. It has to be a number of ast nodes, for example 'spec budget 1024'");
+    }
+
+
+    private void setTierThreshold(String threshold,String value){
+        int number;
+        try{
+            number = Integer.parseInt(value);
+        }
+        catch(NumberFormatException e){
+            number = -1;
+        }
+
+        if(number < 1){
+            System.out.println("Invalid threshold. It has to be a positive number, for example 'tier calls 1000'");
+        }
+        else if(threshold.equals("calls")) tierCalls = number;
+        else if(threshold.equals("loops")) tierLoops = number;
+        else System.out.println("Invalid threshold. You can do 'tier calls [N]' or 'tier loops [N]'");
+    }
+
+
+    private void setMemoBudget(String value){
+        try{
+            long kilobytes = Long.parseLong(value);
+            if(kilobytes > 0){
+                memoBudget = kilobytes * 1024;
+                return;
+            }
+        }
+        catch(NumberFormatException e){}
+
+        System.out.println("Invalid memo budget. It has to be a positive number of kilobytes, for example 'memo budget 1024'");
+    }
+
+
+    private void setMaxCallDepth(String value){
+        try{
+            int depth = Integer.parseInt(value);
+            if(depth > 0){
+                maxCallDepth = depth;
+                return;
+            }
+        }
+        catch(NumberFormatException e){}
+
+        System.out.println("Invalid call depth. It has to be a positive number, for example 'depth 100'");
+    }
+
+
+    private boolean isEngine(String name){
+        for(String e: engines){
+            if(e.equals(name)) return true;
+        }
+        return false;
+    }
+
+
+    // Runs a file from testFolder on every engine, one after another, and compares the time it took each of them
+    // Compilation to bytecode is counted as part of the run
+
+    private void benchFile(String fileName){
+        String code;
+        try{
+            code = loadFile( System.getProperty("user.dir") + File.separator + testFolder + File.separator + fileName);
+        }
+        catch(FileNotFoundException e){
+            System.out.println("File '" + fileName + "' cannot be found in the '" + testFolder + "' folder");
+            return;
+        }
+
+        System.out.println("\nBENCHMARKING '" + fileName + "'");
+
+        Program ast;
+        try{
+            ast = parser.parseProgram( lexer.makeTokens(code) );
+            prepare(ast);
+        }
+        catch(Exception e){
+            System.out.println("The file has to pass parsing and semantic analysis to be benchmarked");
+            return;
+        }
+
+        long[] times = new long[engines.length];
+
+        for(int i = 0; i < engines.length; i++){
+            System.out.println("\n" + engines[i] + ":");
+            long start = System.nanoTime();
+
+            try{
+                Object value = execute(ast, engines[i]);
+                System.out.println("returned " + value);
+            }
+            catch(Exception e){
+                errorInfo(3);
+            }
+
+            times[i] = System.nanoTime() - start;
+        }
+
+        System.out.println();
+        for(int i = 0; i < engines.length; i++){
+            System.out.printf("%-10s %8.1f ms%n", engines[i], times[i] / 1e6);
+        }
+    }
+
+
     // Returns the contents of a file
 
     private String loadFile(String path) throws FileNotFoundException {
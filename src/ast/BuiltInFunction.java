@@ -0,0 +1,11 @@
+package ast;
+
+import java.util.ArrayList;
+
+
+// Implementation of a built-in function, which calls get linked to before execution.
+// The ast only knows this interface, the implementations live in the BuiltIns class of the interpreter.
+
+public interface BuiltInFunction {
+    public Object execute(ArrayList<Object> arguments);
+}
@@ -10,6 +10,13 @@ public abstract class Decl  implements ASTNode {
         public String identifier;
         public Expr expr;
 
+        // Set by the Resolver. Index of the variable in the active frame, or in the global area if 'isGlobal' is set
+        public int slot = -1;
+        public boolean isGlobal;
+
+        // Set by the SafetyAnalyzer for INT variables with a read it couldn't prove assigned. The write leaves a mark that the read checks
+        public boolean isTracked;
+
         public Var(ASTEnums type,String identifier,Expr expr,int lineNumber){
             this.type = type;
             this.identifier = identifier;
@@ -30,6 +37,21 @@ public abstract class Decl  implements ASTNode {
         public ArrayList<Param> params;
         public ArrayList<Stmt> body;
 
+        // Set by FunctionSpecialization on the copies it makes. Name of the function in the source the copy was made from
+        public String origin;
+
+        // Set by the Resolver. Number of slots a call to this function needs for its parameters and locals
+        public int frameSize;
+
+        // Set by the Resolver. Number of INT parameters, which take their arguments from the Executor's int argument stack
+        public int intParamCount;
+
+        // Set by the PurityAnalyzer. The result depends only on the arguments and the call has no effects, so results can be cached
+        public boolean isPure;
+
+        // Counted by the Executor when tiered execution is on. Number of calls to the function during the current run
+        public int invocations;
+
         public Func(ASTEnums type,String identifier,ArrayList<Param> parameters,ArrayList<Stmt> statements,int lineNumber){
             this.type = type;
             this.identifier = identifier;
@@ -49,6 +71,9 @@ public abstract class Decl  implements ASTNode {
         public ASTEnums type;
         public String identifier;
 
+        // Set by the Resolver. Parameters always take the first slots of the frame
+        public int slot = -1;
+
         public Param(ASTEnums type,String identifier,int lineNumber){
             this.type = type;
             this.identifier = identifier;
@@ -9,6 +9,21 @@ public abstract class Expr implements ASTNode{
     public ASTEnums type = ASTEnums.UNDEFINED;
     public int lineNumber;
 
+
+    // Evaluate the expression with the given evaluator when its static type is known to be INT or STRING
+    // Generic nodes just go through the visitor. Type-specialized nodes from TypedExpr override these and compute
+    // their value directly, without boxing it and without switching on their operator or type
+    public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+        return (int) accept(evaluator);
+    }
+
+    // An evaluator can build strings lazily and return any CharSequence for them, which is flattened here
+    public String evalString(ASTVisitor<Object> evaluator) throws Exception {
+        Object value = accept(evaluator);
+        return (value == null ? null : value.toString());
+    }
+
+
     public static class Binary extends Expr{
         public Expr left;
         public Expr right;
@@ -52,6 +67,13 @@ public abstract class Expr implements ASTNode{
         public String identifier;
         public Expr expr;
 
+        // Set by the Resolver. Index of the variable in the active frame, or in the global area if 'isGlobal' is set
+        public int slot = -1;
+        public boolean isGlobal;
+
+        // Set by the SafetyAnalyzer for INT variables with a read it couldn't prove assigned. The write leaves a mark that the read checks
+        public boolean isTracked;
+
         public Assign(String identifier,Expr expression,int lineNumber){
             this.identifier = identifier;
             this.expr = expression;
@@ -62,6 +84,12 @@ public abstract class Expr implements ASTNode{
         public <T> T accept(ASTVisitor<T> visitor) throws Exception {
             return visitor.visitAssignExpr(this);
         }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            if(evaluator instanceof IntSlots) return ((IntSlots) evaluator).assignInt(this);
+            return super.evalInt(evaluator);
+        }
     }
 
 
@@ -85,6 +113,16 @@ public abstract class Expr implements ASTNode{
         public String funcIdentifier;
         public List<Expr> arguments;
 
+        // Set by the SemanticChecker when the call is returned straight away ('return f(...)'), so the callee can take over the caller's frame
+        public boolean isTailCall;
+
+        // Set by the Resolver. The called function: 'function' for functions declared in the program, 'builtIn' for built-in functions
+        public Decl.Func function;
+        public BuiltInFunction builtIn;
+
+        // Set by the SafetyAnalyzer. Largest number of frames on the call stack once the call has entered its function.
+        // Calls that stay within the depth limit don't check it
+        public int depthBound = Integer.MAX_VALUE;
 
         public Call(String identifier,List<Expr> arguments,int lineNumber){
             this.funcIdentifier = identifier;
@@ -105,6 +143,13 @@ public abstract class Expr implements ASTNode{
     public static class Variable extends Expr{
         public String identifier;
 
+        // Set by the Resolver. Index of the variable in the active frame, or in the global area if 'isGlobal' is set
+        public int slot = -1;
+        public boolean isGlobal;
+
+        // Set by the SafetyAnalyzer when every path to this read assigns the variable, so the read doesn't check it
+        public boolean isAssigned;
+
         public Variable(String identifier,int lineNumber){
             this.identifier = identifier;
             this.lineNumber = lineNumber;
@@ -113,7 +158,13 @@ public abstract class Expr implements ASTNode{
         @Override
         public <T> T accept(ASTVisitor<T> visitor) throws Exception {
             return visitor.visitVariableExpr(this);
-        }   
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            if(evaluator instanceof IntSlots) return ((IntSlots) evaluator).fetchInt(this);
+            return super.evalInt(evaluator);
+        }
     }
 
 }
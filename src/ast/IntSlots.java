@@ -0,0 +1,11 @@
+package ast;
+
+
+// Implemented by an evaluator that keeps INT variables in int slots of their own.
+// evalInt() of a variable or an assignment goes straight to it, so the value is never boxed on its way in or out.
+// The ast only knows this interface, the Executor implements it.
+
+public interface IntSlots {
+    public int fetchInt(Expr.Variable variable) throws Exception;
+    public int assignInt(Expr.Assign assignment) throws Exception;
+}
@@ -1,11 +1,18 @@
 package ast;
 
+import java.util.HashMap;
 import java.util.List;
 
 public class Program implements ASTNode {
     public List<Stmt.DeclStmt> funcDeclStatements;
     public List<Stmt.DeclStmt> varDeclStatements;
 
+    // Set by the Resolver. Number of slots in the global variable area
+    public int globalCount;
+
+    // Filled by the TypeSpecializer. Every distinct string literal, stored once, so equal literals are the same String object
+    public HashMap<String,String> strings = new HashMap<>();
+
     public Program(List<Stmt.DeclStmt> funcDeclarations,List<Stmt.DeclStmt> varDeclarations){
         this.funcDeclStatements = funcDeclarations;
         this.varDeclStatements = varDeclarations;
@@ -41,6 +41,9 @@ public abstract class Stmt implements ASTNode{
         public Expr condition;
         public ArrayList<Stmt> body;
 
+        // Counted by the Executor when tiered execution is on. Number of times the body looped back to the condition during the current run
+        public int backEdges;
+
         public While(Expr condition,ArrayList<Stmt> statements,int lineNumber){
             this.condition = condition;
             this.body = statements;
@@ -60,6 +63,9 @@ public abstract class Stmt implements ASTNode{
         public Expr update;
         public ArrayList<Stmt> body;
 
+        // Counted by the Executor when tiered execution is on. Number of times the body looped back to the condition during the current run
+        public int backEdges;
+
         public For(Decl.Var varDeclaration,Expr condition,Expr update,ArrayList<Stmt> statements,int lineNumber){
             this.varDeclaration = varDeclaration;
             this.condition = condition;
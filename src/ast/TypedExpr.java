@@ -0,0 +1,253 @@
+package ast;
+
+
+// Type-specialized expression nodes
+// The TypeSpecializer replaces generic Binary, Unary and Literal nodes with these once the SemanticChecker has fixed the type of
+// every expression. They extend the generic nodes, so every visitor keeps treating them like before. But when they're evaluated
+// through evalInt() or evalString(), they compute their value directly from their children's primitive values.
+// Literals are decoded only once, when the node is created.
+
+public class TypedExpr {
+
+    //================== LITERALS ===================
+
+    public static class IntLiteral extends Expr.Literal{
+        public final int intValue;
+
+        public IntLiteral(Expr.Literal literal){
+            super(literal.value, ASTEnums.INT, literal.lineNumber);
+            this.intValue = Integer.parseInt(literal.value);
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator){
+            return intValue;
+        }
+    }
+
+
+    public static class StrLiteral extends Expr.Literal{
+
+        public StrLiteral(Expr.Literal literal){
+            super(literal.value, ASTEnums.STRING, literal.lineNumber);
+        }
+
+        @Override
+        public String evalString(ASTVisitor<Object> evaluator){
+            return value;
+        }
+    }
+
+
+
+    //================== INT ARITHMETIC ===================
+
+    public static class Add extends Expr.Binary{
+        public Add(Expr.Binary binary){
+            super(binary.left, ASTEnums.PLUS, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return left.evalInt(evaluator) + right.evalInt(evaluator);
+        }
+    }
+
+
+    public static class Sub extends Expr.Binary{
+        public Sub(Expr.Binary binary){
+            super(binary.left, ASTEnums.MINUS, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return left.evalInt(evaluator) - right.evalInt(evaluator);
+        }
+    }
+
+
+    public static class Mul extends Expr.Binary{
+        public Mul(Expr.Binary binary){
+            super(binary.left, ASTEnums.MULTIPLY, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return left.evalInt(evaluator) * right.evalInt(evaluator);
+        }
+    }
+
+
+    public static class Div extends Expr.Binary{
+        public Div(Expr.Binary binary){
+            super(binary.left, ASTEnums.DIVIDE, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return left.evalInt(evaluator) / right.evalInt(evaluator);
+        }
+    }
+
+
+    public static class Neg extends Expr.Unary{
+        public Neg(Expr.Unary unary){
+            super(ASTEnums.MINUS, unary.expr, unary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return -expr.evalInt(evaluator);
+        }
+    }
+
+
+    public static class Not extends Expr.Unary{
+        public Not(Expr.Unary unary){
+            super(ASTEnums.NOT, unary.expr, unary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (expr.evalInt(evaluator) == 0 ? 1 : 0);
+        }
+    }
+
+
+
+    //================== INT COMPARISONS ===================
+
+    public static class Equal extends Expr.Binary{
+        public Equal(Expr.Binary binary){
+            super(binary.left, ASTEnums.EQUAL, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) == right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+    public static class NotEqual extends Expr.Binary{
+        public NotEqual(Expr.Binary binary){
+            super(binary.left, ASTEnums.NOT_EQUAL, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) != right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+    public static class Less extends Expr.Binary{
+        public Less(Expr.Binary binary){
+            super(binary.left, ASTEnums.LESS, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) < right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+    public static class LessEq extends Expr.Binary{
+        public LessEq(Expr.Binary binary){
+            super(binary.left, ASTEnums.LESS_EQ, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) <= right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+    public static class Greater extends Expr.Binary{
+        public Greater(Expr.Binary binary){
+            super(binary.left, ASTEnums.GREATER, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) > right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+    public static class GreaterEq extends Expr.Binary{
+        public GreaterEq(Expr.Binary binary){
+            super(binary.left, ASTEnums.GREATER_EQ, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (left.evalInt(evaluator) >= right.evalInt(evaluator) ? 1 : 0);
+        }
+    }
+
+
+
+    //================== STRING OPERATIONS ===================
+
+    public static class Concat extends Expr.Binary{
+        public Concat(Expr.Binary binary){
+            super(binary.left, ASTEnums.PLUS, binary.right, binary.lineNumber);
+            this.type = ASTEnums.STRING;
+        }
+
+        @Override
+        public String evalString(ASTVisitor<Object> evaluator) throws Exception {
+            return left.evalString(evaluator) + right.evalString(evaluator);
+        }
+    }
+
+
+    public static class StrEqual extends Expr.Binary{
+        public StrEqual(Expr.Binary binary){
+            super(binary.left, ASTEnums.EQUAL, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (stringsEqual(left.evalString(evaluator), right.evalString(evaluator)) ? 1 : 0);
+        }
+    }
+
+
+    public static class StrNotEqual extends Expr.Binary{
+        public StrNotEqual(Expr.Binary binary){
+            super(binary.left, ASTEnums.NOT_EQUAL, binary.right, binary.lineNumber);
+            this.type = ASTEnums.INT;
+        }
+
+        @Override
+        public int evalInt(ASTVisitor<Object> evaluator) throws Exception {
+            return (stringsEqual(left.evalString(evaluator), right.evalString(evaluator)) ? 0 : 1);
+        }
+    }
+
+
+    // Interned strings are usually the same object. Otherwise strings of the same length are told apart by their hash codes,
+    // which every String caches after computing it once, so comparing the same strings over and over rarely reads their characters
+    public static boolean stringsEqual(String left,String right){
+        if(left == right) return true;
+        if(left.length() != right.length() || left.hashCode() != right.hashCode()) return false;
+        return left.equals(right);
+    }
+}
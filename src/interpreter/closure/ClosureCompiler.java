@@ -0,0 +1,550 @@
+package interpreter.closure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.closure.Node.IntExpr;
+import interpreter.closure.Node.Statement;
+import interpreter.closure.Node.StrExpr;
+import interpreter.environment.Environment;
+
+
+// Walks a checked and resolved program once and turns it into a tree of Java lambdas
+// Every decision the Executor makes while running a node (which operator, which data type, which function, local or global)
+// is made here instead, and the lambda we build for the node does only the work that's left.
+
+// Statement visitors return a Node.Statement. Expression visitors return a Node.IntExpr or a Node.StrExpr depending on the
+// expression's type, except for calls to void functions, which can only appear as statements and return a Node.Statement.
+
+
+public class ClosureCompiler implements ASTVisitor<Object>{
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+    private HashMap<String,ClosureFunction> functions;
+    private int[] globalInts;
+    private Object[] globalRefs;
+    private CallDepth callDepth;
+
+
+    // Script calls recurse on the Java stack here, so a very deep limit needs a large enough thread stack
+    public void setMaxCallDepth(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
+    }
+
+
+    public ClosureProgram compile(Program program) throws Exception{
+        functions = new HashMap<>();
+        globalInts = new int[program.globalCount];
+        globalRefs = new Object[program.globalCount];
+        callDepth = new CallDepth();
+
+        // Functions are created first so that calls can be bound to them before their bodies are compiled
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+            functions.put(func.identifier, new ClosureFunction(func.identifier, func.type, func.frameSize));
+        }
+
+        ClosureFunction globalInit = new ClosureFunction("<globals>", ASTEnums.VOID, 0);
+        globalInit.body = compileBody(program.varDeclStatements);
+
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            declStmt.accept(this);
+        }
+
+        return new ClosureProgram(globalInit, functions.get("main"), callDepth);
+    }
+
+
+    @Override
+    public Object visitProgram(Program prog) throws Exception {
+        internalError("visitProgram: Programs are compiled through compile()");
+        return null;
+    }
+
+
+    @Override
+    public Object visitExprStmt(ExprStmt stmt) throws Exception {
+        Object node = stmt.expr.accept(this);
+
+        if(node instanceof IntExpr){
+            IntExpr expr = (IntExpr) node;
+            return (Statement) frame -> { expr.eval(frame); return false; };
+        }
+        if(node instanceof StrExpr){
+            StrExpr expr = (StrExpr) node;
+            return (Statement) frame -> { expr.eval(frame); return false; };
+        }
+
+        return node;
+    }
+
+
+    @Override
+    public Object visitDeclStmt(DeclStmt stmt) throws Exception {
+        return stmt.declaration.accept(this);
+    }
+
+
+    @Override
+    public Object visitWhileStmt(While stmt) throws Exception {
+        IntExpr condition = compileInt(stmt.condition);
+        Statement[] body = compileBody(stmt.body);
+
+        return (Statement) frame -> {
+            while(condition.eval(frame) != 0){
+                for(Statement s: body){
+                    if(s.exec(frame)) return true;
+                }
+            }
+            return false;
+        };
+    }
+
+
+    @Override
+    public Object visitForStmt(For stmt) throws Exception {
+        Statement init = (stmt.varDeclaration != null ? (Statement) stmt.varDeclaration.accept(this) : frame -> false);
+        IntExpr condition = (stmt.condition != null ? compileInt(stmt.condition) : frame -> 1);
+        Statement update = (stmt.update != null ? (Statement) visitExprStmt(new ExprStmt(stmt.update, stmt.lineNumber)) : frame -> false);
+        Statement[] body = compileBody(stmt.body);
+
+        return (Statement) frame -> {
+            init.exec(frame);
+            while(condition.eval(frame) != 0){
+                for(Statement s: body){
+                    if(s.exec(frame)) return true;
+                }
+                update.exec(frame);
+            }
+            return false;
+        };
+    }
+
+
+    @Override
+    public Object visitIfStmt(If stmt) throws Exception {
+        IntExpr condition = compileInt(stmt.condition);
+        Statement[] body = compileBody(stmt.body);
+
+        if(stmt.elseBody == null){
+            return (Statement) frame -> {
+                if(condition.eval(frame) != 0){
+                    for(Statement s: body){
+                        if(s.exec(frame)) return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        Statement[] elseBody = compileBody(stmt.elseBody);
+
+        return (Statement) frame -> {
+            Statement[] taken = (condition.eval(frame) != 0 ? body : elseBody);
+            for(Statement s: taken){
+                if(s.exec(frame)) return true;
+            }
+            return false;
+        };
+    }
+
+
+    @Override
+    public Object visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr instanceof Call && ((Call) stmt.expr).isTailCall){
+            return compileTailCall((Call) stmt.expr);
+        }
+
+        if(stmt.expr == null){
+            return (Statement) frame -> true;
+        }
+
+        if(stmt.expr.type == ASTEnums.STRING){
+            StrExpr value = compileStr(stmt.expr);
+            return (Statement) frame -> { frame.refResult = value.eval(frame); return true; };
+        }
+
+        IntExpr value = compileInt(stmt.expr);
+        return (Statement) frame -> { frame.intResult = value.eval(frame); return true; };
+    }
+
+
+    @Override
+    public Object visitVarDecl(Var decl) throws Exception {
+        // Declarations without initializers don't do anything. The SemanticChecker makes sure locals aren't read before being assigned,
+        // and a global starts out unassigned for the reads that are checked
+        if(decl.expr == null){
+            return (Statement) frame -> false;
+        }
+
+        int slot = decl.slot;
+
+        if(decl.type == ASTEnums.STRING){
+            StrExpr value = compileStr(decl.expr);
+            if(decl.isGlobal){
+                Object[] globals = globalRefs;
+                return (Statement) frame -> { globals[slot] = value.eval(frame); return false; };
+            }
+            return (Statement) frame -> { frame.refs[slot] = value.eval(frame); return false; };
+        }
+
+        IntExpr value = compileInt(decl.expr);
+        if(decl.isGlobal && decl.isTracked){
+            int[] globals = globalInts;
+            Object[] marks = globalRefs;
+            return (Statement) frame -> { globals[slot] = value.eval(frame); marks[slot] = Environment.ASSIGNED; return false; };
+        }
+        if(decl.isGlobal){
+            int[] globals = globalInts;
+            return (Statement) frame -> { globals[slot] = value.eval(frame); return false; };
+        }
+        return (Statement) frame -> { frame.ints[slot] = value.eval(frame); return false; };
+    }
+
+
+    @Override
+    public Object visitFuncDecl(Func decl) throws Exception {
+        functions.get(decl.identifier).body = compileBody(decl.body);
+        return null;
+    }
+
+
+    // Arguments are stored straight into the callee's frame by the call node
+    @Override
+    public Object visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Object visitBinaryExpr(Binary expr) throws Exception {
+        if(expr.left.type == ASTEnums.STRING){
+            StrExpr left = compileStr(expr.left);
+            StrExpr right = compileStr(expr.right);
+
+            switch(expr.operator){
+                case PLUS:      return (StrExpr) frame -> left.eval(frame) + right.eval(frame);
+                case EQUAL:     return (IntExpr) frame -> left.eval(frame).equals(right.eval(frame)) ? 1 : 0;
+                case NOT_EQUAL: return (IntExpr) frame -> left.eval(frame).equals(right.eval(frame)) ? 0 : 1;
+                default:
+                    internalError("visitBinaryExpr: Unsupported string operator " + expr.operator);
+            }
+        }
+
+        IntExpr left = compileInt(expr.left);
+
+        // Operations with a constant on the right side are common enough ('n - 1', 'i < 10') to deserve their own nodes
+        if(expr.right instanceof Literal){
+            int value = Integer.parseInt(((Literal) expr.right).value);
+
+            switch(expr.operator){
+                case PLUS:       return (IntExpr) frame -> left.eval(frame) + value;
+                case MINUS:      return (IntExpr) frame -> left.eval(frame) - value;
+                case LESS:       return (IntExpr) frame -> left.eval(frame) < value ? 1 : 0;
+                case LESS_EQ:    return (IntExpr) frame -> left.eval(frame) <= value ? 1 : 0;
+                case GREATER:    return (IntExpr) frame -> left.eval(frame) > value ? 1 : 0;
+                case GREATER_EQ: return (IntExpr) frame -> left.eval(frame) >= value ? 1 : 0;
+                case EQUAL:      return (IntExpr) frame -> left.eval(frame) == value ? 1 : 0;
+                default:
+                    break;
+            }
+        }
+
+        IntExpr right = compileInt(expr.right);
+
+        switch(expr.operator){
+            case PLUS:       return (IntExpr) frame -> left.eval(frame) + right.eval(frame);
+            case MINUS:      return (IntExpr) frame -> left.eval(frame) - right.eval(frame);
+            case MULTIPLY:   return (IntExpr) frame -> left.eval(frame) * right.eval(frame);
+            case DIVIDE:     return (IntExpr) frame -> left.eval(frame) / right.eval(frame);
+            case EQUAL:      return (IntExpr) frame -> left.eval(frame) == right.eval(frame) ? 1 : 0;
+            case NOT_EQUAL:  return (IntExpr) frame -> left.eval(frame) != right.eval(frame) ? 1 : 0;
+            case LESS:       return (IntExpr) frame -> left.eval(frame) < right.eval(frame) ? 1 : 0;
+            case LESS_EQ:    return (IntExpr) frame -> left.eval(frame) <= right.eval(frame) ? 1 : 0;
+            case GREATER:    return (IntExpr) frame -> left.eval(frame) > right.eval(frame) ? 1 : 0;
+            case GREATER_EQ: return (IntExpr) frame -> left.eval(frame) >= right.eval(frame) ? 1 : 0;
+            default:
+                internalError("visitBinaryExpr: Unrecognized operator " + expr.operator);
+                return null;
+        }
+    }
+
+
+    @Override
+    public Object visitUnaryExpr(Unary expr) throws Exception {
+        IntExpr operand = compileInt(expr.expr);
+
+        switch(expr.operator){
+            case MINUS: return (IntExpr) frame -> -operand.eval(frame);
+            case NOT:   return (IntExpr) frame -> operand.eval(frame) == 0 ? 1 : 0;
+            default:
+                internalError("visitUnaryExpr: Unrecognized operator " + expr.operator);
+                return null;
+        }
+    }
+
+
+    @Override
+    public Object visitAssignExpr(Assign expr) throws Exception {
+        int slot = expr.slot;
+
+        if(expr.expr.type == ASTEnums.STRING){
+            StrExpr value = compileStr(expr.expr);
+            if(expr.isGlobal){
+                Object[] globals = globalRefs;
+                return (StrExpr) frame -> { String v = value.eval(frame); globals[slot] = v; return v; };
+            }
+            return (StrExpr) frame -> { String v = value.eval(frame); frame.refs[slot] = v; return v; };
+        }
+
+        IntExpr value = compileInt(expr.expr);
+        if(expr.isGlobal && expr.isTracked){
+            int[] globals = globalInts;
+            Object[] marks = globalRefs;
+            return (IntExpr) frame -> { int v = value.eval(frame); globals[slot] = v; marks[slot] = Environment.ASSIGNED; return v; };
+        }
+        if(expr.isGlobal){
+            int[] globals = globalInts;
+            return (IntExpr) frame -> globals[slot] = value.eval(frame);
+        }
+        return (IntExpr) frame -> frame.ints[slot] = value.eval(frame);
+    }
+
+
+    @Override
+    public Object visitLiteralExpr(Literal expr) {
+        switch(expr.type){
+            case INT:
+                int intValue = Integer.parseInt(expr.value);
+                return (IntExpr) frame -> intValue;
+            case STRING:
+                String strValue = expr.value;
+                return (StrExpr) frame -> strValue;
+            default:
+                internalError("visitLiteralExpr: Invalid literal type " + expr.type);
+                return null;
+        }
+    }
+
+
+    @Override
+    public Object visitCallExpr(Call expr) throws Exception {
+        if(expr.builtIn != null){
+            return compileBuiltInCall(expr);
+        }
+
+        ClosureFunction callee = functions.get(expr.funcIdentifier);
+        int argCnt = expr.arguments.size();
+
+        // Parameters take the first slots of the callee's frame, in order
+        boolean[] isString = new boolean[argCnt];
+        IntExpr[] intArgs = new IntExpr[argCnt];
+        StrExpr[] strArgs = new StrExpr[argCnt];
+
+        for(int i = 0; i < argCnt; i++){
+            Expr arg = expr.arguments.get(i);
+            isString[i] = (arg.type == ASTEnums.STRING);
+            if(isString[i]) strArgs[i] = compileStr(arg);
+            else intArgs[i] = compileInt(arg);
+        }
+
+        CallDepth depth = callDepth;
+        int limit = maxCallDepth;
+        int line = expr.lineNumber;
+
+        Invocation invoke = frame -> {
+            if(depth.value == limit){
+                runtimeError(line, "Cannot call function '" + callee.name + "' . Maximum function call stack size reached ");
+            }
+
+            Frame calleeFrame = new Frame(callee.frameSize);
+            for(int i = 0; i < argCnt; i++){
+                if(isString[i]) calleeFrame.refs[i] = strArgs[i].eval(frame);
+                else calleeFrame.ints[i] = intArgs[i].eval(frame);
+            }
+
+            depth.value++;
+            callee.run(calleeFrame);
+            depth.value--;
+
+            return calleeFrame;
+        };
+
+        switch(callee.returnType){
+            case INT:    return (IntExpr) frame -> invoke.call(frame).intResult;
+            case STRING: return (StrExpr) frame -> (String) invoke.call(frame).refResult;
+            default:     return (Statement) frame -> { invoke.call(frame); return false; };
+        }
+    }
+
+
+    // Globals the SafetyAnalyzer couldn't prove assigned are read by a lambda that checks them. A STRING global is null until
+    // it's assigned, and tracked writes to an INT global leave a mark in the Object[] half of its slot.
+    // Every read of a local is proven, the SemanticChecker only accepts locals assigned earlier in their function
+    @Override
+    public Object visitVariableExpr(Variable expr) {
+        int slot = expr.slot;
+
+        if(expr.isGlobal && !expr.isAssigned){
+            Object[] marks = globalRefs;
+            int line = expr.lineNumber;
+            String message = "Using an uninitialized variable '" + expr.identifier + "'";
+
+            if(expr.type == ASTEnums.STRING){
+                return (StrExpr) frame -> {
+                    if(marks[slot] == null) runtimeError(line, message);
+                    return (String) marks[slot];
+                };
+            }
+
+            int[] globals = globalInts;
+            return (IntExpr) frame -> {
+                if(marks[slot] == null) runtimeError(line, message);
+                return globals[slot];
+            };
+        }
+
+        if(expr.type == ASTEnums.STRING){
+            if(expr.isGlobal){
+                Object[] globals = globalRefs;
+                return (StrExpr) frame -> (String) globals[slot];
+            }
+            return (StrExpr) frame -> (String) frame.refs[slot];
+        }
+
+        if(expr.isGlobal){
+            int[] globals = globalInts;
+            return (IntExpr) frame -> globals[slot];
+        }
+        return (IntExpr) frame -> frame.ints[slot];
+    }
+
+
+
+
+    private Object compileBuiltInCall(Call expr) throws Exception{
+        BuiltInFunction builtIn = expr.builtIn;
+        int argCnt = expr.arguments.size();
+
+        Object[] args = new Object[argCnt];
+        for(int i = 0; i < argCnt; i++){
+            args[i] = expr.arguments.get(i).accept(this);
+        }
+
+        BuiltInInvocation invoke = frame -> {
+            ArrayList<Object> values = new ArrayList<>(argCnt);
+            for(Object arg: args){
+                if(arg instanceof IntExpr) values.add(((IntExpr) arg).eval(frame));
+                else values.add(((StrExpr) arg).eval(frame));
+            }
+            return builtIn.execute(values);
+        };
+
+        switch(expr.type){
+            case INT:    return (IntExpr) frame -> (Integer) invoke.call(frame);
+            case STRING: return (StrExpr) frame -> (String) invoke.call(frame);
+            default:     return (Statement) frame -> { invoke.call(frame); return false; };
+        }
+    }
+
+
+    // Arguments are evaluated before any of them is stored, since they can still read the caller's parameters.
+    // The call depth doesn't change, the callee simply takes over the frame once this statement ends the body
+    private Statement compileTailCall(Call call) throws Exception{
+        ClosureFunction callee = functions.get(call.funcIdentifier);
+        int argCnt = call.arguments.size();
+
+        boolean[] isString = new boolean[argCnt];
+        IntExpr[] intArgs = new IntExpr[argCnt];
+        StrExpr[] strArgs = new StrExpr[argCnt];
+
+        for(int i = 0; i < argCnt; i++){
+            Expr arg = call.arguments.get(i);
+            isString[i] = (arg.type == ASTEnums.STRING);
+            if(isString[i]) strArgs[i] = compileStr(arg);
+            else intArgs[i] = compileInt(arg);
+        }
+
+        return (Statement) frame -> {
+            int[] ints = new int[argCnt];
+            Object[] refs = new Object[argCnt];
+            for(int i = 0; i < argCnt; i++){
+                if(isString[i]) refs[i] = strArgs[i].eval(frame);
+                else ints[i] = intArgs[i].eval(frame);
+            }
+
+            if(frame.ints.length < callee.frameSize) frame.grow(callee.frameSize);
+            System.arraycopy(ints, 0, frame.ints, 0, argCnt);
+            System.arraycopy(refs, 0, frame.refs, 0, argCnt);
+
+            frame.tailCallee = callee;
+            return true;
+        };
+    }
+
+
+    private Statement[] compileBody(List<? extends Stmt> body) throws Exception{
+        Statement[] statements = new Statement[body.size()];
+        for(int i = 0; i < statements.length; i++){
+            statements[i] = (Statement) body.get(i).accept(this);
+        }
+        return statements;
+    }
+
+
+    private IntExpr compileInt(Expr expr) throws Exception{
+        Object node = expr.accept(this);
+        if(!(node instanceof IntExpr)){
+            internalError("compileInt: Expected an INT expression on line " + expr.lineNumber);
+        }
+        return (IntExpr) node;
+    }
+
+
+    private StrExpr compileStr(Expr expr) throws Exception{
+        Object node = expr.accept(this);
+        if(!(node instanceof StrExpr)){
+            internalError("compileStr: Expected a STRING expression on line " + expr.lineNumber);
+        }
+        return (StrExpr) node;
+    }
+
+
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: ClosureCompiler." + message);
+        System.exit(0);
+    }
+
+    private static void runtimeError(int lineNumber,String message) throws Exception{
+        System.out.println("Line " + lineNumber +": Runtime error: " + message);
+        throw new Exception();
+    }
+
+
+    // Runs a call and returns the callee's frame, which holds the return value
+    @FunctionalInterface
+    private interface Invocation {
+        public Frame call(Frame caller) throws Exception;
+    }
+
+
+    @FunctionalInterface
+    private interface BuiltInInvocation {
+        public Object call(Frame caller) throws Exception;
+    }
+
+
+    // Number of active calls, shared by every call node of a program
+    public static class CallDepth {
+        public int value;
+    }
+}
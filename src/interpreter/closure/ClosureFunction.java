@@ -0,0 +1,39 @@
+package interpreter.closure;
+
+import ast.ASTEnums;
+
+
+// A closure compiled function. Calls are bound to these objects when the program is compiled, and the body is filled in
+// once every function has been created, so that functions can call each other in any order
+
+public class ClosureFunction {
+    public final String name;
+    public final ASTEnums returnType;
+    public final int frameSize;
+    public Node.Statement[] body;
+
+
+    public ClosureFunction(String name,ASTEnums returnType,int frameSize){
+        this.name = name;
+        this.returnType = returnType;
+        this.frameSize = frameSize;
+    }
+
+
+    // A tail call ends the body like a return, but leaves the callee in the frame. Its body then runs here, in the same frame
+    public void run(Frame frame) throws Exception{
+        Node.Statement[] body = this.body;
+
+        while(true){
+            for(Node.Statement stmt: body){
+                if(stmt.exec(frame)) break;
+            }
+
+            ClosureFunction callee = frame.tailCallee;
+            if(callee == null) return;
+
+            frame.tailCallee = null;
+            body = callee.body;
+        }
+    }
+}
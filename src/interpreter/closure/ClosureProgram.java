@@ -0,0 +1,32 @@
+package interpreter.closure;
+
+
+// Output of the ClosureCompiler, ready to be run
+
+public class ClosureProgram {
+    private ClosureFunction globalInit;
+    private ClosureFunction main;
+    private ClosureCompiler.CallDepth callDepth;
+
+
+    public ClosureProgram(ClosureFunction globalInit,ClosureFunction main,ClosureCompiler.CallDepth callDepth){
+        this.globalInit = globalInit;
+        this.main = main;
+        this.callDepth = callDepth;
+    }
+
+
+    public Object execute() throws Exception{
+        globalInit.run(new Frame(0));
+
+        Frame frame = new Frame(main.frameSize);
+        callDepth.value = 1;
+        main.run(frame);
+
+        switch(main.returnType){
+            case INT:    return frame.intResult;
+            case STRING: return frame.refResult;
+            default:     return null;
+        }
+    }
+}
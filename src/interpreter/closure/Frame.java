@@ -0,0 +1,30 @@
+package interpreter.closure;
+
+
+// Activation frame of a closure compiled function. Slots are the ones assigned by the Resolver.
+// Every slot has an int half and a reference half, the compiler knows which one a variable uses.
+
+public class Frame {
+    public int[] ints;
+    public Object[] refs;
+
+    // Set by a return statement
+    public int intResult;
+    public Object refResult;
+
+    // Set by a tail call, the function that takes over this frame once the current body returns
+    public ClosureFunction tailCallee;
+
+
+    public Frame(int size){
+        this.ints = new int[size];
+        this.refs = new Object[size];
+    }
+
+
+    // A tail call can hand the frame to a function that needs more slots than it has
+    public void grow(int size){
+        ints = java.util.Arrays.copyOf(ints, size);
+        refs = java.util.Arrays.copyOf(refs, size);
+    }
+}
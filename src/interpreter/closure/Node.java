@@ -0,0 +1,26 @@
+package interpreter.closure;
+
+
+// Building blocks of closure compiled code. The ClosureCompiler turns every ast node into one of these, already specialized
+// for its operator and data type, so running the program is just a chain of direct calls with no visitor dispatch or switches.
+
+// INT values are passed around as primitive ints and never boxed
+
+public interface Node {
+
+    @FunctionalInterface
+    public interface IntExpr {
+        public int eval(Frame frame) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface StrExpr {
+        public String eval(Frame frame) throws Exception;
+    }
+
+    // Returns true if a return statement was executed, in which case the return value has been stored in the frame
+    @FunctionalInterface
+    public interface Statement {
+        public boolean exec(Frame frame) throws Exception;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Scanner;
 
 import ast.ASTEnums;
+import ast.BuiltInFunction;
 import ast.Decl;
 
 
@@ -67,34 +68,86 @@ public class BuiltIns {
     }
 
 
-    // An interface used to execute all of the built-in functions
+    // Checks if the built-in function computes its result from its arguments alone, without any input or output
 
-    public static Object executeFunction(String funcIdentifier, ArrayList<Object> arguments){
-        
-        switch (funcIdentifier) {
-            
-            case "print":
-                if(arguments.size() != 1) internalError("executeFunction: Calling 'print' with wrong number of arguments");
-                print((String) arguments.get(0));
+    public static boolean isFuncPure(String funcName){
+        switch (funcName) {
+            case "intToStr":
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+
+    // Built-in functions bound to their implementations. Calls are linked to these objects by the Resolver,
+    // so executing a built-in doesn't involve looking it up by name. The SemanticChecker has already checked the arguments.
+
+    public enum Handler implements BuiltInFunction {
+        PRINT("print") {
+            public Object execute(ArrayList<Object> arguments){
+                print(String.valueOf(arguments.get(0)));
                 return null;
+            }
+        },
 
-            case "readStr":
-                if(arguments.size() != 0) internalError("executeFunction: Calling 'readStr' with wrong number of arguments");
+        READ_STR("readStr") {
+            public Object execute(ArrayList<Object> arguments){
                 return readStr();
+            }
+        },
 
-            case "readInt":
-                if(arguments.size() != 0) internalError("executeFunction: Calling 'readInt' with wrong number of arguments");
+        READ_INT("readInt") {
+            public Object execute(ArrayList<Object> arguments){
                 return readInt();
-            
-            case "intToStr":
-                if(arguments.size() != 1) internalError("executeFunction: Calling 'intToStr' with wrong number of arguments");
-                return intToStr((int) arguments.get(0));
+            }
+        },
 
-            default:
-                internalError("executeFunction: Calling a function that is not built-in");
-                return null;
+        INT_TO_STR("intToStr") {
+            public Object execute(ArrayList<Object> arguments){
+                return intToStr((int) arguments.get(0));
             }
+        };
+
+
+        private final String funcName;
+
+        private Handler(String funcName){
+            this.funcName = funcName;
+        }
+
+        @Override
+        public String toString(){
+            return funcName;
+        }
+    }
+
+
+    // Returns the handler of a built-in function, or null if the function is not built-in
+
+    public static Handler getHandler(String funcName){
+        switch (funcName) {
+            case "print":    return Handler.PRINT;
+            case "readStr":  return Handler.READ_STR;
+            case "readInt":  return Handler.READ_INT;
+            case "intToStr": return Handler.INT_TO_STR;
+            default:         return null;
+        }
+    }
+
+
+    // An interface used to execute all of the built-in functions by name
+
+    public static Object executeFunction(String funcIdentifier, ArrayList<Object> arguments){
+        Handler handler = getHandler(funcIdentifier);
+
+        if(handler == null){
+            internalError("executeFunction: Calling a function that is not built-in");
+            return null;
+        }
 
+        return handler.execute(arguments);
     }
 
 
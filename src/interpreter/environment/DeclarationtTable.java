@@ -23,6 +23,7 @@ public class DeclarationtTable {
     // Block scopes can be nested inside each other. We use the stack to keep track of those scopes.
     // Each value in the stack is a list of names declared in that particular scope
     // When we leave a particular block scope we "undeclare" the variables declared there
+    // Most blocks don't declare anything, so a block's list is only created with its first declaration. Until then its entry is null
     private Stack< LinkedList<String> > cleanupTracker;
 
     
@@ -49,6 +50,9 @@ public class DeclarationtTable {
         stack.push(new Variable(type,nestingLevel));
 
         // We keep track of variables declared in the current block scope so we can remove their declaration later when exiting the block
+        if(cleanupTracker.peek() == null){
+            cleanupTracker.set(cleanupTracker.size() - 1, new LinkedList<>());
+        }
         cleanupTracker.peek().add(name);
     }
 
@@ -95,7 +99,7 @@ public class DeclarationtTable {
     // 'nestingLevel' variable keeps track of the number of block scopes we're currently inside of, since block scopes can be nested
     public void enterBlockScope(){
         nestingLevel++;
-        cleanupTracker.push(new LinkedList<>());
+        cleanupTracker.push(null);
     }
 
 
@@ -104,6 +108,7 @@ public class DeclarationtTable {
         nestingLevel--;
         
         LinkedList<String> latestDeclarations = cleanupTracker.pop();
+        if(latestDeclarations == null) return;
 
         for(String name: latestDeclarations){
             Stack<Variable> stack = nameTable.get(name);
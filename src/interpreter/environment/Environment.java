@@ -1,7 +1,8 @@
 package interpreter.environment;
 
 
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import ast.Decl;
 import ast.ASTEnums;
@@ -14,19 +15,63 @@ import ast.ASTEnums;
 // For example, if we try to call fetchFunc for a function name that has not yet been declared we throw an internal error, signaling that
 // the Environment class has not been used properly
 
+// The call stack is an array of FunctionCall records that are kept when a call returns, together with their frame array.
+// The next call at the same depth reuses both, and only allocates a bigger frame when its function needs more slots.
+// The caller pushes the argument values on a separate argument stack, and enterFrame() copies them straight into the
+// parameter slots, so a call of the Executor allocates nothing once the program has been that deep before.
+// Every Executor run gets a new Environment, so the pool belongs to the thread running it.
+
+// Frames and the global area have two regions with the same slots: INT variables live in an int[] and STRING variables in an Object[].
+// A slot holds one type or the other, as the Resolver can give it to variables of both types in different blocks.
+// INT values are never boxed on their way in or out, and their arguments have an int stack of their own.
+// Reads don't check anything here. The SafetyAnalyzer proves most of them assigned, and the Executor checks the others with
+// isGlobalAssigned() and isLocalAssigned(): a STRING slot holds null until it's assigned, and writes to an INT variable
+// that needs the check leave a mark in the Object[] region of its slot.
+
 public class Environment{ 
     private DeclarationtTable functionTable;
     private DeclarationtTable globalScope;
     private DeclarationtTable activeLocalSCope;
-    private Stack<FunctionCall> callStack;
+    private FunctionCall[] callStack;
+    private int callDepth;
+
+    // Argument values of the calls being prepared, the last pushed value is at index argumentCount - 1
+    private Object[] arguments;
+    private int argumentCount;
+    private int[] intArguments;
+    private int intArgumentCount;
+
+    // Slot based storage used by the Executor once the Resolver has bound every variable to an index
+    private Object[] globals;
+    private int[] globalInts;
+    private Object[] activeFrame;
+    private int[] activeInts;
 
-    private int MAX_CALLSTACK_SIZE = 100;
+    // Left in the Object[] region of a slot by writes to an INT variable whose reads are checked, compiled code leaves it too
+    public static final Object ASSIGNED = new Object();
+
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+    private int maxCallDepth;
 
     public Environment(){
+        this(DEFAULT_MAX_CALL_DEPTH);
+    }
+
+    public Environment(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
         this.functionTable = new DeclarationtTable();
         this.globalScope = new DeclarationtTable();
         this.activeLocalSCope = null;
-        this.callStack = new Stack<>();
+        this.callStack = new FunctionCall[16];
+        this.callDepth = 0;
+        this.arguments = new Object[16];
+        this.argumentCount = 0;
+        this.intArguments = new int[16];
+        this.intArgumentCount = 0;
+        this.globals = new Object[0];
+        this.globalInts = new int[0];
+        this.activeFrame = null;
+        this.activeInts = null;
     }
 
     
@@ -65,12 +110,12 @@ public class Environment{
 
 
     public Decl.Func fetchCurrentFunction(){
-        if(callStack.empty()){
+        if(callDepth == 0){
             internalError("fetchCurrentFunction: Fetching current function, but the call stack is empty");
             return null;
         }
 
-        return callStack.peek().funcNode;
+        return callStack[callDepth - 1].funcNode;
     }
 
 
@@ -85,7 +130,7 @@ public class Environment{
     // OPERATIONS REGARDING VARIABLES
 
     public void declareVar(String name,ASTEnums type){
-        if(callStack.empty()){
+        if(callDepth == 0){
             if(globalScope.isDeclared(name)){
                 internalError("declareVar: Declaring a variable with the same name twice in global scope twice '" + name + "'");
                 return;
@@ -184,7 +229,7 @@ public class Environment{
 
     // We check if a variable has alredy been declared in the current innermost block scope
     public boolean isVarDeclaredInCurrentBlock(String name){
-        if(callStack.empty()){
+        if(callDepth == 0){
             // Global scope doesn't have nested block scopes inside it. 
             return globalScope.isDeclared(name);
         }
@@ -194,6 +239,85 @@ public class Environment{
     }
 
 
+    // OPERATIONS REGARDING RESOLVED VARIABLES
+    // A slot holding null has not been initialized yet
+
+    public void allocateGlobals(int count){
+        globals = new Object[count];
+        globalInts = new int[count];
+    }
+
+
+    // Globals that live in arrays created elsewhere, for running single functions of a program that some other engine is running
+    public void shareGlobals(Object[] globals,int[] globalInts){
+        this.globals = globals;
+        this.globalInts = globalInts;
+    }
+
+
+    public Object fetchGlobal(int slot){
+        return globals[slot];
+    }
+
+
+    public void assignGlobal(int slot,Object value){
+        globals[slot] = value;
+    }
+
+
+    public Object fetchLocal(int slot){
+        return activeFrame[slot];
+    }
+
+
+    public void assignLocal(int slot,Object value){
+        activeFrame[slot] = value;
+    }
+
+
+    public int fetchGlobalInt(int slot){
+        return globalInts[slot];
+    }
+
+
+    public void assignGlobalInt(int slot,int value){
+        globalInts[slot] = value;
+    }
+
+
+    public int fetchLocalInt(int slot){
+        return activeInts[slot];
+    }
+
+
+    public void assignLocalInt(int slot,int value){
+        activeInts[slot] = value;
+    }
+
+
+    public boolean isGlobalAssigned(int slot){
+        return globals[slot] != null;
+    }
+
+
+    public boolean isLocalAssigned(int slot){
+        return activeFrame[slot] != null;
+    }
+
+
+    // Records whether the INT variable in the slot is assigned, for the reads that check it
+    public void markGlobal(int slot,boolean assigned){
+        globals[slot] = (assigned ? ASSIGNED : null);
+    }
+
+
+    public void markLocal(int slot,boolean assigned){
+        activeFrame[slot] = (assigned ? ASSIGNED : null);
+    }
+
+
+
+
     // These functions are used for manipulating scopes. 
 
     public void enterCodeBlock(){
@@ -215,34 +339,141 @@ public class Environment{
 
     // When we enter a funciton we want to save the previous function's declaration table on the stack and create a new one
     public void enterFunction(Decl.Func funcNode){
-        if(callStack.size() == MAX_CALLSTACK_SIZE){
-            internalError("enterFunction: Maximum function call stack size of 100 reached. Exiting.");
+        if(callDepth == maxCallDepth){
+            internalError("enterFunction: Maximum function call stack size of " + maxCallDepth + " reached. Exiting.");
         }
 
         activeLocalSCope = new DeclarationtTable();
-        callStack.push(new FunctionCall(funcNode,activeLocalSCope));
+        pushCall(funcNode).scope = activeLocalSCope;
+    }
+
+
+    // Pushes the value of the next STRING argument of a call that is about to be made
+    public void pushArgument(Object value){
+        if(argumentCount == arguments.length){
+            arguments = Arrays.copyOf(arguments, argumentCount * 2);
+        }
+        arguments[argumentCount++] = value;
+    }
+
+
+    // Pushes the value of the next INT argument of a call that is about to be made
+    public void pushIntArgument(int value){
+        if(intArgumentCount == intArguments.length){
+            intArguments = Arrays.copyOf(intArguments, intArgumentCount * 2);
+        }
+        intArguments[intArgumentCount++] = value;
+    }
+
+
+    // Takes the arguments pushed for a call to the function off the argument stacks, boxed and in order,
+    // for calls that don't get a frame here
+    public ArrayList<Object> popArguments(Decl.Func funcNode){
+        ArrayList<Object> values = new ArrayList<>(funcNode.params.size());
+        int nextInt = intArgumentCount - funcNode.intParamCount;
+        int nextRef = argumentCount - (funcNode.params.size() - funcNode.intParamCount);
+
+        for(Decl.Param param: funcNode.params){
+            if(param.type == ASTEnums.INT) values.add(intArguments[nextInt++]);
+            else values.add(arguments[nextRef++]);
+        }
+
+        dropArguments(funcNode);
+        return values;
+    }
+
+
+    // Same as enterFunction, but the function's variables live in an array-backed frame instead of a DeclarationTable.
+    // The arguments pushed for the call become the first slots of the frame, which are the parameters
+    // The Executor checks the depth limit before the calls that could go over it
+    public void enterFrame(Decl.Func funcNode){
+        FunctionCall call = pushCall(funcNode);
+        call.scope = null;
+
+        // A recycled frame still holds the variables of an earlier call, and a null slot means an uninitialized variable.
+        // The int[] region only ever holds values the SemanticChecker knows are assigned before they are read
+        if(call.frame == null || call.frame.length < funcNode.frameSize){
+            call.frame = new Object[funcNode.frameSize];
+            call.ints = new int[funcNode.frameSize];
+        }
+        else{
+            Arrays.fill(call.frame, 0, funcNode.frameSize, null);
+        }
+
+        activeFrame = call.frame;
+        activeInts = call.ints;
+        takeArguments(funcNode);
+    }
+
+
+    // A tail call takes over the active frame instead of pushing a new one, so the call stack doesn't grow.
+    // The array is only replaced when the callee needs more slots than the caller had
+    public void reuseFrame(Decl.Func funcNode){
+        if(callDepth == 0){
+            internalError("reuseFrame: No active function frame");
+        }
+
+        FunctionCall call = callStack[callDepth - 1];
+        if(activeFrame.length < funcNode.frameSize){
+            activeFrame = new Object[funcNode.frameSize];
+            activeInts = new int[funcNode.frameSize];
+            call.frame = activeFrame;
+            call.ints = activeInts;
+        }
+        call.funcNode = funcNode;
+        takeArguments(funcNode);
     }
 
 
     public void exitFunction(){
-        if(callStack.empty()){
+        if(callDepth == 0){
             internalError("exitFunction: Exiting a function but call stack is empty");
         }
 
-        callStack.pop();
+        callDepth--;
 
-        if(callStack.empty()){
+        if(callDepth == 0){
             activeLocalSCope = null;
+            activeFrame = null;
+            activeInts = null;
         }
         else{
-            activeLocalSCope = callStack.peek().scope;
+            FunctionCall call = callStack[callDepth - 1];
+            activeLocalSCope = call.scope;
+            activeFrame = (call.scope == null ? call.frame : null);
+            activeInts = (call.scope == null ? call.ints : null);
         }
     }
 
     
+    public int getCallDepth(){
+        return callDepth;
+    }
+
+
+    public Object[] getGlobals(){
+        return globals;
+    }
+
+
+    public int[] getGlobalInts(){
+        return globalInts;
+    }
+
+
+    public Object[] getActiveFrame(){
+        return activeFrame;
+    }
+
+
+    public int[] getActiveInts(){
+        return activeInts;
+    }
+
+
     // Checks if the limit for the call stack depth has been reached
     public boolean isMaxCallstackReached(){
-        return (callStack.size() == MAX_CALLSTACK_SIZE); 
+        return (callDepth == maxCallDepth);
     }
 
 
@@ -254,14 +485,57 @@ public class Environment{
 
 
 
+    // Records are recycled along with their frame. 'scope' is null for calls whose variables live in the frame
+    private FunctionCall pushCall(Decl.Func funcNode){
+        if(callDepth == callStack.length){
+            callStack = Arrays.copyOf(callStack, callDepth * 2);
+        }
+
+        FunctionCall call = callStack[callDepth];
+        if(call == null){
+            call = new FunctionCall();
+            callStack[callDepth] = call;
+        }
+
+        callDepth++;
+        call.funcNode = funcNode;
+        return call;
+    }
+
+
+    // Moves the arguments pushed for a call to the function into its parameter slots in the active frame
+    private void takeArguments(Decl.Func funcNode){
+        int nextInt = intArgumentCount - funcNode.intParamCount;
+        int nextRef = argumentCount - (funcNode.params.size() - funcNode.intParamCount);
+
+        for(Decl.Param param: funcNode.params){
+            if(param.type == ASTEnums.INT) activeInts[param.slot] = intArguments[nextInt++];
+            else activeFrame[param.slot] = arguments[nextRef++];
+        }
+
+        dropArguments(funcNode);
+    }
+
+
+    // The argument stack lets go of the values, so they can be collected once the call is over
+    private void dropArguments(Decl.Func funcNode){
+        int ints = funcNode.intParamCount;
+        int refs = funcNode.params.size() - ints;
+
+        Arrays.fill(arguments, argumentCount - refs, argumentCount, null);
+        argumentCount -= refs;
+        intArgumentCount -= ints;
+    }
+
+
+
+
+
     private static class FunctionCall{
         public DeclarationtTable scope;
+        public Object[] frame;
+        public int[] ints;
         public Decl.Func funcNode;
-
-        public FunctionCall(Decl.Func funcNode,DeclarationtTable scope){
-            this.funcNode = funcNode;
-            this.scope = scope;
-        }
     }
 
 
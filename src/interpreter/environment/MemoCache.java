@@ -0,0 +1,88 @@
+package interpreter.environment;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Results of a pure function, keyed by its arguments. Once the entries take more than the memory budget,
+// the least recently used ones are evicted. The size of an entry can only be estimated from the sizes of its
+// arguments and its result, so the budget is approximate.
+
+public class MemoCache {
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int INTEGER_SIZE = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int LIST_OVERHEAD = 40;
+
+    private LinkedHashMap<Object,Object> entries;
+    private long budget;
+    private long used;
+
+    private long hits;
+    private long misses;
+
+
+    public MemoCache(long budget){
+        // Access order turns the map into an LRU list, the first entry is always the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+    }
+
+
+    // Returns the cached result, or null if there is none
+    public Object get(Object key){
+        Object value = entries.get(key);
+
+        if(value == null) misses++;
+        else hits++;
+
+        return value;
+    }
+
+
+    public void put(Object key,Object value){
+        long size = ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value);
+        if(size > budget) return;
+
+        entries.put(key, value);
+        used += size;
+
+        Iterator<Map.Entry<Object,Object>> eldest = entries.entrySet().iterator();
+        while(used > budget){
+            Map.Entry<Object,Object> entry = eldest.next();
+            used -= ENTRY_OVERHEAD + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+
+    public long getHits(){
+        return hits;
+    }
+
+    public long getMisses(){
+        return misses;
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+
+
+    private static long sizeOf(Object value){
+        if(value instanceof CharSequence) return STRING_OVERHEAD + 2L * ((CharSequence) value).length();
+
+        if(value instanceof List){
+            long size = LIST_OVERHEAD;
+            for(Object element: (List<?>) value){
+                size += 4 + sizeOf(element);
+            }
+            return size;
+        }
+
+        return INTEGER_SIZE;
+    }
+}
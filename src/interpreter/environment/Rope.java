@@ -0,0 +1,142 @@
+package interpreter.environment;
+
+import java.util.ArrayDeque;
+
+
+// A string built by concatenation, whose characters are only put together when they are needed.
+// The Executor's string values are either plain Strings or Ropes, and toString() flattens a Rope into a String,
+// once, the first time it is compared, printed or measured.
+
+// A Rope is either a prefix of a shared buffer or a pair of parts. Appending a short string to the Rope that ends the buffer
+// appends to the buffer itself, so 's = s + x' in a loop grows one buffer instead of copying 's' every time.
+// Any other long concatenation just links its two parts. Short results are plain Strings, where copying is cheaper than a node.
+
+
+public final class Rope implements CharSequence {
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+
+    private StringBuilder buffer;
+    private CharSequence left;
+    private CharSequence right;
+
+    private String flat;
+
+
+    private Rope(StringBuilder buffer,int length){
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+
+    private Rope(CharSequence left,CharSequence right,int length){
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+
+    public static CharSequence concat(CharSequence left,CharSequence right){
+        int length = left.length() + right.length();
+
+        if(length < MIN_LENGTH){
+            return left.toString().concat(right.toString());
+        }
+
+        if(left instanceof Rope && ((Rope) left).endsBuffer()){
+            StringBuilder buffer = ((Rope) left).buffer;
+            append(buffer, right);
+            return new Rope(buffer, length);
+        }
+
+        if(right.length() < MIN_LENGTH){
+            StringBuilder buffer = new StringBuilder(length * 2);
+            append(buffer, left);
+            append(buffer, right);
+            return new Rope(buffer, length);
+        }
+
+        return new Rope(left, right, length);
+    }
+
+
+    // Nothing was appended to the buffer after this Rope, so it can grow in place. Older Ropes on the same buffer
+    // only ever read their own prefix of it
+    private boolean endsBuffer(){
+        return buffer != null && buffer.length() == length;
+    }
+
+
+    private static void append(StringBuilder buffer,CharSequence part){
+        if(part instanceof Rope && ((Rope) part).buffer != null){
+            buffer.append(((Rope) part).buffer, 0, part.length());
+        }
+        else{
+            buffer.append(part.toString());
+        }
+    }
+
+
+    @Override
+    public int length(){
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index){
+        return toString().charAt(index);
+    }
+
+
+    @Override
+    public CharSequence subSequence(int start,int end){
+        return toString().subSequence(start, end);
+    }
+
+
+    @Override
+    public String toString(){
+        if(flat == null) flatten();
+        return flat;
+    }
+
+
+    // Long chains of concatenations make deep trees, so the parts are walked with a stack instead of recursion.
+    // The tree is dropped afterwards, the flat String holds everything
+    private void flatten(){
+        if(buffer != null){
+            flat = buffer.substring(0, length);
+            return;
+        }
+
+        char[] chars = new char[length];
+        int position = 0;
+
+        ArrayDeque<CharSequence> parts = new ArrayDeque<>();
+        parts.push(this);
+
+        while(!parts.isEmpty()){
+            CharSequence part = parts.pop();
+
+            if(part instanceof Rope && ((Rope) part).left != null && ((Rope) part).flat == null){
+                parts.push(((Rope) part).right);
+                parts.push(((Rope) part).left);
+            }
+            else if(part instanceof Rope && ((Rope) part).flat == null){
+                ((Rope) part).buffer.getChars(0, part.length(), chars, position);
+                position += part.length();
+            }
+            else{
+                String string = part.toString();
+                string.getChars(0, string.length(), chars, position);
+                position += string.length();
+            }
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+    }
+}
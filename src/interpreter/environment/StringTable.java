@@ -0,0 +1,35 @@
+package interpreter.environment;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+// Gives every string one canonical String object, so equal strings are usually the same object and compare by identity.
+// The string literals of the program were already stored once by the TypeSpecializer, and they are always the canonical ones.
+// Strings made while the program runs are kept in a weak cache, so a string nothing refers to anymore can still be collected.
+
+public class StringTable {
+    private final Map<String,String> literals;
+    private final WeakHashMap<String,WeakReference<String>> cache = new WeakHashMap<>();
+
+
+    public StringTable(Map<String,String> literals){
+        this.literals = literals;
+    }
+
+
+    public String intern(String value){
+        String canonical = literals.get(value);
+        if(canonical != null) return canonical;
+
+        WeakReference<String> reference = cache.get(value);
+        if(reference != null){
+            canonical = reference.get();
+            if(canonical != null) return canonical;
+        }
+
+        cache.put(value, new WeakReference<>(value));
+        return value;
+    }
+}
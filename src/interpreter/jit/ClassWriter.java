@@ -0,0 +1,218 @@
+package interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+// Writes a JVM class file with static fields and static methods, which is all the JitCompiler needs.
+// Constant pool entries are shared, asking for the same constant twice returns the same index.
+
+// Classes are written with class file version 49, so methods don't need a StackMapTable. The JVM checks such classes
+// with its type-inferring verifier instead, which lets us skip computing stack frames for every jump target.
+
+
+class ClassWriter {
+    private static final int VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int UTF8 = 1, INTEGER = 3, CLASS = 7, STRING = 8, FIELD = 9, METHOD = 10, INTERFACE_METHOD = 11, NAME_AND_TYPE = 12;
+
+    private final String className;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private HashMap<String,Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private ArrayList<byte[]> fields = new ArrayList<>();
+    private ArrayList<byte[]> methods = new ArrayList<>();
+
+
+    ClassWriter(String className){
+        this.className = className;
+    }
+
+
+    String getClassName(){
+        return className;
+    }
+
+
+    void addField(String name,String descriptor) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeShort(ACC_PUBLIC | ACC_STATIC);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(0);
+
+        fields.add(bytes.toByteArray());
+    }
+
+
+    // Every method gets a Code attribute and nothing else
+    void addMethod(String name,String descriptor,Code code) throws IOException{
+        byte[] bytecode = code.toBytes();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeShort(ACC_PUBLIC | ACC_STATIC);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1);
+
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(code.getMaxStack());
+        out.writeShort(code.getMaxLocals());
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        methods.add(bytes.toByteArray());
+    }
+
+
+    byte[] toBytes() throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(VERSION);
+
+        out.writeShort(poolCount);
+        out.write(poolBytes.toByteArray());
+
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+
+        out.writeShort(fields.size());
+        for(byte[] field: fields) out.write(field);
+
+        out.writeShort(methods.size());
+        for(byte[] method: methods) out.write(method);
+
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+
+
+
+    // CONSTANT POOL
+
+    int utf8(String value) throws IOException{
+        String key = "u" + value;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        pool.writeByte(UTF8);
+        pool.writeUTF(value);
+        return register(key);
+    }
+
+
+    int integer(int value) throws IOException{
+        String key = "i" + value;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        pool.writeByte(INTEGER);
+        pool.writeInt(value);
+        return register(key);
+    }
+
+
+    int string(String value) throws IOException{
+        String key = "s" + value;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        int utf = utf8(value);
+        pool.writeByte(STRING);
+        pool.writeShort(utf);
+        return register(key);
+    }
+
+
+    int classRef(String name) throws IOException{
+        String key = "c" + name;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        int utf = utf8(name);
+        pool.writeByte(CLASS);
+        pool.writeShort(utf);
+        return register(key);
+    }
+
+
+    int fieldRef(String owner,String name,String descriptor) throws IOException{
+        return memberRef(FIELD, owner, name, descriptor);
+    }
+
+
+    int methodRef(String owner,String name,String descriptor) throws IOException{
+        return memberRef(METHOD, owner, name, descriptor);
+    }
+
+
+    int interfaceMethodRef(String owner,String name,String descriptor) throws IOException{
+        return memberRef(INTERFACE_METHOD, owner, name, descriptor);
+    }
+
+
+    private int memberRef(int tag,String owner,String name,String descriptor) throws IOException{
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        pool.writeByte(tag);
+        pool.writeShort(ownerIndex);
+        pool.writeShort(nameAndType);
+        return register(key);
+    }
+
+
+    private int nameAndType(String name,String descriptor) throws IOException{
+        String key = "n" + name + ":" + descriptor;
+        Integer index = constants.get(key);
+        if(index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descIndex = utf8(descriptor);
+        pool.writeByte(NAME_AND_TYPE);
+        pool.writeShort(nameIndex);
+        pool.writeShort(descIndex);
+        return register(key);
+    }
+
+
+    // The constant pool is indexed with two bytes
+    private int register(String key) throws IOException{
+        if(poolCount == 0xFFFF){
+            throw new IOException("Constant pool of " + className + " is full");
+        }
+
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+}
@@ -0,0 +1,265 @@
+package interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+
+// Bytecode of a single JVM method, written for the ClassWriter that owns its constant pool.
+
+// The operand stack depth is tracked as instructions are added, so max_stack is known without analyzing the method.
+// The count is kept in a straight line through jumps, which can only make it larger than the real maximum, never smaller.
+// Jumps go to Labels and are patched once the method is complete.
+
+
+class Code {
+    static final int ACONST_NULL = 0x01, ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11,
+                     LDC = 0x12, LDC_W = 0x13, ILOAD = 0x15, ALOAD = 0x19, IALOAD = 0x2e, AALOAD = 0x32, ISTORE = 0x36, ASTORE = 0x3a,
+                     IASTORE = 0x4f, AASTORE = 0x53, POP = 0x57, DUP = 0x59, DUP_X2 = 0x5b,
+                     IADD = 0x60, ISUB = 0x64, IMUL = 0x68, IDIV = 0x6c, INEG = 0x74, IXOR = 0x82,
+                     IFEQ = 0x99, IFNE = 0x9a, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1, IF_ICMPGE = 0xa2,
+                     IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, IRETURN = 0xac, ARETURN = 0xb0, RETURN = 0xb1,
+                     GETSTATIC = 0xb2, PUTSTATIC = 0xb3, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+                     INVOKEINTERFACE = 0xb9, NEW = 0xbb, ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0, WIDE = 0xc4,
+                     IFNONNULL = 0xc7;
+
+    // Methods are limited to 64KB of bytecode, and jumps can only cover half of that with their two byte offset
+    private static final int MAX_CODE_LENGTH = 0xFFFF;
+
+    private final ClassWriter classWriter;
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private ArrayList<Jump> jumps = new ArrayList<>();
+
+    private int stack;
+    private int maxStack;
+    private int maxLocals;
+
+
+    Code(ClassWriter classWriter,int maxLocals){
+        this.classWriter = classWriter;
+        this.maxLocals = maxLocals;
+    }
+
+
+    int getMaxStack(){
+        return maxStack;
+    }
+
+
+    int getMaxLocals(){
+        return maxLocals;
+    }
+
+
+    // Instructions without operands. The stack effect of every opcode the JitCompiler uses this way is listed in stackEffect()
+    void op(int opcode){
+        bytes.write(opcode);
+        adjustStack(stackEffect(opcode));
+    }
+
+
+    void pushInt(int value) throws IOException{
+        if(value >= -1 && value <= 5){
+            bytes.write(ICONST_0 + value);
+        }
+        else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+            bytes.write(BIPUSH);
+            bytes.write(value);
+        }
+        else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+            bytes.write(SIPUSH);
+            writeShort(value);
+        }
+        else{
+            loadConstant(classWriter.integer(value));
+            return;
+        }
+        adjustStack(1);
+    }
+
+
+    void pushString(String value) throws IOException{
+        loadConstant(classWriter.string(value));
+    }
+
+
+    private void loadConstant(int index){
+        if(index <= 0xFF){
+            bytes.write(LDC);
+            bytes.write(index);
+        }
+        else{
+            bytes.write(LDC_W);
+            writeShort(index);
+        }
+        adjustStack(1);
+    }
+
+
+    // ILOAD, ALOAD, ISTORE or ASTORE of a local variable
+    void local(int opcode,int index){
+        if(index > 0xFF){
+            bytes.write(WIDE);
+            bytes.write(opcode);
+            writeShort(index);
+        }
+        else{
+            bytes.write(opcode);
+            bytes.write(index);
+        }
+
+        maxLocals = Math.max(maxLocals, index + 1);
+        adjustStack(opcode == ILOAD || opcode == ALOAD ? 1 : -1);
+    }
+
+
+    // GETSTATIC or PUTSTATIC. Fields hold either an int or a reference, so they all take a single stack slot
+    void field(int opcode,String owner,String name,String descriptor) throws IOException{
+        bytes.write(opcode);
+        writeShort(classWriter.fieldRef(owner, name, descriptor));
+        adjustStack(opcode == GETSTATIC ? 1 : -1);
+    }
+
+
+    void invoke(int opcode,String owner,String name,String descriptor) throws IOException{
+        int argSlots = countArgSlots(descriptor);
+        boolean hasResult = !descriptor.endsWith(")V");
+
+        bytes.write(opcode);
+        if(opcode == INVOKEINTERFACE){
+            writeShort(classWriter.interfaceMethodRef(owner, name, descriptor));
+            bytes.write(argSlots + 1);
+            bytes.write(0);
+        }
+        else{
+            writeShort(classWriter.methodRef(owner, name, descriptor));
+        }
+
+        int receiver = (opcode == INVOKESTATIC ? 0 : 1);
+        adjustStack(-argSlots - receiver + (hasResult ? 1 : 0));
+    }
+
+
+    // NEW, ANEWARRAY or CHECKCAST
+    void type(int opcode,String className) throws IOException{
+        bytes.write(opcode);
+        writeShort(classWriter.classRef(className));
+        adjustStack(opcode == NEW ? 1 : 0);
+    }
+
+
+
+
+    // JUMPS
+
+    static class Label {
+        private int position = -1;
+    }
+
+    private static class Jump {
+        final int position;
+        final Label target;
+
+        Jump(int position,Label target){
+            this.position = position;
+            this.target = target;
+        }
+    }
+
+
+    void jump(int opcode,Label target){
+        jumps.add(new Jump(bytes.size(), target));
+        bytes.write(opcode);
+        writeShort(0);
+
+        if(opcode == GOTO) return;
+        if(opcode == IFEQ || opcode == IFNE || opcode == IFNONNULL) adjustStack(-1);
+        else adjustStack(-2);
+    }
+
+
+    void place(Label label){
+        label.position = bytes.size();
+    }
+
+
+    // Fills in jump offsets. Code that is too large for a JVM method is reported, so the function can be left to the interpreter
+    byte[] toBytes() throws IOException{
+        byte[] code = bytes.toByteArray();
+
+        if(code.length > MAX_CODE_LENGTH){
+            throw new IOException("Method is " + code.length + " bytes long");
+        }
+
+        for(Jump jump: jumps){
+            if(jump.target.position < 0){
+                internalError("toBytes: Jump to a label that was never placed");
+            }
+
+            int offset = jump.target.position - jump.position;
+            if(offset < Short.MIN_VALUE || offset > Short.MAX_VALUE){
+                throw new IOException("Jump offset " + offset + " does not fit in two bytes");
+            }
+
+            code[jump.position + 1] = (byte) (offset >> 8);
+            code[jump.position + 2] = (byte) offset;
+        }
+
+        return code;
+    }
+
+
+
+
+    private void adjustStack(int effect){
+        stack += effect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+
+    private void writeShort(int value){
+        bytes.write(value >> 8);
+        bytes.write(value);
+    }
+
+
+    private static int stackEffect(int opcode){
+        switch(opcode){
+            case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1: case DUP: case DUP_X2:
+                return 1;
+            case IALOAD: case AALOAD: case POP: case IADD: case ISUB: case IMUL: case IDIV: case IXOR:
+            case IRETURN: case ARETURN: case ATHROW:
+                return -1;
+            case IASTORE: case AASTORE:
+                return -3;
+            case INEG: case RETURN:
+                return 0;
+            default:
+                internalError("stackEffect: Unknown stack effect of opcode " + opcode);
+                return 0;
+        }
+    }
+
+
+    // Script values are ints and references, which take one slot each
+    private static int countArgSlots(String descriptor){
+        int slots = 0;
+        int i = 1;
+
+        while(descriptor.charAt(i) != ')'){
+            while(descriptor.charAt(i) == '[') i++;
+            if(descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+            slots++;
+        }
+
+        return slots;
+    }
+
+
+
+    private static void internalError(String message){
+        System.out.println("Internal error: Code." + message);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,1250 @@
+package interpreter.jit;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.environment.BuiltIns;
+import interpreter.modules.Executor;
+
+
+// Compiles a checked and resolved program to JVM bytecode. Every function becomes a static method of one class, which is
+// loaded as a hidden class, so HotSpot compiles script code the same way it compiles the interpreter itself.
+
+// INT values live in JVM int locals and STRING values in CharSequence locals, which hold a String or a Rope, so concatenation
+// doesn't copy long strings any more than it does in the Executor. Calls between functions are direct invokestatic
+// instructions, and a return of a call to the function itself jumps back to the start of the method instead.
+// Global variables stay in the arrays of the Executor's global area, INT globals in an int[] and STRING globals in an Object[],
+// so functions that run in the Executor see the same values.
+
+// A function whose code doesn't fit in a JVM method is left to the Executor. Calls to it go through the JitRuntime,
+// and everything it calls runs in the Executor too. So are functions that can reach themselves again through tail calls to
+// other functions: a JVM method can't hand its frame over to another one, and the Executor runs such calls in constant stack space. Visitors emit code into the method being compiled and return null.
+
+// Every compiled function also gets an entry the interpreter can call with boxed arguments. For tiered execution the class
+// can also get an entry for every loop, which takes over a frame of the Executor in the middle of the loop and runs the rest of it.
+
+// A Trace compiles to a loop entry that only holds the path the trace recorded. Each If on the path is a guard that leaves
+// the trace when the condition goes the other way, and small functions whose body is a straight line are inlined into the trace.
+
+
+public class JitCompiler implements ASTVisitor<Object>{
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+
+    static final String CLASS_NAME = "interpreter/jit/Script";
+    private static final String GLOBALS_METHOD = "$globals";
+    private static final String TRACE_METHOD = "$trace";
+    private static final int MAX_INLINED_STATEMENTS = 8;
+    static final String CALL_ENTRY_DESCRIPTOR = "([Ljava/lang/Object;I)Ljava/lang/Object;";
+    static final String LOOP_ENTRY_DESCRIPTOR = "([Ljava/lang/Object;[II)Ljava/lang/Object;";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String ENVIRONMENT = "interpreter/environment/Environment";
+    private static final String STRING = "java/lang/String";
+    private static final String CHARS = "java/lang/CharSequence";
+    private static final String ROPE = "interpreter/environment/Rope";
+    private static final String INTEGER = "java/lang/Integer";
+    private static final String RUNTIME = "interpreter/jit/JitRuntime";
+    private static final String HANDLER = "interpreter/environment/BuiltIns$Handler";
+
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+    private ArrayList<Decl.Func> functions;
+    private HashSet<Decl.Func> interpreted;
+
+    private ClassWriter classWriter;
+    private Code code;
+    private Decl.Func function;
+    private Code.Label functionStart;
+
+    private boolean withLoopEntries;
+    private HashMap<Stmt,String> loopEntries;
+
+    // Set while a loop entry is compiled. Returns leave the method with a boxed value, and the locals the loop assigns are written back to the frame
+    private boolean inLoopEntry;
+    private HashSet<Integer> assignedLocals;
+
+    // Set while the entry of 'trace' is compiled. Each guard gets a label that leads to its exit
+    private Trace trace;
+    private String traceEntryName;
+    private ArrayList<Code.Label> guardExits;
+    private boolean inTrace;
+    private boolean inlining;
+
+    // JVM local of every frame slot, per type, since the Resolver can give the same slot to an INT and a STRING variable.
+    // Script locals start at 'localBase', after the locals the method itself uses
+    private HashMap<Integer,Integer> locals;
+    private int localBase;
+
+    // Local that holds the depth argument of the entry being compiled
+    private int depthLocal;
+
+
+    public void setMaxCallDepth(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
+    }
+
+
+    public JitProgram compile(Program program) throws Exception{
+        return compile(program, false);
+    }
+
+
+    public JitProgram compile(Program program,boolean withLoopEntries) throws Exception{
+        return compile(program, withLoopEntries, null);
+    }
+
+
+    // Compiles the program together with the entry of the trace. Returns false when the path can't be compiled as a trace,
+    // because it holds a nested loop or a return, or doesn't fit in a method
+    public boolean compileTrace(Program program,Trace trace) throws Exception{
+        JitProgram compiled = compile(program, false, trace);
+        if(!compiled.hasTrace()) return false;
+
+        trace.setProgram(compiled);
+        return true;
+    }
+
+
+    private JitProgram compile(Program program,boolean withLoopEntries,Trace trace) throws Exception{
+        this.withLoopEntries = withLoopEntries;
+        this.trace = trace;
+
+        functions = new ArrayList<>();
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            functions.add((Decl.Func) declStmt.declaration);
+        }
+
+        Executor executor = new Executor();
+        executor.setMaxCallDepth(maxCallDepth);
+        interpreted = findTailCallCycles();
+        JitRuntime runtime = new JitRuntime(executor, functions, interpreted, program.globalCount);
+
+        byte[] bytes;
+
+        try{
+            // Leaving a function to the Executor changes the calls to it, so the class is written again until no more functions fail
+            do{
+                bytes = writeClass(program);
+            } while(bytes == null);
+        }
+        catch(IOException e){
+            // The class as a whole is too large, so the whole program is left to the Executor
+            return new JitProgram(program, null, runtime, new HashMap<>(), null, functions.indexOf(findMain()), maxCallDepth);
+        }
+
+        MethodHandles.Lookup lookup = null;
+        try{
+            lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        }
+        catch(LinkageError e){
+            internalError("compile: Generated class was rejected: " + e);
+        }
+
+        return new JitProgram(program, lookup, runtime, loopEntries, traceEntryName, functions.indexOf(findMain()), maxCallDepth);
+    }
+
+
+    // Returns null when a function had to be left to the Executor during this attempt
+    private byte[] writeClass(Program program) throws Exception{
+        classWriter = new ClassWriter(CLASS_NAME);
+        classWriter.addField("globals", "[L" + OBJECT + ";");
+        classWriter.addField("intGlobals", "[I");
+        classWriter.addField("depth", "I");
+        classWriter.addField("maxDepth", "I");
+        classWriter.addField("runtime", "L" + RUNTIME + ";");
+
+        loopEntries = new HashMap<>();
+        traceEntryName = null;
+        function = null;
+        inLoopEntry = false;
+        assignedLocals = null;
+        locals = new HashMap<>();
+        code = new Code(classWriter, 0);
+        compileBody(program.varDeclStatements);
+        code.op(Code.RETURN);
+        classWriter.addMethod(GLOBALS_METHOD, "()V", code);
+
+        boolean failed = false;
+
+        for(Decl.Func func: functions){
+            if(interpreted.contains(func)) continue;
+
+            try{
+                func.accept(this);
+            }
+            catch(IOException e){
+                interpreted.add(func);
+                failed = true;
+                continue;
+            }
+
+            addCallEntry(func);
+            if(withLoopEntries) addLoopEntries(func, func.body);
+        }
+
+        if(failed) return null;
+
+        if(trace != null) addTraceEntry();
+        return classWriter.toBytes();
+    }
+
+
+    // Functions on a cycle of tail calls that goes through another function. Direct tail recursion is a jump and needs no frame
+    private HashSet<Decl.Func> findTailCallCycles(){
+        HashMap<Decl.Func,HashSet<Decl.Func>> tailCallees = new HashMap<>();
+        for(Decl.Func func: functions){
+            HashSet<Decl.Func> callees = new HashSet<>();
+            collectTailCallees(func.body, func, callees);
+            tailCallees.put(func, callees);
+        }
+
+        HashSet<Decl.Func> onCycle = new HashSet<>();
+        for(Decl.Func func: functions){
+            // Functions reached from 'func' through tail calls, 'func' itself only if it is reached again
+            HashSet<Decl.Func> reached = new HashSet<>();
+            ArrayList<Decl.Func> pending = new ArrayList<>(tailCallees.get(func));
+
+            while(!pending.isEmpty()){
+                Decl.Func next = pending.remove(pending.size() - 1);
+                if(!reached.add(next)) continue;
+                pending.addAll(tailCallees.get(next));
+            }
+
+            if(reached.contains(func)) onCycle.add(func);
+        }
+        return onCycle;
+    }
+
+
+    private void collectTailCallees(List<Stmt> body,Decl.Func caller,HashSet<Decl.Func> callees){
+        for(Stmt stmt: body){
+            if(stmt instanceof Ret){
+                Expr expr = ((Ret) stmt).expr;
+                if(expr instanceof Call && ((Call) expr).isTailCall){
+                    Decl.Func callee = ((Call) expr).function;
+                    if(callee != null && callee != caller) callees.add(callee);
+                }
+            }
+            else if(stmt instanceof While) collectTailCallees(((While) stmt).body, caller, callees);
+            else if(stmt instanceof For) collectTailCallees(((For) stmt).body, caller, callees);
+            else if(stmt instanceof If){
+                collectTailCallees(((If) stmt).body, caller, callees);
+                if(((If) stmt).elseBody != null) collectTailCallees(((If) stmt).elseBody, caller, callees);
+            }
+        }
+    }
+
+
+    private Decl.Func findMain(){
+        for(Decl.Func func: functions){
+            if(func.identifier.equals("main")) return func;
+        }
+
+        internalError("findMain: Program has no main function");
+        return null;
+    }
+
+
+    boolean isInterpreted(Decl.Func func){
+        return interpreted.contains(func);
+    }
+
+
+    static String descriptor(Decl.Func func){
+        StringBuilder sb = new StringBuilder("(");
+        for(Param param: func.params){
+            sb.append(descriptor(param.type));
+        }
+        return sb.append(")").append(descriptor(func.type)).toString();
+    }
+
+
+    static String descriptor(ASTEnums type){
+        switch(type){
+            case INT:    return "I";
+            case STRING: return "L" + CHARS + ";";
+            default:     return "V";
+        }
+    }
+
+
+
+
+    // STATEMENTS
+
+    @Override
+    public Object visitProgram(Program prog) throws Exception {
+        internalError("visitProgram: Programs are compiled through compile()");
+        return null;
+    }
+
+
+    @Override
+    public Object visitExprStmt(ExprStmt stmt) throws Exception {
+        compileEffect(stmt.expr);
+        return null;
+    }
+
+
+    @Override
+    public Object visitDeclStmt(DeclStmt stmt) throws Exception {
+        return stmt.declaration.accept(this);
+    }
+
+
+    @Override
+    public Object visitWhileStmt(While stmt) throws Exception {
+        compileLoop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+
+    @Override
+    public Object visitForStmt(For stmt) throws Exception {
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+
+        compileLoop(stmt.condition, stmt.body, stmt.update);
+        return null;
+    }
+
+
+    @Override
+    public Object visitIfStmt(If stmt) throws Exception {
+        Code.Label elseBranch = new Code.Label();
+
+        compileCondition(stmt.condition, elseBranch);
+        compileBody(stmt.body);
+
+        if(stmt.elseBody == null){
+            code.place(elseBranch);
+            return null;
+        }
+
+        Code.Label end = new Code.Label();
+        code.jump(Code.GOTO, end);
+        code.place(elseBranch);
+        compileBody(stmt.elseBody);
+        code.place(end);
+        return null;
+    }
+
+
+    @Override
+    public Object visitRetStmt(Ret stmt) throws Exception {
+        if(inLoopEntry){
+            compileLoopEntryReturn(stmt);
+            return null;
+        }
+
+        if(stmt.expr == null){
+            code.op(Code.RETURN);
+            return null;
+        }
+
+        if(stmt.expr instanceof Call && ((Call) stmt.expr).isTailCall){
+            Call call = (Call) stmt.expr;
+
+            // Tail recursion becomes a loop: the arguments are stored into the parameters and the method starts over
+            if(call.function == function){
+                for(Expr arg: call.arguments){
+                    arg.accept(this);
+                }
+                for(int i = call.arguments.size() - 1; i >= 0; i--){
+                    storeLocal(function.params.get(i).slot, function.params.get(i).type);
+                }
+                code.jump(Code.GOTO, functionStart);
+                return null;
+            }
+
+            // Other tail calls take the caller's place on the call stack in the rest of the engines, so they aren't counted here either.
+            // Functions that could chain such calls forever run in the Executor, so a chain of them is at most as long as the program
+            compileCall(call, isInterpreted(call.function));
+        }
+        else{
+            stmt.expr.accept(this);
+        }
+
+        switch(stmt.expr.type){
+            case INT:    code.op(Code.IRETURN); break;
+            case STRING: code.op(Code.ARETURN); break;
+            default:     code.op(Code.RETURN);
+        }
+        return null;
+    }
+
+
+    // Declarations without initializers don't store anything. Every local already holds 0 or null from the start of the method
+    @Override
+    public Object visitVarDecl(Var decl) throws Exception {
+        if(decl.isGlobal && decl.type == ASTEnums.INT){
+            if(decl.expr == null) return null;
+
+            code.field(Code.GETSTATIC, CLASS_NAME, "intGlobals", "[I");
+            code.pushInt(decl.slot);
+            decl.expr.accept(this);
+            code.op(Code.IASTORE);
+            if(decl.isTracked) compileMark(true, decl.slot);
+            return null;
+        }
+
+        if(decl.isGlobal){
+            code.field(Code.GETSTATIC, CLASS_NAME, "globals", "[L" + OBJECT + ";");
+            code.pushInt(decl.slot);
+
+            if(decl.expr != null){
+                decl.expr.accept(this);
+                box(decl.type);
+            }
+            else{
+                code.op(Code.ACONST_NULL);
+            }
+
+            code.op(Code.AASTORE);
+            return null;
+        }
+
+        if(decl.expr == null) return null;
+
+        decl.expr.accept(this);
+        storeLocal(decl.slot, decl.type);
+        return null;
+    }
+
+
+    // Throws an IOException when the function doesn't fit in a JVM method
+    @Override
+    public Object visitFuncDecl(Func decl) throws Exception {
+        function = decl;
+        code = new Code(classWriter, decl.params.size());
+
+        // The JVM only lets a method read locals that are assigned on every path to the read
+        allocateLocals(decl, 0);
+        for(int key: locals.keySet()){
+            int index = locals.get(key);
+            if(index < decl.params.size()) continue;
+
+            if(key % 2 == 1) code.op(Code.ACONST_NULL);
+            else code.op(Code.ICONST_0);
+            code.local(key % 2 == 1 ? Code.ASTORE : Code.ISTORE, index);
+        }
+
+        functionStart = new Code.Label();
+        code.place(functionStart);
+        compileBody(decl.body);
+
+        // Non-void functions end with a return, but it can sit in a block that the JVM doesn't know is always taken
+        switch(decl.type){
+            case INT:    code.op(Code.ICONST_0); code.op(Code.IRETURN); break;
+            case STRING: code.op(Code.ACONST_NULL); code.op(Code.ARETURN); break;
+            default:     code.op(Code.RETURN);
+        }
+
+        classWriter.addMethod(decl.identifier, descriptor(decl), code);
+        return null;
+    }
+
+
+    @Override
+    public Object visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+
+
+    // EXPRESSIONS
+    // Every expression leaves its value on the operand stack, except calls to void functions
+
+    @Override
+    public Object visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+
+        if(expr.left.type == ASTEnums.STRING){
+            switch(expr.operator){
+                case PLUS:
+                    code.invoke(Code.INVOKESTATIC, ROPE, "concat", "(L" + CHARS + ";L" + CHARS + ";)L" + CHARS + ";");
+                    return null;
+                case EQUAL:
+                    code.invoke(Code.INVOKESTATIC, RUNTIME, "strEquals", "(L" + CHARS + ";L" + CHARS + ";)Z");
+                    return null;
+                case NOT_EQUAL:
+                    code.invoke(Code.INVOKESTATIC, RUNTIME, "strEquals", "(L" + CHARS + ";L" + CHARS + ";)Z");
+                    code.op(Code.ICONST_1);
+                    code.op(Code.IXOR);
+                    return null;
+                default:
+                    internalError("visitBinaryExpr: Unsupported string operator " + expr.operator);
+            }
+        }
+
+        switch(expr.operator){
+            case PLUS:     code.op(Code.IADD); return null;
+            case MINUS:    code.op(Code.ISUB); return null;
+            case MULTIPLY: code.op(Code.IMUL); return null;
+            case DIVIDE:   code.op(Code.IDIV); return null;
+            default:
+                break;
+        }
+
+        Code.Label isTrue = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        code.jump(comparisonJump(expr.operator, false), isTrue);
+        code.op(Code.ICONST_0);
+        code.jump(Code.GOTO, end);
+        code.place(isTrue);
+        code.op(Code.ICONST_1);
+        code.place(end);
+        return null;
+    }
+
+
+    @Override
+    public Object visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+
+        switch(expr.operator){
+            case MINUS:
+                code.op(Code.INEG);
+                return null;
+            case NOT:
+                Code.Label isZero = new Code.Label();
+                Code.Label end = new Code.Label();
+
+                code.jump(Code.IFEQ, isZero);
+                code.op(Code.ICONST_0);
+                code.jump(Code.GOTO, end);
+                code.place(isZero);
+                code.op(Code.ICONST_1);
+                code.place(end);
+                return null;
+            default:
+                internalError("visitUnaryExpr: Unrecognized operator " + expr.operator);
+                return null;
+        }
+    }
+
+
+    @Override
+    public Object visitAssignExpr(Assign expr) throws Exception {
+        compileAssign(expr, true);
+        return null;
+    }
+
+
+    @Override
+    public Object visitLiteralExpr(Literal expr) throws Exception {
+        switch(expr.type){
+            case INT:
+                code.pushInt(Integer.parseInt(expr.value));
+                return null;
+            case STRING:
+                code.pushString(expr.value);
+                return null;
+            default:
+                internalError("visitLiteralExpr: Invalid literal type " + expr.type);
+                return null;
+        }
+    }
+
+
+    @Override
+    public Object visitCallExpr(Call expr) throws Exception {
+        if(inTrace && !inlining && isInlinable(expr)){
+            compileInlinedCall(expr);
+            return null;
+        }
+
+        compileCall(expr, true);
+        return null;
+    }
+
+
+    // Every read of a local is proven, the SemanticChecker only accepts locals assigned earlier in their function
+    @Override
+    public Object visitVariableExpr(Variable expr) throws Exception {
+        if(expr.isGlobal && !expr.isAssigned) compileAssignedCheck(expr);
+
+        if(expr.isGlobal && expr.type == ASTEnums.INT){
+            code.field(Code.GETSTATIC, CLASS_NAME, "intGlobals", "[I");
+            code.pushInt(expr.slot);
+            code.op(Code.IALOAD);
+            return null;
+        }
+
+        if(expr.isGlobal){
+            code.field(Code.GETSTATIC, CLASS_NAME, "globals", "[L" + OBJECT + ";");
+            code.pushInt(expr.slot);
+            code.op(Code.AALOAD);
+            unbox(expr.type);
+            return null;
+        }
+
+        int index = locals.get(localKey(expr.slot, expr.type));
+        code.local(expr.type == ASTEnums.STRING ? Code.ALOAD : Code.ILOAD, index);
+        return null;
+    }
+
+
+
+
+    // HELPERS
+
+    private void compileBody(List<? extends Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+
+
+    // The condition is checked at the top, so a loop entry can start with it. For loops run their initializer before this
+    private void compileLoop(Expr condition,List<Stmt> body,Expr update) throws Exception{
+        Code.Label top = new Code.Label();
+        Code.Label end = new Code.Label();
+
+        code.place(top);
+        if(condition != null) compileCondition(condition, end);
+        compileBody(body);
+        if(update != null) compileEffect(update);
+        code.jump(Code.GOTO, top);
+        code.place(end);
+    }
+
+
+    // Evaluates an expression for its effects only, leaving nothing on the stack
+    private void compileEffect(Expr expr) throws Exception{
+        if(expr instanceof Assign){
+            compileAssign((Assign) expr, false);
+            return;
+        }
+
+        expr.accept(this);
+        if(expr.type != ASTEnums.VOID) code.op(Code.POP);
+    }
+
+
+    // Jumps to 'ifFalse' when the condition evaluates to 0
+    private void compileCondition(Expr condition,Code.Label ifFalse) throws Exception{
+        compileJump(condition, false, ifFalse);
+    }
+
+
+    // Jumps to 'target' when the condition is true, or when it's false if 'whenTrue' isn't set.
+    // Comparisons jump on their operands directly instead of producing 0 or 1 first
+    private void compileJump(Expr condition,boolean whenTrue,Code.Label target) throws Exception{
+        if(condition instanceof Binary && ((Binary) condition).left.type == ASTEnums.INT){
+            Binary binary = (Binary) condition;
+            int jump = comparisonJump(binary.operator, !whenTrue);
+
+            if(jump != 0){
+                binary.left.accept(this);
+                binary.right.accept(this);
+                code.jump(jump, target);
+                return;
+            }
+        }
+
+        if(condition instanceof Unary && ((Unary) condition).operator == ASTEnums.NOT){
+            ((Unary) condition).expr.accept(this);
+            code.jump(whenTrue ? Code.IFEQ : Code.IFNE, target);
+            return;
+        }
+
+        condition.accept(this);
+        code.jump(whenTrue ? Code.IFNE : Code.IFEQ, target);
+    }
+
+
+    // The jump taken when the comparison holds, or when it doesn't if 'negate' is set. Returns 0 for operators that don't compare
+    private int comparisonJump(ASTEnums operator,boolean negate){
+        switch(operator){
+            case EQUAL:      return negate ? Code.IF_ICMPNE : Code.IF_ICMPEQ;
+            case NOT_EQUAL:  return negate ? Code.IF_ICMPEQ : Code.IF_ICMPNE;
+            case LESS:       return negate ? Code.IF_ICMPGE : Code.IF_ICMPLT;
+            case LESS_EQ:    return negate ? Code.IF_ICMPGT : Code.IF_ICMPLE;
+            case GREATER:    return negate ? Code.IF_ICMPLE : Code.IF_ICMPGT;
+            case GREATER_EQ: return negate ? Code.IF_ICMPLT : Code.IF_ICMPGE;
+            default:         return 0;
+        }
+    }
+
+
+    private void compileAssign(Assign expr,boolean keepValue) throws Exception{
+        ASTEnums type = expr.expr.type;
+
+        if(expr.isGlobal && type == ASTEnums.INT){
+            code.field(Code.GETSTATIC, CLASS_NAME, "intGlobals", "[I");
+            code.pushInt(expr.slot);
+            expr.expr.accept(this);
+            if(keepValue) code.op(Code.DUP_X2);
+            code.op(Code.IASTORE);
+            if(expr.isTracked) compileMark(true, expr.slot);
+            return;
+        }
+
+        if(expr.isGlobal){
+            code.field(Code.GETSTATIC, CLASS_NAME, "globals", "[L" + OBJECT + ";");
+            code.pushInt(expr.slot);
+            expr.expr.accept(this);
+            if(keepValue) code.op(Code.DUP_X2);
+            box(type);
+            code.op(Code.AASTORE);
+            return;
+        }
+
+        expr.expr.accept(this);
+        if(keepValue) code.op(Code.DUP);
+        storeLocal(expr.slot, type);
+
+        // Only the entries share their frame with the Executor, and only for the function's own variables, not inlined ones
+        if(expr.isTracked && type == ASTEnums.INT && assignedLocals != null) compileMark(false, expr.slot);
+    }
+
+
+    // Writes to an INT variable with reads the Executor checks leave Environment.ASSIGNED in the Object[] region of the slot,
+    // in the global area or in the frame an entry got
+    private void compileMark(boolean isGlobal,int slot) throws IOException{
+        if(isGlobal) code.field(Code.GETSTATIC, CLASS_NAME, "globals", "[L" + OBJECT + ";");
+        else code.local(Code.ALOAD, 0);
+
+        code.pushInt(slot);
+        code.field(Code.GETSTATIC, ENVIRONMENT, "ASSIGNED", "L" + OBJECT + ";");
+        code.op(Code.AASTORE);
+    }
+
+
+    // Reads of a global the SafetyAnalyzer couldn't prove assigned check its slot in the Object[] region first, the same way
+    // the Executor checks it: a STRING global is null until it's assigned, and an INT global until a write leaves the mark
+    private void compileAssignedCheck(Variable expr) throws IOException{
+        Code.Label assigned = new Code.Label();
+        code.field(Code.GETSTATIC, CLASS_NAME, "globals", "[L" + OBJECT + ";");
+        code.pushInt(expr.slot);
+        code.op(Code.AALOAD);
+        code.jump(Code.IFNONNULL, assigned);
+        code.pushInt(expr.lineNumber);
+        code.pushString(expr.identifier);
+        code.invoke(Code.INVOKESTATIC, RUNTIME, "uninitializedError", "(IL" + STRING + ";)Ljava/lang/Exception;");
+        code.op(Code.ATHROW);
+        code.place(assigned);
+    }
+
+
+    // Calls to functions compiled into the class are direct. Before one is made the call depth is checked, the same way the
+    // Executor checks it, and the counter in the class's 'depth' field is raised for the duration of the call
+    private void compileCall(Call expr,boolean countDepth) throws Exception{
+        if(expr.builtIn != null){
+            compileBuiltInCall(expr);
+            return;
+        }
+
+        Decl.Func callee = expr.function;
+
+        if(countDepth) compileDepthCheck(expr);
+
+        if(isInterpreted(callee)){
+            compileInterpretedCall(expr);
+            return;
+        }
+
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+
+        if(countDepth) addToDepth(1);
+        code.invoke(Code.INVOKESTATIC, CLASS_NAME, callee.identifier, descriptor(callee));
+        if(countDepth) addToDepth(-1);
+    }
+
+
+    private void compileDepthCheck(Call expr) throws IOException{
+        Code.Label belowLimit = new Code.Label();
+        code.field(Code.GETSTATIC, CLASS_NAME, "depth", "I");
+        code.field(Code.GETSTATIC, CLASS_NAME, "maxDepth", "I");
+        code.jump(Code.IF_ICMPLT, belowLimit);
+        code.pushInt(expr.lineNumber);
+        code.pushString(expr.function.identifier);
+        code.invoke(Code.INVOKESTATIC, RUNTIME, "callDepthError", "(IL" + STRING + ";)Ljava/lang/Exception;");
+        code.op(Code.ATHROW);
+        code.place(belowLimit);
+    }
+
+
+    // The arguments are boxed into an array and handed to the JitRuntime together with the depth of the new call
+    private void compileInterpretedCall(Call expr) throws Exception{
+        code.field(Code.GETSTATIC, CLASS_NAME, "runtime", "L" + RUNTIME + ";");
+        code.pushInt(functions.indexOf(expr.function));
+
+        code.pushInt(expr.arguments.size());
+        code.type(Code.ANEWARRAY, OBJECT);
+        for(int i = 0; i < expr.arguments.size(); i++){
+            code.op(Code.DUP);
+            code.pushInt(i);
+            expr.arguments.get(i).accept(this);
+            box(expr.arguments.get(i).type);
+            code.op(Code.AASTORE);
+        }
+
+        code.field(Code.GETSTATIC, CLASS_NAME, "depth", "I");
+        code.op(Code.ICONST_1);
+        code.op(Code.IADD);
+
+        code.invoke(Code.INVOKEVIRTUAL, RUNTIME, "callInterpreted", "(I[L" + OBJECT + ";I)L" + OBJECT + ";");
+        unbox(expr.function.type);
+    }
+
+
+    // Built-in functions are called through the same handler objects the Executor uses
+    private void compileBuiltInCall(Call expr) throws Exception{
+        String handler = ((BuiltIns.Handler) expr.builtIn).name();
+        code.field(Code.GETSTATIC, HANDLER, handler, "L" + HANDLER + ";");
+
+        code.type(Code.NEW, "java/util/ArrayList");
+        code.op(Code.DUP);
+        code.invoke(Code.INVOKESPECIAL, "java/util/ArrayList", "<init>", "()V");
+        for(Expr arg: expr.arguments){
+            code.op(Code.DUP);
+            arg.accept(this);
+            box(arg.type);
+            code.invoke(Code.INVOKEVIRTUAL, "java/util/ArrayList", "add", "(L" + OBJECT + ";)Z");
+            code.op(Code.POP);
+        }
+
+        code.invoke(Code.INVOKEINTERFACE, "ast/BuiltInFunction", "execute", "(Ljava/util/ArrayList;)L" + OBJECT + ";");
+        unbox(expr.type);
+    }
+
+
+    private void addToDepth(int amount) throws IOException{
+        code.field(Code.GETSTATIC, CLASS_NAME, "depth", "I");
+        code.pushInt(amount);
+        code.op(Code.IADD);
+        code.field(Code.PUTSTATIC, CLASS_NAME, "depth", "I");
+    }
+
+
+    private void box(ASTEnums type) throws IOException{
+        if(type == ASTEnums.INT){
+            code.invoke(Code.INVOKESTATIC, INTEGER, "valueOf", "(I)L" + INTEGER + ";");
+        }
+    }
+
+
+    // Turns an Object on the stack into a value of the given type. Void results are dropped.
+    // Strings go through the JitRuntime, which also takes the null of a global that was never assigned
+    private void unbox(ASTEnums type) throws IOException{
+        switch(type){
+            case INT:
+                code.type(Code.CHECKCAST, INTEGER);
+                code.invoke(Code.INVOKEVIRTUAL, INTEGER, "intValue", "()I");
+                break;
+            case STRING:
+                code.invoke(Code.INVOKESTATIC, RUNTIME, "toStr", "(L" + OBJECT + ";)L" + CHARS + ";");
+                break;
+            default:
+                code.op(Code.POP);
+        }
+    }
+
+
+    private void storeLocal(int slot,ASTEnums type){
+        int key = localKey(slot, type);
+        code.local(type == ASTEnums.STRING ? Code.ASTORE : Code.ISTORE, locals.get(key));
+
+        if(assignedLocals != null) assignedLocals.add(key);
+    }
+
+
+    private static int localKey(int slot,ASTEnums type){
+        return slot * 2 + (type == ASTEnums.STRING ? 1 : 0);
+    }
+
+
+    // Gives a JVM local to every variable declared in the body, including the ones in nested blocks
+    private void declareLocals(ArrayList<Stmt> body){
+        for(Stmt stmt: body){
+            if(stmt instanceof DeclStmt && ((DeclStmt) stmt).declaration instanceof Var){
+                declareLocal((Var) ((DeclStmt) stmt).declaration);
+            }
+            else if(stmt instanceof If){
+                declareLocals(((If) stmt).body);
+                if(((If) stmt).elseBody != null) declareLocals(((If) stmt).elseBody);
+            }
+            else if(stmt instanceof While){
+                declareLocals(((While) stmt).body);
+            }
+            else if(stmt instanceof For){
+                if(((For) stmt).varDeclaration != null) declareLocal(((For) stmt).varDeclaration);
+                declareLocals(((For) stmt).body);
+            }
+        }
+    }
+
+
+    private void declareLocal(Var decl){
+        int key = localKey(decl.slot, decl.type);
+        if(!locals.containsKey(key)) locals.put(key, localBase + locals.size());
+    }
+
+
+    // Parameters come first, in order, followed by every variable declared in the body
+    private void allocateLocals(Decl.Func func,int base){
+        locals = new HashMap<>();
+        localBase = base;
+
+        for(Param param: func.params){
+            locals.put(localKey(param.slot, param.type), base + locals.size());
+        }
+        declareLocals(func.body);
+    }
+
+
+
+
+    // ENTRIES FROM THE INTERPRETER
+    // Both kinds of entries take the call depth the code runs at, and put the previous depth back before returning
+
+    // '$call_NAME(Object[] arguments, int depth)' unboxes the arguments, calls the function and boxes its result
+    private void addCallEntry(Decl.Func func) throws IOException{
+        code = new Code(classWriter, 3);
+        depthLocal = 1;
+        enterDepth();
+
+        for(int i = 0; i < func.params.size(); i++){
+            code.local(Code.ALOAD, 0);
+            code.pushInt(i);
+            code.op(Code.AALOAD);
+            unbox(func.params.get(i).type);
+        }
+        code.invoke(Code.INVOKESTATIC, CLASS_NAME, func.identifier, descriptor(func));
+
+        if(func.type == ASTEnums.VOID) code.op(Code.ACONST_NULL);
+        else box(func.type);
+
+        exitDepth();
+        code.op(Code.ARETURN);
+        classWriter.addMethod("$call_" + func.identifier, CALL_ENTRY_DESCRIPTOR, code);
+    }
+
+
+    private void addLoopEntries(Decl.Func func,List<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            if(stmt instanceof While){
+                addLoopEntry(func, stmt, null, ((While) stmt).condition, ((While) stmt).body);
+                addLoopEntries(func, ((While) stmt).body);
+            }
+            else if(stmt instanceof For){
+                For loop = (For) stmt;
+                addLoopEntry(func, loop, loop.update, loop.condition, loop.body);
+                addLoopEntries(func, loop.body);
+            }
+            else if(stmt instanceof If){
+                addLoopEntries(func, ((If) stmt).body);
+                if(((If) stmt).elseBody != null) addLoopEntries(func, ((If) stmt).elseBody);
+            }
+        }
+    }
+
+
+    // '$loopN(Object[] frame, int[] ints, int depth)' copies the two regions of the frame into JVM locals and continues the loop
+    // from its condition.
+    // When the loop ends, the locals it assigned are copied back and the method returns JitRuntime.LOOP_EXITED, so the
+    // Executor carries on after the loop. A return statement in the loop returns its boxed value instead.
+    // A loop that doesn't fit in a method of its own has no entry and stays in the Executor
+    private void addLoopEntry(Decl.Func func,Stmt loop,Expr update,Expr condition,List<Stmt> body) throws Exception{
+        function = func;
+        code = new Code(classWriter, 4);
+        allocateLocals(func, 4);
+        depthLocal = 2;
+
+        inLoopEntry = true;
+        assignedLocals = new HashSet<>();
+
+        try{
+            enterDepth();
+            loadFrame();
+            compileLoop(condition, body, update);
+            storeFrame();
+
+            exitDepth();
+            code.field(Code.GETSTATIC, RUNTIME, "LOOP_EXITED", "L" + OBJECT + ";");
+            code.op(Code.ARETURN);
+
+            String name = "$loop" + loopEntries.size();
+            classWriter.addMethod(name, LOOP_ENTRY_DESCRIPTOR, code);
+            loopEntries.put(loop, name);
+        }
+        catch(IOException e){
+            return;
+        }
+        finally{
+            inLoopEntry = false;
+            assignedLocals = null;
+        }
+    }
+
+
+    // INT variables come from the int[] region in local 1, STRING variables from the Object[] region in local 0
+    private void loadFrame() throws IOException{
+        for(int key: locals.keySet()){
+            boolean isString = (key % 2 == 1);
+
+            code.local(Code.ALOAD, isString ? 0 : 1);
+            code.pushInt(key / 2);
+            if(isString){
+                code.op(Code.AALOAD);
+                code.invoke(Code.INVOKESTATIC, RUNTIME, "toStr", "(L" + OBJECT + ";)L" + CHARS + ";");
+            }
+            else{
+                code.op(Code.IALOAD);
+            }
+            code.local(isString ? Code.ASTORE : Code.ISTORE, locals.get(key));
+        }
+    }
+
+
+    private void storeFrame() throws IOException{
+        for(int key: assignedLocals){
+            boolean isString = (key % 2 == 1);
+
+            code.local(Code.ALOAD, isString ? 0 : 1);
+            code.pushInt(key / 2);
+            code.local(isString ? Code.ALOAD : Code.ILOAD, locals.get(key));
+            code.op(isString ? Code.AASTORE : Code.IASTORE);
+        }
+    }
+
+
+    private void compileLoopEntryReturn(Ret stmt) throws Exception{
+        if(stmt.expr == null){
+            code.op(Code.ACONST_NULL);
+        }
+        else{
+            // There is no frame of the function's own method to reuse, so tail calls are plain calls here
+            if(stmt.expr instanceof Call && ((Call) stmt.expr).isTailCall){
+                Call call = (Call) stmt.expr;
+                compileCall(call, isInterpreted(call.function));
+            }
+            else{
+                stmt.expr.accept(this);
+            }
+
+            if(stmt.expr.type == ASTEnums.VOID) code.op(Code.ACONST_NULL);
+            else box(stmt.expr.type);
+        }
+
+        exitDepth();
+        code.op(Code.ARETURN);
+    }
+
+
+    // The depth argument is the last parameter of the entry, in local 'depthLocal', and the previous depth is kept in the local after it
+    private void enterDepth() throws IOException{
+        code.field(Code.GETSTATIC, CLASS_NAME, "depth", "I");
+        code.local(Code.ISTORE, depthLocal + 1);
+        code.local(Code.ILOAD, depthLocal);
+        code.field(Code.PUTSTATIC, CLASS_NAME, "depth", "I");
+    }
+
+
+    private void exitDepth() throws IOException{
+        code.local(Code.ILOAD, depthLocal + 1);
+        code.field(Code.PUTSTATIC, CLASS_NAME, "depth", "I");
+    }
+
+
+
+
+    // TRACES
+
+    // '$trace(Object[] frame, int[] ints, int depth)' takes over the frame like a loop entry and runs the recorded path for as long as
+    // the loop goes on. When the loop ends it returns JitRuntime.LOOP_EXITED, when a guard fails it writes the frame back
+    // and returns the boxed id of the guard's exit, which the Trace turns into the statements left in the iteration
+    private void addTraceEntry() throws Exception{
+        function = trace.function;
+        code = new Code(classWriter, 4);
+        allocateLocals(function, 4);
+        depthLocal = 2;
+
+        inTrace = true;
+        assignedLocals = new HashSet<>();
+        guardExits = new ArrayList<>();
+
+        Expr condition;
+        List<Stmt> body;
+        Expr update = null;
+        if(trace.loop instanceof While){
+            condition = ((While) trace.loop).condition;
+            body = ((While) trace.loop).body;
+        }
+        else{
+            condition = ((For) trace.loop).condition;
+            body = ((For) trace.loop).body;
+            update = ((For) trace.loop).update;
+        }
+
+        try{
+            enterDepth();
+            loadFrame();
+
+            Code.Label top = new Code.Label();
+            Code.Label end = new Code.Label();
+            code.place(top);
+            if(condition != null) compileCondition(condition, end);
+            compileTracePath(body, new ArrayList<>());
+            if(update != null) compileEffect(update);
+            code.jump(Code.GOTO, top);
+
+            code.place(end);
+            storeFrame();
+            exitDepth();
+            code.field(Code.GETSTATIC, RUNTIME, "LOOP_EXITED", "L" + OBJECT + ";");
+            code.op(Code.ARETURN);
+
+            for(int i = 0; i < guardExits.size(); i++){
+                code.place(guardExits.get(i));
+                storeFrame();
+                exitDepth();
+                code.pushInt(i);
+                box(ASTEnums.INT);
+                code.op(Code.ARETURN);
+            }
+
+            classWriter.addMethod(TRACE_METHOD, LOOP_ENTRY_DESCRIPTOR, code);
+            traceEntryName = TRACE_METHOD;
+        }
+        catch(IOException e){
+            return;
+        }
+        finally{
+            inTrace = false;
+            assignedLocals = null;
+        }
+    }
+
+
+    // 'after' is where the Executor continues once the block is done, from the innermost block outwards
+    private void compileTracePath(List<Stmt> block,List<Trace.Resume> after) throws Exception{
+        for(int i = 0; i < block.size(); i++){
+            Stmt stmt = block.get(i);
+
+            ArrayList<Trace.Resume> rest = new ArrayList<>();
+            rest.add(new Trace.Resume(block, i + 1));
+            rest.addAll(after);
+
+            if(stmt instanceof ExprStmt){
+                stmt.accept(this);
+            }
+            else if(stmt instanceof If){
+                compileGuard((If) stmt, rest);
+            }
+            else{
+                throw new IOException("Line " + stmt.lineNumber + ": Trace can't hold a " + stmt.getClass().getSimpleName());
+            }
+        }
+    }
+
+
+    // The exit of a guard resumes with the branch the trace didn't record, followed by the rest of the iteration
+    private void compileGuard(If stmt,List<Trace.Resume> rest) throws Exception{
+        Boolean taken = trace.getBranch(stmt);
+        if(taken == null){
+            throw new IOException("Line " + stmt.lineNumber + ": Branch was not recorded");
+        }
+
+        List<Stmt> path = taken ? stmt.body : stmt.elseBody;
+        List<Stmt> other = taken ? stmt.elseBody : stmt.body;
+
+        ArrayList<Trace.Resume> resume = new ArrayList<>();
+        if(other != null) resume.add(new Trace.Resume(other, 0));
+        resume.addAll(rest);
+
+        Code.Label exit = new Code.Label();
+        guardExits.add(exit);
+        trace.addExit(resume);
+
+        compileJump(stmt.condition, !taken, exit);
+        if(path != null) compileTracePath(path, rest);
+    }
+
+
+    // A callee is inlined when its body runs straight through to its return, so a guard can never fail inside of it
+    private boolean isInlinable(Call call){
+        Decl.Func callee = call.function;
+        if(callee == null || callee == trace.function || isInterpreted(callee)) return false;
+        if(callee.body.size() > MAX_INLINED_STATEMENTS) return false;
+
+        for(int i = 0; i < callee.body.size(); i++){
+            Stmt stmt = callee.body.get(i);
+            if(stmt instanceof Ret && i == callee.body.size() - 1) continue;
+            if(stmt instanceof ExprStmt || stmt instanceof DeclStmt) continue;
+            return false;
+        }
+        return true;
+    }
+
+
+    // The callee's variables get JVM locals after every local the trace uses so far. Its calls are compiled as plain calls,
+    // and the call depth is checked and raised the same way as for a call
+    private void compileInlinedCall(Call call) throws Exception{
+        Decl.Func callee = call.function;
+        compileDepthCheck(call);
+
+        for(Expr arg: call.arguments){
+            arg.accept(this);
+        }
+
+        HashMap<Integer,Integer> callerLocals = locals;
+        int callerBase = localBase;
+        HashSet<Integer> callerAssigned = assignedLocals;
+
+        allocateLocals(callee, code.getMaxLocals());
+        assignedLocals = null;
+        inlining = true;
+
+        try{
+            for(int i = callee.params.size() - 1; i >= 0; i--){
+                storeLocal(callee.params.get(i).slot, callee.params.get(i).type);
+            }
+            for(int key: locals.keySet()){
+                if(locals.get(key) < localBase + callee.params.size()) continue;
+
+                if(key % 2 == 1) code.op(Code.ACONST_NULL);
+                else code.op(Code.ICONST_0);
+                code.local(key % 2 == 1 ? Code.ASTORE : Code.ISTORE, locals.get(key));
+            }
+
+            addToDepth(1);
+            for(Stmt stmt: callee.body){
+                if(stmt instanceof Ret){
+                    if(((Ret) stmt).expr != null) ((Ret) stmt).expr.accept(this);
+                }
+                else{
+                    stmt.accept(this);
+                }
+            }
+            addToDepth(-1);
+        }
+        finally{
+            locals = callerLocals;
+            localBase = callerBase;
+            assignedLocals = callerAssigned;
+            inlining = false;
+        }
+    }
+
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: JitCompiler." + message);
+        System.exit(0);
+    }
+}
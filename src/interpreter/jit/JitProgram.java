@@ -0,0 +1,172 @@
+package interpreter.jit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ast.Decl;
+import ast.Program;
+import ast.Stmt;
+
+
+// Output of the JitCompiler, ready to be run. Holds the loaded class, or no class at all when the whole program was left to the Executor.
+// Besides running the whole program, it lets the Executor call compiled functions and continue loops in compiled code.
+// A program compiled for a Trace also has the entry of that trace
+
+public class JitProgram {
+    private static final MethodType ENTRY_TYPE = MethodType.methodType(Object.class, Object[].class, int.class);
+    private static final MethodType LOOP_ENTRY_TYPE = MethodType.methodType(Object.class, Object[].class, int[].class, int.class);
+
+    private Program program;
+    private MethodHandles.Lookup lookup;
+    private JitRuntime runtime;
+    private int main;
+    private int maxCallDepth;
+
+    private HashMap<Decl.Func,MethodHandle> callEntries = new HashMap<>();
+    private HashMap<Stmt,MethodHandle> loopEntries = new HashMap<>();
+    private MethodHandle traceEntry;
+
+
+    JitProgram(Program program,MethodHandles.Lookup lookup,JitRuntime runtime,HashMap<Stmt,String> loopEntryNames,String traceEntryName,int main,int maxCallDepth) throws Exception{
+        this.program = program;
+        this.lookup = lookup;
+        this.runtime = runtime;
+        this.main = main;
+        this.maxCallDepth = maxCallDepth;
+
+        if(lookup == null) return;
+
+        Class<?> script = lookup.lookupClass();
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+            if(!runtime.isInterpreted(func)){
+                callEntries.put(func, lookup.findStatic(script, "$call_" + func.identifier, ENTRY_TYPE));
+            }
+        }
+        for(Stmt loop: loopEntryNames.keySet()){
+            loopEntries.put(loop, lookup.findStatic(script, loopEntryNames.get(loop), LOOP_ENTRY_TYPE));
+        }
+        if(traceEntryName != null){
+            traceEntry = lookup.findStatic(script, traceEntryName, LOOP_ENTRY_TYPE);
+        }
+    }
+
+
+    public Object execute() throws Exception{
+        if(lookup == null){
+            return runtime.executeProgram(program);
+        }
+
+        attach(runtime.getGlobals(), runtime.getIntGlobals());
+
+        try{
+            lookup.findStatic(lookup.lookupClass(), "$globals", MethodType.methodType(void.class)).invoke();
+        }
+        catch(Exception | Error e){
+            throw e;
+        }
+        catch(Throwable e){
+            internalError("execute: " + e);
+        }
+
+        Decl.Func mainFunc = runtime.getFunction(main);
+        if(!isCompiled(mainFunc)){
+            return runtime.callInterpreted(main, new Object[0], 1);
+        }
+        return call(mainFunc, new ArrayList<>(), 1);
+    }
+
+
+    // Makes the compiled code work on the given global variables, with the call depth limit it was compiled with
+    public void attach(Object[] globals,int[] intGlobals) throws Exception{
+        if(lookup == null) return;
+
+        runtime.setGlobals(globals, intGlobals);
+
+        try{
+            Class<?> script = lookup.lookupClass();
+            lookup.findStaticSetter(script, "globals", Object[].class).invoke(globals);
+            lookup.findStaticSetter(script, "intGlobals", int[].class).invoke(intGlobals);
+            lookup.findStaticSetter(script, "runtime", JitRuntime.class).invoke(runtime);
+            lookup.findStaticSetter(script, "maxDepth", int.class).invoke(maxCallDepth);
+            lookup.findStaticSetter(script, "depth", int.class).invoke(0);
+        }
+        catch(Exception | Error e){
+            throw e;
+        }
+        catch(Throwable e){
+            internalError("attach: " + e);
+        }
+    }
+
+
+    public boolean isCompiled(Decl.Func func){
+        return callEntries.containsKey(func);
+    }
+
+
+    public boolean hasLoopEntry(Stmt loop){
+        return loopEntries.containsKey(loop);
+    }
+
+
+    public boolean hasTrace(){
+        return traceEntry != null;
+    }
+
+
+    // 'depth' is the call depth of the new call
+    public Object call(Decl.Func func,ArrayList<Object> arguments,int depth) throws Exception{
+        return invoke(callEntries.get(func), arguments.toArray(), depth);
+    }
+
+
+    // Runs the rest of the loop on the frame, given as its Object[] and int[] regions.
+    // Returns JitRuntime.LOOP_EXITED if the loop ended, otherwise the function returned this value
+    public Object runLoop(Stmt loop,Object[] frame,int[] ints,int depth) throws Exception{
+        return invokeLoop(loopEntries.get(loop), frame, ints, depth);
+    }
+
+
+    // Returns JitRuntime.LOOP_EXITED if the loop ended, otherwise the boxed id of the guard that failed
+    public Object runTrace(Object[] frame,int[] ints,int depth) throws Exception{
+        return invokeLoop(traceEntry, frame, ints, depth);
+    }
+
+
+    private Object invoke(MethodHandle entry,Object[] values,int depth) throws Exception{
+        try{
+            return (Object) entry.invokeExact(values, depth);
+        }
+        catch(Exception | Error e){
+            throw e;
+        }
+        catch(Throwable e){
+            internalError("invoke: " + e);
+            return null;
+        }
+    }
+
+
+    private Object invokeLoop(MethodHandle entry,Object[] frame,int[] ints,int depth) throws Exception{
+        try{
+            return (Object) entry.invokeExact(frame, ints, depth);
+        }
+        catch(Exception | Error e){
+            throw e;
+        }
+        catch(Throwable e){
+            internalError("invokeLoop: " + e);
+            return null;
+        }
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: JitProgram." + message);
+        System.exit(0);
+    }
+}
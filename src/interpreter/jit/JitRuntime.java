@@ -0,0 +1,98 @@
+package interpreter.jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import ast.Decl;
+import ast.Program;
+import ast.TypedExpr;
+import interpreter.modules.Executor;
+
+
+// Called from the code the JitCompiler generates, for the work that isn't worth writing out in bytecode.
+// Functions the JitCompiler left to the Executor run from here, on the same global variables as the compiled code.
+
+public class JitRuntime {
+    // Returned by loop entries when the loop ended without returning from the function
+    public static final Object LOOP_EXITED = new Object();
+
+    private final Executor executor;
+    private final ArrayList<Decl.Func> functions;
+    private final HashSet<Decl.Func> interpreted;
+    private Object[] globals;
+    private int[] intGlobals;
+
+
+    JitRuntime(Executor executor,ArrayList<Decl.Func> functions,HashSet<Decl.Func> interpreted,int globalCount){
+        this.executor = executor;
+        this.functions = functions;
+        this.interpreted = interpreted;
+        this.globals = new Object[globalCount];
+        this.intGlobals = new int[globalCount];
+    }
+
+
+    Decl.Func getFunction(int index){
+        return functions.get(index);
+    }
+
+
+    boolean isInterpreted(Decl.Func func){
+        return interpreted.contains(func);
+    }
+
+
+    Object[] getGlobals(){
+        return globals;
+    }
+
+
+    int[] getIntGlobals(){
+        return intGlobals;
+    }
+
+
+    void setGlobals(Object[] globals,int[] intGlobals){
+        this.globals = globals;
+        this.intGlobals = intGlobals;
+    }
+
+
+    Object executeProgram(Program program) throws Exception{
+        return executor.executeProgram(program);
+    }
+
+
+    // 'depth' is the call depth of the new call, the Executor checks its own calls against the limit from there
+    public Object callInterpreted(int function,Object[] arguments,int depth) throws Exception{
+        return executor.callFunction(functions.get(function), new ArrayList<>(Arrays.asList(arguments)), globals, intGlobals, depth);
+    }
+
+
+    // Compiled code keeps strings as they come, a String or a Rope.
+    // Loop entries read the whole Object[] region of the Executor's frame. A slot that holds nothing, or a value of the other type,
+    // belongs to a variable that isn't in scope yet, and the loop assigns it before reading it
+    public static CharSequence toStr(Object value){
+        if(value instanceof CharSequence) return (CharSequence) value;
+        return null;
+    }
+
+
+    public static boolean strEquals(CharSequence left,CharSequence right){
+        return TypedExpr.stringsEqual(left.toString(), right.toString());
+    }
+
+
+    // Generated code throws the returned exception itself, so the JVM sees that the method doesn't continue past the call
+    public static Exception callDepthError(int lineNumber,String funcName){
+        System.out.println("Line " + lineNumber +": Runtime error: Cannot call function '" + funcName + "' . Maximum function call stack size reached ");
+        return new Exception();
+    }
+
+
+    public static Exception uninitializedError(int lineNumber,String identifier){
+        System.out.println("Line " + lineNumber +": Runtime error: Using an uninitialized variable '" + identifier + "'");
+        return new Exception();
+    }
+}
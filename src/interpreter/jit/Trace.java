@@ -0,0 +1,92 @@
+package interpreter.jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ast.Decl;
+import ast.Stmt;
+
+
+// The path one iteration of a hot loop took, recorded by the Executor while it ran that iteration.
+// Only the direction of every If statement is kept, the rest of the path follows from the loop body.
+
+// The JitCompiler turns the path into a trace: a loop over the body with only the recorded branches in it, where every If
+// became a guard. A guard that fails leaves the trace and names the statements the Executor must run to finish the iteration.
+
+
+public class Trace {
+    // Where the Executor picks up after a failed guard: the statements of the block from 'index' on
+    public static class Resume {
+        public final List<Stmt> block;
+        public final int index;
+
+        Resume(List<Stmt> block,int index){
+            this.block = block;
+            this.index = index;
+        }
+    }
+
+    public final Decl.Func function;
+    public final Stmt loop;
+    public final int callDepth;
+
+    private HashMap<Stmt.If,Boolean> branches = new HashMap<>();
+
+    // Filled in by the JitCompiler, the exit id a guard returns is the index into 'exits'
+    private ArrayList<List<Resume>> exits = new ArrayList<>();
+    private JitProgram program;
+
+    private int sideExits;
+
+
+    // 'callDepth' is the depth of the call the loop runs in, so branches of deeper calls to the same function aren't recorded
+    public Trace(Decl.Func function,Stmt loop,int callDepth){
+        this.function = function;
+        this.loop = loop;
+        this.callDepth = callDepth;
+    }
+
+
+    public void recordBranch(Stmt.If stmt,boolean taken){
+        branches.put(stmt, taken);
+    }
+
+
+    Boolean getBranch(Stmt.If stmt){
+        return branches.get(stmt);
+    }
+
+
+    int addExit(List<Resume> resume){
+        exits.add(resume);
+        return exits.size() - 1;
+    }
+
+
+    void setProgram(JitProgram program){
+        this.program = program;
+    }
+
+
+    public void attach(Object[] globals,int[] intGlobals) throws Exception{
+        program.attach(globals, intGlobals);
+    }
+
+
+    // Returns JitRuntime.LOOP_EXITED when the loop ended, otherwise the id of the guard that failed
+    public Object run(Object[] frame,int[] ints,int depth) throws Exception{
+        return program.runTrace(frame, ints, depth);
+    }
+
+
+    public List<Resume> getExit(int id){
+        sideExits++;
+        return exits.get(id);
+    }
+
+
+    public int getSideExits(){
+        return sideExits;
+    }
+}
@@ -1,6 +1,10 @@
 package interpreter.modules;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import ast.ASTEnums;
 import ast.ASTVisitor;
@@ -8,25 +12,131 @@ import ast.Decl;
 import ast.Decl.*;
 import ast.Expr.*;
 import ast.Expr;
+import ast.IntSlots;
 import ast.Program;
 import ast.Stmt;
 import ast.Stmt.*;
+import ast.TypedExpr;
 import interpreter.environment.Environment;
 import interpreter.environment.BuiltIns;
-
-public class Executor implements ASTVisitor<Object>{
+import interpreter.environment.MemoCache;
+import interpreter.environment.Rope;
+import interpreter.environment.StringTable;
+import interpreter.jit.JitCompiler;
+import interpreter.jit.JitProgram;
+import interpreter.jit.JitRuntime;
+import interpreter.jit.Trace;
+
+public class Executor implements ASTVisitor<Object>, IntSlots{
     private Environment env;
+    private int maxCallDepth = Environment.DEFAULT_MAX_CALL_DEPTH;
+
+    // Calls to functions marked pure by the PurityAnalyzer are cached, every function gets its own cache with this budget in bytes
+    public static final long DEFAULT_MEMO_BUDGET = 1024 * 1024;
+    private boolean memoize = true;
+    private long memoBudget = DEFAULT_MEMO_BUDGET;
+    private LinkedHashMap<Decl.Func,MemoCache> memoCaches = new LinkedHashMap<>();
+
+    // With interning on, strings returned by built-in functions go through the program's string table, so input that matches
+    // a literal becomes that literal's String object and compares by identity
+    private boolean intern = false;
+    private StringTable strings;
+
+    // Tiered execution. Functions count their calls and loops count their back edges. The first time one of them crosses its
+    // threshold, the program is compiled by the JitCompiler. From then on calls to hot functions run in compiled code,
+    // and a hot loop hands the frame over to compiled code in the middle of the loop. Short scripts never pay for compiling
+    public static final int DEFAULT_CALL_THRESHOLD = 1000;
+    public static final int DEFAULT_LOOP_THRESHOLD = 5000;
+    private JitCompiler tierCompiler;
+    private int callThreshold = DEFAULT_CALL_THRESHOLD;
+    private int loopThreshold = DEFAULT_LOOP_THRESHOLD;
+    private Program program;
+    private JitProgram compiledTier;
+
+    // With tracing, a hot loop first records the branches its next iteration takes, and the JitCompiler turns that path into a Trace.
+    // When a guard of the trace fails, the Executor finishes the iteration and hands the loop back to the trace.
+    // Loops that can't be traced, or whose guards fail too often, continue in compiled code like they do without tracing
+    public static final int MAX_SIDE_EXITS = 1000;
+    private boolean tracing;
+    private Trace recording;
+    private HashMap<Stmt,Trace> traces = new HashMap<>();
+    private HashSet<Stmt> untraced = new HashSet<>();
+
+    // Statement visitors report how the statement completed. When a return statement is executed, every enclosing
+    // statement passes RETURN up to the function call, which picks up the value left in 'returnValue'.
+    // A return of a tail call completes with TAIL_CALL instead, leaving the callee, and its arguments on the argument stack, for the function to jump to
+    private enum Completion { NORMAL, RETURN, TAIL_CALL }
+    private Object returnValue;
+    private Decl.Func tailCallee;
+
+
+    // Script calls recurse on the Java stack here, so a very deep limit needs a large enough thread stack
+    public void setMaxCallDepth(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
+    }
+
+
+    public void setMemoization(boolean memoize,long memoBudget){
+        this.memoize = memoize;
+        this.memoBudget = memoBudget;
+    }
+
+
+    public void setInterning(boolean intern){
+        this.intern = intern;
+    }
+
+
+    // Tiered execution is off when 'compiler' is null
+    public void setTiering(JitCompiler compiler,int callThreshold,int loopThreshold){
+        this.tierCompiler = compiler;
+        this.callThreshold = callThreshold;
+        this.loopThreshold = loopThreshold;
+    }
+
+
+    // Only has an effect while tiered execution is on
+    public void setTracing(boolean tracing){
+        this.tracing = tracing;
+    }
 
 
     public Object executeProgram(Program program) throws Exception{
-        env = new Environment();        
+        env = new Environment(maxCallDepth);        
+        memoCaches = new LinkedHashMap<>();
+        strings = new StringTable(program.strings);
+
+        this.program = program;
+        compiledTier = null;
+        recording = null;
+        traces = new HashMap<>();
+        untraced = new HashSet<>();
+        if(tierCompiler != null){
+            for(Stmt.DeclStmt funcDeclStmt: program.funcDeclStatements){
+                Decl.Func func = (Decl.Func) funcDeclStmt.declaration;
+                func.invocations = 0;
+                resetBackEdges(func.body);
+            }
+        }
         
         return program.accept(this);
     }
 
 
+    // Runs a single function on a global area that is owned by someone else. Backends use this for the functions they don't compile.
+    // 'depth' is the call depth of the new call, so the calls made from here are limited by what is left of the maximum depth
+    public Object callFunction(Decl.Func func,ArrayList<Object> argValues,Object[] globals,int[] intGlobals,int depth) throws Exception{
+        env = new Environment(maxCallDepth - depth + 1);
+        env.shareGlobals(globals, intGlobals);
+
+        pushArguments(func, argValues);
+        return invoke(func);
+    }
+
+
     @Override
     public Object visitProgram(Program prog) throws Exception {
+        env.allocateGlobals(prog.globalCount);
 
         for(Stmt varDeclStmt: prog.varDeclStatements){
             varDeclStmt.accept(this);
@@ -44,7 +154,7 @@ public class Executor implements ASTVisitor<Object>{
 
         
         Decl.Func mainFunc = env.fetchFunc("main");
-        env.enterFunction(mainFunc);
+        env.enterFrame(mainFunc);
 
         return mainFunc.accept(this);
     }
@@ -52,105 +162,120 @@ public class Executor implements ASTVisitor<Object>{
 
     @Override
     public Object visitExprStmt(Stmt.ExprStmt exprStmt) throws Exception {
-        exprStmt.expr.accept(this);
-        return null;
+        execute(exprStmt.expr);
+        return Completion.NORMAL;
     }
 
 
     @Override
     public Object visitDeclStmt(Stmt.DeclStmt declStmt) throws Exception {
         declStmt.declaration.accept(this);
-        return null;
+        return Completion.NORMAL;
     }
 
 
 
     @Override
     public Object visitWhileStmt(While whileStmt) throws Exception {
-        env.enterCodeBlock();
-        
-        while( (int) whileStmt.condition.accept(this) != 0){
-            for(Stmt stmt: whileStmt.body){
-                stmt.accept(this);
+        // Block scopes were already resolved to frame slots, so there is no scope bookkeeping to do here
+        while( whileStmt.condition.evalInt(this) != 0){
+            Completion completion = executeBlock(whileStmt.body);
+            if(completion != Completion.NORMAL) return completion;
+
+            if(tierCompiler != null && ++whileStmt.backEdges >= loopThreshold){
+                completion = hotBackEdge(whileStmt, null);
+                if(completion != null) return completion;
             }
         }
 
-        env.exitCodeBlock();
-
-        return null;
+        return Completion.NORMAL;
     }
 
 
     @Override
     public Object visitForStmt(For forStmt) throws Exception {
-        
-        env.enterCodeBlock();
-
         if(forStmt.varDeclaration != null) forStmt.varDeclaration.accept(this);
 
         while(true){
-            if(forStmt.condition != null &&  ((int)forStmt.condition.accept(this) == 0) ){
+            if(forStmt.condition != null && forStmt.condition.evalInt(this) == 0){
                 break;
             }
 
-            for(Stmt stmt: forStmt.body){
-                stmt.accept(this);
-            }
+            Completion completion = executeBlock(forStmt.body);
+            if(completion != Completion.NORMAL) return completion;
 
-            if(forStmt.update != null) forStmt.update.accept(this);
-        }
+            if(forStmt.update != null) execute(forStmt.update);
 
-        env.exitCodeBlock();
+            if(tierCompiler != null && ++forStmt.backEdges >= loopThreshold){
+                completion = hotBackEdge(forStmt, forStmt.update);
+                if(completion != null) return completion;
+            }
+        }
 
-        return null;
+        return Completion.NORMAL;
     }
 
 
     @Override
     public Object visitIfStmt(If ifStmt) throws Exception {
-        int res = (int) ifStmt.condition.accept(this);
+        int res = ifStmt.condition.evalInt(this);
+
+        if(recording != null && recording.callDepth == env.getCallDepth()){
+            recording.recordBranch(ifStmt, res != 0);
+        }
 
-        env.enterCodeBlock();
-        
         if(res != 0){
-            for(Stmt stmt: ifStmt.body){
-                stmt.accept(this);
-            }
+            return executeBlock(ifStmt.body);
         }
         else if(ifStmt.elseBody != null){
-            for(Stmt stmt: ifStmt.elseBody){
-                stmt.accept(this);
-            }
+            return executeBlock(ifStmt.elseBody);
         }
-
-        env.exitCodeBlock();
  
-        return null; 
+        return Completion.NORMAL;
     }
 
 
     // Functions can have multiple return statements and the control flow could go multiple ways
-    // We return a value by wrapping it inside a runtime error
+    // We leave the value for the function call and tell the enclosing statements to stop executing
     @Override
     public Object visitRetStmt(Ret retStmt) throws Exception{
-        Object retVal = null;
+        if(retStmt.expr instanceof Call && ((Call) retStmt.expr).isTailCall){
+            return prepareTailCall((Call) retStmt.expr);
+        }
+
+        returnValue = null;
         
         if(retStmt.expr != null){
-            retVal = retStmt.expr.accept(this);
+            returnValue = evaluate(retStmt.expr);
         }
         
-        throw new ReturnValueException(retVal);
+        return Completion.RETURN;
     }
 
 
     @Override
     public Object visitVarDecl(Var decl) throws Exception {
-        env.declareVar(decl.identifier, decl.type);
+        // A declaration without an initializer clears the slot, since it could still hold a value from an earlier block
+        if(decl.type == ASTEnums.INT){
+            int value = (decl.expr != null ? decl.expr.evalInt(this) : 0);
+
+            if(decl.isGlobal) env.assignGlobalInt(decl.slot, value);
+            else env.assignLocalInt(decl.slot, value);
+
+            if(decl.isTracked && decl.isGlobal) env.markGlobal(decl.slot, decl.expr != null);
+            else if(decl.isTracked) env.markLocal(decl.slot, decl.expr != null);
+            return null;
+        }
+
+        Object value = null;
         
         if(decl.expr != null){
-            env.assignVar(decl.identifier, decl.expr.accept(this));
+            value = evaluate(decl.expr);
         }
 
+        if(decl.isGlobal) env.assignGlobal(decl.slot, value);
+        else env.assignLocal(decl.slot, value);
+
         return null;
     }
 
@@ -159,19 +284,27 @@ public class Executor implements ASTVisitor<Object>{
     public Object visitFuncDecl(Func funcDeclaration) throws Exception {
         
         // First we execute the funciton body
-        // When we encounter a return statement we throw an exception that holds the return value.
-        // We catch it here and extract the return value. If exception is not thrown, 
-        // then the function's return type is void so it doesn't matter what we return 
-        // Functions can have multiple return statements and the control flow could go multiple ways
-        try{
-            for(Stmt stmt: funcDeclaration.body){
-                stmt.accept(this);
+        // When a return statement is executed, the body completes with RETURN and the value is waiting in 'returnValue'.
+        // If it completes normally, then the function's return type is void so it doesn't matter what we return
+        // A tail call reuses the frame and runs the callee's body in this same loop, so tail recursion runs in constant stack space
+        Func func = funcDeclaration;
+
+        while(true){
+            Completion completion = executeBlock(func.body);
+
+            if(completion == Completion.TAIL_CALL){
+                func = tailCallee;
+                env.reuseFrame(func);
+                continue;
+            }
+
+            if(completion == Completion.RETURN){
+                Object value = returnValue;
+                returnValue = null;
+                return value;
             }
             return null;
         }
-        catch(ReturnValueException returnException){
-            return returnException.value;
-        }
 
     }
 
@@ -179,7 +312,6 @@ public class Executor implements ASTVisitor<Object>{
 
     @Override
     public Object visitParamDecl(Param decl) {
-        env.declareVar(decl.identifier, decl.type);
         return null;
     }
 
@@ -187,8 +319,8 @@ public class Executor implements ASTVisitor<Object>{
 
     @Override
     public Object visitBinaryExpr(Binary expr) throws Exception {        
-        Object left = expr.left.accept(this);
-        Object right = expr.right.accept(this);
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
 
         // This should not ever happen here if the code passed the syntax check, but we check just in case for debug purposes if something goes wrong
         if(expr.left.type != expr.right.type){
@@ -204,15 +336,15 @@ public class Executor implements ASTVisitor<Object>{
                 return (int)left - (int)right;
            
             case PLUS:
-                if(expr.left.type == ASTEnums.STRING) return (String)left + (String)right;
+                if(expr.left.type == ASTEnums.STRING) return Rope.concat((CharSequence)left, (CharSequence)right);
                 else return (int)left + (int)right;
             
             case EQUAL:
-                if(expr.left.type == ASTEnums.STRING) return boolToInt( ((String)left).equals((String)right) );
+                if(expr.left.type == ASTEnums.STRING) return boolToInt( TypedExpr.stringsEqual(left.toString(), right.toString()) );
                 else return boolToInt( (int)left == (int) right );
             
             case NOT_EQUAL:
-                if(expr.left.type == ASTEnums.STRING) return boolToInt( !((String)left).equals((String)right) );
+                if(expr.left.type == ASTEnums.STRING) return boolToInt( !TypedExpr.stringsEqual(left.toString(), right.toString()) );
                 else return boolToInt( !((int)left == (int) right) );
                 
             case LESS:
@@ -231,7 +363,7 @@ public class Executor implements ASTVisitor<Object>{
 
     @Override
     public Object visitUnaryExpr(Unary unary) throws Exception {
-        int operand = (int) unary.expr.accept(this);
+        int operand = unary.expr.evalInt(this);
 
         switch(unary.operator){
             case MINUS:
@@ -266,46 +398,95 @@ public class Executor implements ASTVisitor<Object>{
 
     @Override
     public Object visitAssignExpr(Assign assignment) throws Exception {
-        Object exprValue = assignment.expr.accept(this);
+        // An assignment itself has no type, the SemanticChecker made sure its value has the type of the variable
+        if(assignment.expr.type == ASTEnums.INT) return assignInt(assignment);
+
+        Object exprValue = evaluate(assignment.expr);
         
-        env.assignVar(assignment.identifier, exprValue);
+        if(assignment.isGlobal) env.assignGlobal(assignment.slot, exprValue);
+        else env.assignLocal(assignment.slot, exprValue);
 
         return exprValue;
     }
 
 
+    @Override
+    public int assignInt(Assign assignment) throws Exception {
+        int value = assignment.expr.evalInt(this);
+
+        if(assignment.isGlobal) env.assignGlobalInt(assignment.slot, value);
+        else env.assignLocalInt(assignment.slot, value);
+
+        if(assignment.isTracked && assignment.isGlobal) env.markGlobal(assignment.slot, true);
+        else if(assignment.isTracked) env.markLocal(assignment.slot, true);
+
+        return value;
+    }
+
+
 
     @Override
     public Object visitCallExpr(Call call) throws Exception {
-        if(env.isMaxCallstackReached()){
+        // The SafetyAnalyzer knows how deep most calls can get, only those that could go over the limit check it
+        if(call.depthBound > maxCallDepth && env.isMaxCallstackReached()){
             runtimeError(call.lineNumber,"Cannot call function '" + call.funcIdentifier + "' . Maximum function call stack size reached ");
         }
 
-        // Calculating argument expressions before entering new function scope
+        Decl.Func funcNode = call.function;
+
+        // Calculating argument expressions before entering new function scope.
+        // They go on the Environment's argument stack, from where enterFrame() copies them into the new frame
+        if(call.builtIn == null && (!memoize || !funcNode.isPure)){
+            pushArguments(call);
+            return invoke(funcNode);
+        }
+
         ArrayList<Object> argValues = new ArrayList<>();
         for(Expr arg:call.arguments){
-            argValues.add(arg.accept(this));
+            argValues.add(evaluate(arg));
         }
 
         // If the function is a built-in function then we call a predefined routine
-        if(BuiltIns.isFuncBuiltIn(call.funcIdentifier)){
-            return BuiltIns.executeFunction(call.funcIdentifier,argValues);
+        // Calls were linked by the Resolver, so there is no need to look anything up by name
+        if(call.builtIn != null){
+            Object result = call.builtIn.execute(argValues);
+            if(intern && call.type == ASTEnums.STRING) result = strings.intern((String) result);
+            return result;
         }
 
-        
-        Decl.Func funcNode = env.fetchFunc(call.funcIdentifier);
+        // A pure function always returns the same result for the same arguments, so we only run it on a cache miss
+        MemoCache cache = memoCaches.get(funcNode);
+        if(cache == null){
+            cache = new MemoCache(memoBudget);
+            memoCaches.put(funcNode, cache);
+        }
 
-        // Declaring new function scope 
-        env.enterFunction(funcNode);
-        
-        // Assigning passed values to parameters
-        for(int i=0; i< funcNode.params.size();i++){
-            Object argVal = argValues.get(i);    
-            Param param = funcNode.params.get(i);
-            
-            env.declareVar(param.identifier, param.type);
-            env.assignVar(param.identifier, argVal);
+        // Ropes don't compare by their characters, so string arguments are flattened before they become a key
+        for(int i = 0; i < argValues.size(); i++){
+            if(argValues.get(i) instanceof Rope) argValues.set(i, argValues.get(i).toString());
         }
+
+        Object key = (argValues.size() == 1 ? argValues.get(0) : argValues);
+        Object retVal = cache.get(key);
+
+        if(retVal == null){
+            pushArguments(funcNode, argValues);
+            retVal = invoke(funcNode);
+            cache.put(key, retVal);
+        }
+
+        return retVal;
+    }
+
+
+    // The arguments were pushed on the Environment's argument stack
+    private Object invoke(Decl.Func funcNode) throws Exception{
+        if(tierCompiler != null && ++funcNode.invocations >= callThreshold && compiledTier().isCompiled(funcNode)){
+            return compiledTier.call(funcNode, env.popArguments(funcNode), env.getCallDepth() + 1);
+        }
+
+        // Declaring new function frame, which also assigns the passed values to the parameters
+        env.enterFrame(funcNode);
         
         // Calling function body
         Object retVal = funcNode.accept(this);
@@ -317,14 +498,224 @@ public class Executor implements ASTVisitor<Object>{
     }
 
 
+    // Hits and misses of every memoized function during the last run. Copies made by specialization count for the function
+    // they were made from, since that's the one in the source
+    public String memoReport(){
+        LinkedHashMap<String,long[]> totals = new LinkedHashMap<>();
+
+        for(Decl.Func func: memoCaches.keySet()){
+            MemoCache cache = memoCaches.get(func);
+            String name = (func.origin != null ? func.origin : func.identifier);
+
+            long[] total = totals.computeIfAbsent(name, key -> new long[3]);
+            total[0] += cache.getHits();
+            total[1] += cache.getMisses();
+            total[2] += cache.size();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(String name: totals.keySet()){
+            long[] total = totals.get(name);
+            sb.append(name).append(": ")
+              .append(total[0]).append(" hits, ")
+              .append(total[1]).append(" misses, ")
+              .append(total[2]).append(" cached\n");
+        }
+
+        return sb.toString();
+    }
+
+
 
 
     @Override
-    public Object visitVariableExpr(Variable variable) {
-        return env.fetchVar(variable.identifier);
+    public Object visitVariableExpr(Variable variable) throws Exception {
+        if(variable.type == ASTEnums.INT) return fetchInt(variable);
+        if(!variable.isAssigned) checkAssigned(variable);
+
+        if(variable.isGlobal) return env.fetchGlobal(variable.slot);
+        return env.fetchLocal(variable.slot);
+    }
+
+
+    @Override
+    public int fetchInt(Variable variable) throws Exception {
+        if(!variable.isAssigned) checkAssigned(variable);
+
+        if(variable.isGlobal) return env.fetchGlobalInt(variable.slot);
+        return env.fetchLocalInt(variable.slot);
+    }
+
+
+
+
+    // Reads that the SafetyAnalyzer couldn't prove assigned
+    private void checkAssigned(Variable variable) throws Exception{
+        boolean assigned = (variable.isGlobal ? env.isGlobalAssigned(variable.slot) : env.isLocalAssigned(variable.slot));
+
+        if(!assigned){
+            runtimeError(variable.lineNumber, "Using an uninitialized variable '" + variable.identifier + "'");
+        }
+    }
+
+
+    // Executes the statements of a block until one of them returns from the function
+    private Completion executeBlock(ArrayList<Stmt> body) throws Exception{
+        for(int i = 0; i < body.size(); i++){
+            Completion completion = (Completion) body.get(i).accept(this);
+            if(completion != Completion.NORMAL) return completion;
+        }
+        return Completion.NORMAL;
+    }
+
+
+    // Arguments are evaluated while the caller's frame is still intact. They wait on the argument stack, where calls made
+    // while evaluating a later argument push and take their own arguments above them
+    private Completion prepareTailCall(Call call) throws Exception{
+        pushArguments(call);
+
+        tailCallee = call.function;
+        return Completion.TAIL_CALL;
+    }
+
+
+    // The program is compiled the first time something gets hot, and the compiled code works on the same global variables
+    private JitProgram compiledTier() throws Exception{
+        if(compiledTier == null){
+            tierCompiler.setMaxCallDepth(maxCallDepth);
+            compiledTier = tierCompiler.compile(program, true);
+            compiledTier.attach(env.getGlobals(), env.getGlobalInts());
+        }
+        return compiledTier;
+    }
+
+
+    // Returns the completion of the loop when compiled code ran the rest of it, or null when the loop goes on in the Executor
+    private Completion hotBackEdge(Stmt loop,Expr update) throws Exception{
+        if(tracing && !untraced.contains(loop)) return continueTraced(loop, update);
+        if(compiledTier().hasLoopEntry(loop)) return continueCompiled(loop);
+        return null;
+    }
+
+
+    // On-stack replacement: compiled code takes over the active frame and runs the rest of the loop
+    private Completion continueCompiled(Stmt loop) throws Exception{
+        Object result = compiledTier.runLoop(loop, env.getActiveFrame(), env.getActiveInts(), env.getCallDepth());
+        if(result == JitRuntime.LOOP_EXITED) return Completion.NORMAL;
+
+        returnValue = result;
+        return Completion.RETURN;
+    }
+
+
+    // The trace runs the loop from its condition on. After a side exit the Executor runs what is left of the iteration,
+    // including the update of a for loop, and the trace starts over
+    private Completion continueTraced(Stmt loop,Expr update) throws Exception{
+        Trace trace = traces.get(loop);
+        if(trace == null){
+            trace = recordTrace(loop);
+            if(trace == null) return null;
+        }
+
+        while(true){
+            Object result = trace.run(env.getActiveFrame(), env.getActiveInts(), env.getCallDepth());
+            if(result == JitRuntime.LOOP_EXITED) return Completion.NORMAL;
+
+            for(Trace.Resume resume: trace.getExit((Integer) result)){
+                for(int i = resume.index; i < resume.block.size(); i++){
+                    Completion completion = (Completion) resume.block.get(i).accept(this);
+                    if(completion != Completion.NORMAL) return completion;
+                }
+            }
+            if(update != null) execute(update);
+
+            if(trace.getSideExits() >= MAX_SIDE_EXITS){
+                traces.remove(loop);
+                untraced.add(loop);
+                return null;
+            }
+        }
+    }
+
+
+    // The first hot back edge starts recording the next iteration, and the following back edge of the same loop in the same call
+    // compiles it. A recording that never reaches its back edge, because the iteration returned or a loop inside it got hot first,
+    // is replaced by the next loop that asks for one
+    private Trace recordTrace(Stmt loop) throws Exception{
+        if(recording == null || recording.loop != loop || recording.callDepth != env.getCallDepth()){
+            recording = new Trace(env.fetchCurrentFunction(), loop, env.getCallDepth());
+            return null;
+        }
+
+        Trace trace = recording;
+        recording = null;
+
+        tierCompiler.setMaxCallDepth(maxCallDepth);
+        if(!tierCompiler.compileTrace(program, trace)){
+            untraced.add(loop);
+            return null;
+        }
+
+        trace.attach(env.getGlobals(), env.getGlobalInts());
+        traces.put(loop, trace);
+        return trace;
+    }
+
+
+    private void resetBackEdges(List<Stmt> body){
+        for(Stmt stmt: body){
+            if(stmt instanceof While){
+                ((While) stmt).backEdges = 0;
+                resetBackEdges(((While) stmt).body);
+            }
+            else if(stmt instanceof For){
+                ((For) stmt).backEdges = 0;
+                resetBackEdges(((For) stmt).body);
+            }
+            else if(stmt instanceof If){
+                resetBackEdges(((If) stmt).body);
+                if(((If) stmt).elseBody != null) resetBackEdges(((If) stmt).elseBody);
+            }
+        }
     }
 
 
+    // INT expressions are evaluated through evalInt(), so that type-specialized nodes compute their whole subtree without
+    // going back through the visitor. The value is only boxed here, where it gets stored.
+    // STRING expressions go through the visitor, which can hand back a Rope that is only flattened where its characters are needed
+    private Object evaluate(Expr expr) throws Exception{
+        switch(expr.type){
+            case INT:
+                return expr.evalInt(this);
+            default:
+                return expr.accept(this);
+        }
+    }
+
+
+    // Evaluates an expression whose value is dropped, an INT one, or an assignment of one, without boxing it
+    private void execute(Expr expr) throws Exception{
+        if(expr.type == ASTEnums.INT || (expr instanceof Assign && ((Assign) expr).expr.type == ASTEnums.INT)) expr.evalInt(this);
+        else expr.accept(this);
+    }
+
+
+    // INT arguments go on the int argument stack, the others on the argument stack
+    private void pushArguments(Call call) throws Exception{
+        for(Expr arg: call.arguments){
+            if(arg.type == ASTEnums.INT) env.pushIntArgument(arg.evalInt(this));
+            else env.pushArgument(arg.accept(this));
+        }
+    }
+
+
+    // Arguments that were already evaluated, and boxed, for a memoized or a backend's call
+    private void pushArguments(Decl.Func funcNode,List<Object> argValues){
+        for(int i = 0; i < argValues.size(); i++){
+            if(funcNode.params.get(i).type == ASTEnums.INT) env.pushIntArgument((int) argValues.get(i));
+            else env.pushArgument(argValues.get(i));
+        }
+    }
 
 
     private int boolToInt(boolean bool){
@@ -346,15 +737,6 @@ public class Executor implements ASTVisitor<Object>{
 
 
 
-    private static class ReturnValueException extends RuntimeException{
-        private Object value;
-
-        public ReturnValueException(Object value){
-            this.value = value;
-        }
-    }
-
-
 
 
 
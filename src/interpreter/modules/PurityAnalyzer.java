@@ -0,0 +1,224 @@
+package interpreter.modules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.environment.BuiltIns;
+
+
+// Runs after the Resolver and marks the functions whose result depends only on their arguments (Decl.Func.isPure),
+// so that the Executor can cache their results.
+
+// A function is pure when it doesn't assign any global variable, doesn't call a built-in that does input or output,
+// only reads globals that are never assigned after their declaration, and only calls pure functions.
+// The last rule makes functions depend on each other. Every candidate starts out as pure, and functions that call
+// an impure one are marked impure until nothing changes, so recursive functions can still be pure.
+// VOID functions have no result to cache, so they are never marked.
+
+
+public class PurityAnalyzer implements ASTVisitor<Void>{
+    private HashMap<String,Func> functions;
+    private HashMap<String,HashSet<String>> callees;
+    private HashMap<String,HashSet<Integer>> globalReads;
+    private HashSet<String> impure;
+    private HashSet<Integer> assignedGlobals;
+
+    // Function whose body is being analyzed, or null for global initializers
+    private String current;
+
+
+    public void analyze(Program program) throws Exception{
+        functions = new HashMap<>();
+        callees = new HashMap<>();
+        globalReads = new HashMap<>();
+        impure = new HashSet<>();
+        assignedGlobals = new HashSet<>();
+
+        program.accept(this);
+
+        for(String name: functions.keySet()){
+            for(Integer slot: globalReads.get(name)){
+                if(assignedGlobals.contains(slot)) impure.add(name);
+            }
+        }
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(String name: functions.keySet()){
+                if(impure.contains(name)) continue;
+
+                for(String callee: callees.get(name)){
+                    if(impure.contains(callee)){
+                        impure.add(name);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for(Func func: functions.values()){
+            func.isPure = (func.type != ASTEnums.VOID && !impure.contains(func.identifier));
+        }
+    }
+
+
+
+    @Override
+    public Void visitProgram(Program prog) throws Exception {
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws Exception {
+        stmt.condition.accept(this);
+        analyzeBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Void visitForStmt(For stmt) throws Exception {
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition.accept(this);
+        if(stmt.update != null) stmt.update.accept(this);
+        analyzeBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Void visitIfStmt(If stmt) throws Exception {
+        stmt.condition.accept(this);
+        analyzeBody(stmt.body);
+        if(stmt.elseBody != null) analyzeBody(stmt.elseBody);
+        return null;
+    }
+
+
+    @Override
+    public Void visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitVarDecl(Var decl) throws Exception {
+        if(decl.expr != null) decl.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitFuncDecl(Func decl) throws Exception {
+        current = decl.identifier;
+        functions.put(current, decl);
+        callees.put(current, new HashSet<>());
+        globalReads.put(current, new HashSet<>());
+
+        analyzeBody(decl.body);
+
+        current = null;
+        return null;
+    }
+
+
+    @Override
+    public Void visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws Exception {
+        expr.expr.accept(this);
+
+        if(expr.isGlobal){
+            assignedGlobals.add(expr.slot);
+            if(current != null) impure.add(current);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitCallExpr(Call expr) throws Exception {
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+
+        if(current == null) return null;
+
+        if(BuiltIns.isFuncBuiltIn(expr.funcIdentifier)){
+            if(!BuiltIns.isFuncPure(expr.funcIdentifier)) impure.add(current);
+        }
+        else{
+            callees.get(current).add(expr.funcIdentifier);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        if(expr.isGlobal && current != null) globalReads.get(current).add(expr.slot);
+        return null;
+    }
+
+
+
+    private void analyzeBody(ArrayList<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package interpreter.modules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.environment.BuiltIns;
+
+
+// The Resolver runs after the SemanticChecker, so it can assume that the program is semantically correct.
+// It binds every variable reference to a fixed slot so that the Executor can read and write variables by index
+// instead of looking up their names at runtime.
+
+// Global variables get consecutive indexes in the global area. Each function gets a flat frame: parameters take the first slots
+// and every local declaration gets the next free slot. When we leave a code block, its slots are freed and can be reused by the
+// blocks that follow it. Shadowing is handled here, at compile time, since an inner declaration simply gets a different slot.
+
+// Calls are linked here too: every call gets the Decl.Func it calls, or the handler of the built-in function.
+
+
+public class Resolver implements ASTVisitor<Void>{
+    private HashMap<String,Integer> globals;
+    private HashMap<String,Func> functions;
+
+    // Innermost block scope is at the end of the list. It's empty when we're resolving global declarations
+    private ArrayList< HashMap<String,Integer> > scopes;
+    // First slot of every open block, so that we can free the block's slots when we leave it
+    private ArrayList<Integer> blockStarts;
+    private int nextSlot;
+    private int maxSlot;
+
+
+    public void resolve(Program program) throws Exception{
+        globals = new HashMap<>();
+        functions = new HashMap<>();
+        scopes = new ArrayList<>();
+        blockStarts = new ArrayList<>();
+
+        program.accept(this);
+    }
+
+
+    @Override
+    public Void visitProgram(Program prog) throws Exception {
+
+        // Globals are visible to every function, so we resolve them all first
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        prog.globalCount = globals.size();
+
+        // Functions can be called before they are declared
+        for(Stmt.DeclStmt stmt: prog.funcDeclStatements){
+            Func func = (Func) stmt.declaration;
+            functions.put(func.identifier, func);
+        }
+
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws Exception {
+        stmt.condition.accept(this);
+
+        enterBlock();
+        resolveBody(stmt.body);
+        exitBlock();
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitForStmt(For stmt) throws Exception {
+        enterBlock();
+
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition.accept(this);
+        if(stmt.update != null) stmt.update.accept(this);
+
+        resolveBody(stmt.body);
+
+        exitBlock();
+        return null;
+    }
+
+
+    @Override
+    public Void visitIfStmt(If stmt) throws Exception {
+        stmt.condition.accept(this);
+
+        enterBlock();
+        resolveBody(stmt.body);
+        exitBlock();
+
+        if(stmt.elseBody != null){
+            enterBlock();
+            resolveBody(stmt.elseBody);
+            exitBlock();
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitVarDecl(Var decl) throws Exception {
+        if(scopes.isEmpty()){
+            decl.isGlobal = true;
+            decl.slot = globals.size();
+            globals.put(decl.identifier, decl.slot);
+        }
+        else{
+            decl.isGlobal = false;
+            decl.slot = declareLocal(decl.identifier);
+        }
+
+        // Same order as in the SemanticChecker, the variable is declared before its initializer is visited
+        if(decl.expr != null) decl.expr.accept(this);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitFuncDecl(Func decl) throws Exception {
+        nextSlot = 0;
+        maxSlot = 0;
+
+        enterBlock();
+
+        decl.intParamCount = 0;
+        for(Param param: decl.params){
+            param.accept(this);
+            if(param.type == ASTEnums.INT) decl.intParamCount++;
+        }
+
+        resolveBody(decl.body);
+
+        exitBlock();
+
+        decl.frameSize = maxSlot;
+        return null;
+    }
+
+
+    @Override
+    public Void visitParamDecl(Param decl) {
+        decl.slot = declareLocal(decl.identifier);
+        return null;
+    }
+
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws Exception {
+        expr.expr.accept(this);
+
+        Integer slot = lookupLocal(expr.identifier);
+        if(slot != null){
+            expr.slot = slot;
+            expr.isGlobal = false;
+        }
+        else{
+            expr.slot = lookupGlobal(expr.identifier);
+            expr.isGlobal = true;
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitCallExpr(Call expr) throws Exception {
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+
+        // Linking the call to the function it calls, so that the engines don't have to look it up by name
+        expr.builtIn = BuiltIns.getHandler(expr.funcIdentifier);
+        if(expr.builtIn == null){
+            expr.function = functions.get(expr.funcIdentifier);
+            if(expr.function == null) internalError("visitCallExpr: Calling an undeclared function '" + expr.funcIdentifier + "'");
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        Integer slot = lookupLocal(expr.identifier);
+        if(slot != null){
+            expr.slot = slot;
+            expr.isGlobal = false;
+        }
+        else{
+            expr.slot = lookupGlobal(expr.identifier);
+            expr.isGlobal = true;
+        }
+
+        return null;
+    }
+
+
+
+
+    private void resolveBody(ArrayList<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+
+
+    private void enterBlock(){
+        scopes.add(new HashMap<>());
+        blockStarts.add(nextSlot);
+    }
+
+    private void exitBlock(){
+        scopes.remove(scopes.size() - 1);
+        nextSlot = blockStarts.remove(blockStarts.size() - 1);
+    }
+
+
+    private int declareLocal(String name){
+        int slot = nextSlot++;
+        if(nextSlot > maxSlot) maxSlot = nextSlot;
+
+        scopes.get(scopes.size() - 1).put(name, slot);
+        return slot;
+    }
+
+
+    // Innermost declaration wins
+    private Integer lookupLocal(String name){
+        for(int i = scopes.size() - 1; i >= 0; i--){
+            Integer slot = scopes.get(i).get(name);
+            if(slot != null) return slot;
+        }
+        return null;
+    }
+
+
+    private int lookupGlobal(String name){
+        Integer slot = globals.get(name);
+        if(slot == null){
+            internalError("lookupGlobal: Resolving an undeclared variable '" + name + "'");
+            return -1;
+        }
+        return slot;
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: Resolver." + message);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,354 @@
+package interpreter.modules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Runs after the Resolver and proves what the Executor would otherwise check on every read of a variable and every call.
+
+// Definite assignment: a read is marked (Variable.isAssigned) when every path from the start of its function to it assigns
+// the variable. The SemanticChecker goes through the functions in the order they are written, so a function may read a global
+// that an earlier function assigns, even if it runs before that assignment. Such reads are still checked when they run.
+// Parameters, and globals with an initializer, are assigned from the start.
+// The analysis follows the Resolver's slots: a declaration without an initializer makes its slot unassigned again, since
+// an earlier block may have left a value in it. Declarations aren't allowed inside loops, so a loop body can only add to
+// what is assigned, and what holds on the first iteration holds on every later one.
+
+// INT variables have no null to tell that they are unassigned. When an INT slot has a read that couldn't be proven,
+// every write to that slot is marked (isTracked) and leaves a mark in the Object[] region of the slot, which the read checks.
+
+// Call depth: every function gets the largest number of frames that can be on the call stack while it runs, 1 for 'main'.
+// A tail call runs in its caller's frame and adds nothing. Functions on a cycle of calls that aren't all tail calls, and
+// everything they call, have no bound. A call gets the bound of the frame it enters (Call.depthBound), and the Executor
+// only checks the depth limit for calls whose bound is over it.
+
+
+public class SafetyAnalyzer implements ASTVisitor<Void>{
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    // Slots assigned on every path to the statement being analyzed. 'reachable' is false after a return,
+    // where nothing runs and everything counts as assigned
+    private BitSet locals;
+    private BitSet globals;
+    private boolean reachable;
+
+    // Globals whose initializer runs before 'main'
+    private BitSet initializedGlobals;
+
+    // INT slots with a read that couldn't be proven, and the INT writes that may have to leave a mark for it
+    private BitSet trackedLocals;
+    private BitSet trackedGlobals;
+    private ArrayList<Decl.Var> intDecls;
+    private ArrayList<Assign> intAssigns;
+    private ArrayList<Decl.Var> globalIntDecls;
+    private ArrayList<Assign> globalIntAssigns;
+
+    // Calls made by every function, for the depth bounds
+    private HashMap<Func,ArrayList<Call>> calls;
+    private Func current;
+
+
+    public void analyze(Program program) throws Exception{
+        initializedGlobals = new BitSet();
+        trackedGlobals = new BitSet();
+        globalIntDecls = new ArrayList<>();
+        globalIntAssigns = new ArrayList<>();
+        calls = new HashMap<>();
+
+        program.accept(this);
+
+        for(Decl.Var decl: globalIntDecls){
+            decl.isTracked = trackedGlobals.get(decl.slot);
+        }
+        for(Assign assign: globalIntAssigns){
+            assign.isTracked = trackedGlobals.get(assign.slot);
+        }
+
+        boundCallDepths(program);
+    }
+
+
+
+    @Override
+    public Void visitProgram(Program prog) throws Exception {
+        // Global initializers run one after the other, before any function
+        locals = new BitSet();
+        globals = new BitSet();
+        reachable = true;
+        intDecls = new ArrayList<>();
+        intAssigns = new ArrayList<>();
+
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        initializedGlobals = (BitSet) globals.clone();
+        globalIntDecls.addAll(intDecls);
+        globalIntAssigns.addAll(intAssigns);
+
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitFuncDecl(Func decl) throws Exception {
+        current = decl;
+        calls.put(decl, new ArrayList<>());
+
+        locals = new BitSet();
+        globals = (BitSet) initializedGlobals.clone();
+        reachable = true;
+        trackedLocals = new BitSet();
+        intDecls = new ArrayList<>();
+        intAssigns = new ArrayList<>();
+
+        for(Param param: decl.params){
+            locals.set(param.slot);
+        }
+
+        analyzeBody(decl.body);
+
+        for(Decl.Var var: intDecls){
+            var.isTracked = trackedLocals.get(var.slot);
+        }
+        for(Assign assign: intAssigns){
+            if(assign.isGlobal) globalIntAssigns.add(assign);
+            else assign.isTracked = trackedLocals.get(assign.slot);
+        }
+
+        current = null;
+        return null;
+    }
+
+
+    @Override
+    public Void visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+
+    @Override
+    public Void visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitVarDecl(Var decl) throws Exception {
+        if(decl.expr != null) decl.expr.accept(this);
+
+        BitSet slots = (decl.isGlobal ? globals : locals);
+        slots.set(decl.slot, decl.expr != null);
+
+        if(decl.type == ASTEnums.INT) intDecls.add(decl);
+        return null;
+    }
+
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws Exception {
+        stmt.condition.accept(this);
+
+        // The body may never run, so only what the condition assigned holds after the loop
+        BitSet[] before = save();
+        analyzeBody(stmt.body);
+        restore(before);
+        return null;
+    }
+
+
+    @Override
+    public Void visitForStmt(For stmt) throws Exception {
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition.accept(this);
+
+        BitSet[] before = save();
+        analyzeBody(stmt.body);
+        if(stmt.update != null && reachable) stmt.update.accept(this);
+        restore(before);
+        return null;
+    }
+
+
+    @Override
+    public Void visitIfStmt(If stmt) throws Exception {
+        stmt.condition.accept(this);
+
+        BitSet[] before = save();
+        analyzeBody(stmt.body);
+        BitSet[] afterBody = save();
+
+        restore(before);
+        if(stmt.elseBody != null) analyzeBody(stmt.elseBody);
+
+        // Assigned after the If when assigned at the end of both branches. A branch that returned doesn't count
+        if(afterBody == null) return null;
+        if(!reachable){
+            restore(afterBody);
+            return null;
+        }
+        locals.and(afterBody[0]);
+        globals.and(afterBody[1]);
+        return null;
+    }
+
+
+    @Override
+    public Void visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr.accept(this);
+        reachable = false;
+        return null;
+    }
+
+
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws Exception {
+        expr.expr.accept(this);
+
+        if(expr.isGlobal) globals.set(expr.slot);
+        else locals.set(expr.slot);
+
+        if(expr.expr.type == ASTEnums.INT) intAssigns.add(expr);
+        return null;
+    }
+
+
+    @Override
+    public Void visitCallExpr(Call expr) throws Exception {
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+
+        // Built-in functions get no frame, so like in the other engines, calling one never goes over the limit
+        if(expr.builtIn != null) expr.depthBound = 0;
+        else if(current != null) calls.get(current).add(expr);
+        return null;
+    }
+
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        expr.isAssigned = !reachable || (expr.isGlobal ? globals : locals).get(expr.slot);
+
+        if(!expr.isAssigned && expr.type == ASTEnums.INT){
+            if(expr.isGlobal) trackedGlobals.set(expr.slot);
+            else trackedLocals.set(expr.slot);
+        }
+        return null;
+    }
+
+
+
+    private void analyzeBody(ArrayList<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+
+
+    // Returns null when the code is unreachable
+    private BitSet[] save(){
+        if(!reachable) return null;
+        return new BitSet[]{ (BitSet) locals.clone(), (BitSet) globals.clone() };
+    }
+
+
+    private void restore(BitSet[] state){
+        reachable = (state != null);
+        if(state == null) return;
+
+        locals = (BitSet) state[0].clone();
+        globals = (BitSet) state[1].clone();
+    }
+
+
+
+
+    // CALL DEPTH
+
+    // Longest paths from 'main', where a call adds a frame and a tail call doesn't. A bound can only grow up to the number of
+    // functions without going around a cycle that adds frames, so anything past that has no bound
+    private void boundCallDepths(Program program){
+        HashMap<Func,Integer> depths = new HashMap<>();
+        Func main = null;
+
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+            if(func.identifier.equals("main")) main = func;
+        }
+        if(main == null) return;
+
+        int limit = program.funcDeclStatements.size();
+        depths.put(main, 1);
+
+        boolean changed = true;
+        while(changed){
+            changed = false;
+
+            for(Func caller: calls.keySet()){
+                Integer depth = depths.get(caller);
+                if(depth == null) continue;
+
+                for(Call call: calls.get(caller)){
+                    int bound = (depth == UNBOUNDED ? UNBOUNDED : depth + (call.isTailCall ? 0 : 1));
+                    if(bound > limit) bound = UNBOUNDED;
+
+                    Integer known = depths.get(call.function);
+                    if(known == null || known < bound){
+                        depths.put(call.function, bound);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        // Calls of functions 'main' never reaches stay checked
+        for(Func caller: calls.keySet()){
+            Integer depth = depths.get(caller);
+
+            for(Call call: calls.get(caller)){
+                if(depth == null || depth == UNBOUNDED) call.depthBound = UNBOUNDED;
+                else call.depthBound = depth + 1;
+            }
+        }
+    }
+}
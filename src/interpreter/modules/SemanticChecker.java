@@ -212,6 +212,12 @@ public class SemanticChecker implements ASTVisitor<Object>{
             if(function.type != retStmt.expr.type){
                 report(retStmt.lineNumber,"Invalid return type. Expected " +  function.type +" ,but got " + retStmt.expr.type);
             }
+
+            // Nothing is left to do in this function after such a call, so the engines don't need to keep its frame around
+            if(retStmt.expr instanceof Expr.Call){
+                Expr.Call call = (Expr.Call) retStmt.expr;
+                call.isTailCall = !BuiltIns.isFuncBuiltIn(call.funcIdentifier);
+            }
         }
         return null;
     }
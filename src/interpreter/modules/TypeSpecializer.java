@@ -0,0 +1,205 @@
+package interpreter.modules;
+
+import java.util.HashMap;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Runs after the SemanticChecker and rewrites the ast in place. Every Binary, Unary and Literal node whose type is known
+// is replaced with its type-specialized variant from TypedExpr, which the Executor can evaluate without boxing INT values.
+
+// Expression visitors return the node that should take the visited node's place. Statement visitors return null.
+// Since the specialized nodes extend the generic ones, the rest of the interpreter doesn't need to know about this pass.
+
+// String literals are interned into the program's string table on the way, so every engine gets one String object per distinct literal.
+
+
+public class TypeSpecializer implements ASTVisitor<Expr>{
+    private HashMap<String,String> strings;
+
+
+    public void specialize(Program program) throws Exception{
+        strings = program.strings;
+        program.accept(this);
+    }
+
+
+    @Override
+    public Expr visitProgram(Program prog) throws Exception {
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Expr visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr = stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitWhileStmt(While stmt) throws Exception {
+        stmt.condition = stmt.condition.accept(this);
+        specializeBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitForStmt(For stmt) throws Exception {
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition = stmt.condition.accept(this);
+        if(stmt.update != null) stmt.update = stmt.update.accept(this);
+
+        specializeBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitIfStmt(If stmt) throws Exception {
+        stmt.condition = stmt.condition.accept(this);
+        specializeBody(stmt.body);
+        if(stmt.elseBody != null) specializeBody(stmt.elseBody);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr = stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitVarDecl(Var decl) throws Exception {
+        if(decl.expr != null) decl.expr = decl.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitFuncDecl(Func decl) throws Exception {
+        specializeBody(decl.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) throws Exception {
+        expr.left = expr.left.accept(this);
+        expr.right = expr.right.accept(this);
+
+        if(expr.left.type == ASTEnums.STRING){
+            switch(expr.operator){
+                case PLUS:      return new TypedExpr.Concat(expr);
+                case EQUAL:     return new TypedExpr.StrEqual(expr);
+                case NOT_EQUAL: return new TypedExpr.StrNotEqual(expr);
+                default:        return expr;
+            }
+        }
+
+        if(expr.left.type != ASTEnums.INT) return expr;
+
+        switch(expr.operator){
+            case PLUS:       return new TypedExpr.Add(expr);
+            case MINUS:      return new TypedExpr.Sub(expr);
+            case MULTIPLY:   return new TypedExpr.Mul(expr);
+            case DIVIDE:     return new TypedExpr.Div(expr);
+            case EQUAL:      return new TypedExpr.Equal(expr);
+            case NOT_EQUAL:  return new TypedExpr.NotEqual(expr);
+            case LESS:       return new TypedExpr.Less(expr);
+            case LESS_EQ:    return new TypedExpr.LessEq(expr);
+            case GREATER:    return new TypedExpr.Greater(expr);
+            case GREATER_EQ: return new TypedExpr.GreaterEq(expr);
+            default:         return expr;
+        }
+    }
+
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr = expr.expr.accept(this);
+
+        if(expr.expr.type != ASTEnums.INT) return expr;
+
+        switch(expr.operator){
+            case MINUS: return new TypedExpr.Neg(expr);
+            case NOT:   return new TypedExpr.Not(expr);
+            default:    return expr;
+        }
+    }
+
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) throws Exception {
+        expr.expr = expr.expr.accept(this);
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        switch(expr.type){
+            case INT:    return new TypedExpr.IntLiteral(expr);
+            case STRING:
+                String canonical = strings.get(expr.value);
+                if(canonical == null){
+                    canonical = expr.value;
+                    strings.put(canonical, canonical);
+                }
+                expr.value = canonical;
+                return new TypedExpr.StrLiteral(expr);
+
+            default:     return expr;
+        }
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        List<Expr> args = expr.arguments;
+        for(int i = 0; i < args.size(); i++){
+            args.set(i, args.get(i).accept(this));
+        }
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+
+
+    private void specializeBody(List<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Base class for passes that rewrite the ast. It walks the whole program and puts back whatever the visitors return,
+// so a pass only has to override the visits it's interested in.
+
+// Like in the TypeSpecializer, expression visitors return the node that takes the visited node's place, while statement
+// visitors return null. A statement is replaced through rewriteStmt, which can turn it into any number of statements.
+
+
+public abstract class AstRewriter implements ASTVisitor<Expr>{
+
+    @Override
+    public Expr visitProgram(Program prog) throws Exception {
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Expr visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr = stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitWhileStmt(While stmt) throws Exception {
+        stmt.condition = stmt.condition.accept(this);
+        stmt.body = rewriteBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitForStmt(For stmt) throws Exception {
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition = stmt.condition.accept(this);
+        if(stmt.update != null) stmt.update = stmt.update.accept(this);
+
+        stmt.body = rewriteBody(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitIfStmt(If stmt) throws Exception {
+        stmt.condition = stmt.condition.accept(this);
+        stmt.body = rewriteBody(stmt.body);
+        if(stmt.elseBody != null) stmt.elseBody = rewriteBody(stmt.elseBody);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr = stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitVarDecl(Var decl) throws Exception {
+        if(decl.expr != null) decl.expr = decl.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitFuncDecl(Func decl) throws Exception {
+        decl.body = rewriteBody(decl.body);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) throws Exception {
+        expr.left = expr.left.accept(this);
+        expr.right = expr.right.accept(this);
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr = expr.expr.accept(this);
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) throws Exception {
+        expr.expr = expr.expr.accept(this);
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        List<Expr> args = expr.arguments;
+        for(int i = 0; i < args.size(); i++){
+            args.set(i, args.get(i).accept(this));
+        }
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+
+
+    // Returns the new contents of a block
+    protected ArrayList<Stmt> rewriteBody(ArrayList<Stmt> body) throws Exception{
+        ArrayList<Stmt> result = new ArrayList<>(body.size());
+        for(Stmt stmt: body){
+            result.addAll(rewriteStmt(stmt));
+        }
+        return result;
+    }
+
+
+    // Returns the statements that take the given statement's place
+    protected List<Stmt> rewriteStmt(Stmt stmt) throws Exception{
+        stmt.accept(this);
+        return Collections.singletonList(stmt);
+    }
+}
@@ -0,0 +1,220 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Binds every Variable and Assign node to the declaration it refers to, using the same scoping rules as the SemanticChecker.
+// Passes run before the Resolver, so this is how they tell apart different variables with the same name.
+
+// The bindings describe the program at the moment they were computed. A pass that changes the program
+// has to compute them again before relying on them.
+
+
+public class Bindings implements ASTVisitor<Void>{
+    private IdentityHashMap<Expr,Decl> declarations = new IdentityHashMap<>();
+    private IdentityHashMap<Decl,Integer> assignments = new IdentityHashMap<>();
+
+    private HashMap<String,Decl> globals = new HashMap<>();
+    // Innermost block scope is at the end of the list
+    private ArrayList< HashMap<String,Decl> > scopes = new ArrayList<>();
+
+
+    public static Bindings of(Program program) throws Exception{
+        Bindings bindings = new Bindings();
+        program.accept(bindings);
+        return bindings;
+    }
+
+
+    // Returns the Var or Param declaration a Variable or Assign node refers to
+    public Decl declarationOf(Expr expr){
+        return declarations.get(expr);
+    }
+
+    // Whether the variable is assigned anywhere after its declaration
+    public boolean isReassigned(Decl decl){
+        return assignments.containsKey(decl);
+    }
+
+
+
+    @Override
+    public Void visitProgram(Program prog) throws Exception {
+        for(Stmt stmt: prog.varDeclStatements){
+            stmt.accept(this);
+        }
+        for(Stmt stmt: prog.funcDeclStatements){
+            stmt.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitExprStmt(ExprStmt stmt) throws Exception {
+        stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitDeclStmt(DeclStmt stmt) throws Exception {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitWhileStmt(While stmt) throws Exception {
+        stmt.condition.accept(this);
+        bindBlock(stmt.body);
+        return null;
+    }
+
+
+    @Override
+    public Void visitForStmt(For stmt) throws Exception {
+        scopes.add(new HashMap<>());
+
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+        if(stmt.condition != null) stmt.condition.accept(this);
+        if(stmt.update != null) stmt.update.accept(this);
+        bindBlock(stmt.body);
+
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+
+    @Override
+    public Void visitIfStmt(If stmt) throws Exception {
+        stmt.condition.accept(this);
+        bindBlock(stmt.body);
+        if(stmt.elseBody != null) bindBlock(stmt.elseBody);
+        return null;
+    }
+
+
+    @Override
+    public Void visitRetStmt(Ret stmt) throws Exception {
+        if(stmt.expr != null) stmt.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitVarDecl(Var decl) throws Exception {
+        declare(decl.identifier, decl);
+        if(decl.expr != null) decl.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitFuncDecl(Func decl) throws Exception {
+        scopes.add(new HashMap<>());
+        for(Param param: decl.params){
+            param.accept(this);
+        }
+        bindBlock(decl.body);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+
+    @Override
+    public Void visitParamDecl(Param decl) {
+        declare(decl.identifier, decl);
+        return null;
+    }
+
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Void visitAssignExpr(Assign expr) throws Exception {
+        expr.expr.accept(this);
+
+        Decl decl = lookup(expr.identifier);
+        declarations.put(expr, decl);
+        assignments.put(decl, assignments.getOrDefault(decl, 0) + 1);
+        return null;
+    }
+
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitCallExpr(Call expr) throws Exception {
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        declarations.put(expr, lookup(expr.identifier));
+        return null;
+    }
+
+
+
+    private void bindBlock(ArrayList<Stmt> body) throws Exception{
+        scopes.add(new HashMap<>());
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+        scopes.remove(scopes.size() - 1);
+    }
+
+
+    private void declare(String identifier,Decl decl){
+        if(scopes.isEmpty()) globals.put(identifier, decl);
+        else scopes.get(scopes.size() - 1).put(identifier, decl);
+    }
+
+
+    private Decl lookup(String identifier){
+        for(int i = scopes.size() - 1; i >= 0; i--){
+            Decl decl = scopes.get(i).get(identifier);
+            if(decl != null) return decl;
+        }
+
+        Decl decl = globals.get(identifier);
+        if(decl == null) internalError("lookup: Variable '" + identifier + "' is not declared");
+        return decl;
+    }
+
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: Bindings." + message);
+        System.exit(0);
+    }
+}
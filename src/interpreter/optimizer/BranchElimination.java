@@ -0,0 +1,96 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Removes the branch of an If statement that can never be taken because its condition is a literal.
+// A While loop with a literal zero condition is removed as well, since its body never runs.
+
+// The statements of the remaining branch are moved into the enclosing block, unless the branch declares variables of its own.
+// Those declarations would then be visible after the If and could hide variables of the enclosing block,
+// so in that case the branch stays in its own block, behind an If that's always taken.
+
+
+public class BranchElimination extends AstRewriter implements Pass{
+    private PassLog log;
+
+
+    @Override
+    public String getName(){
+        return "branches";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        program.accept(this);
+    }
+
+
+    @Override
+    protected List<Stmt> rewriteStmt(Stmt stmt) throws Exception{
+        stmt.accept(this);
+
+        if(stmt instanceof While){
+            While loop = (While) stmt;
+            if(isConstant(loop.condition) && !isTrue(loop.condition)){
+                log.record(stmt.lineNumber, "removed a while loop that never runs");
+                return Collections.emptyList();
+            }
+        }
+
+        if( !(stmt instanceof If) ) return Collections.singletonList(stmt);
+
+        If ifStmt = (If) stmt;
+        if( !isConstant(ifStmt.condition) ) return Collections.singletonList(stmt);
+
+        // Simplest form of an If that's always taken, we're done with it
+        if(isTrue(ifStmt.condition) && ifStmt.elseBody == null && declaresVariables(ifStmt.body)){
+            return Collections.singletonList(stmt);
+        }
+
+        ArrayList<Stmt> taken = isTrue(ifStmt.condition) ? ifStmt.body : ifStmt.elseBody;
+
+        if(taken == null){
+            log.record(stmt.lineNumber, "removed an if statement whose condition is always false");
+            return Collections.emptyList();
+        }
+
+        if(declaresVariables(taken)){
+            log.record(stmt.lineNumber, "removed the branch of an if statement that is never taken");
+            ifStmt.condition = new Literal("1", ASTEnums.INT, ifStmt.condition.lineNumber);
+            ifStmt.body = taken;
+            ifStmt.elseBody = null;
+            return Collections.singletonList(stmt);
+        }
+
+        log.record(stmt.lineNumber, "replaced an if statement with the only branch that can be taken");
+        return taken;
+    }
+
+
+
+    private boolean isConstant(Expr condition){
+        return condition instanceof Literal;
+    }
+
+    private boolean isTrue(Expr condition){
+        return Integer.parseInt(((Literal) condition).value) != 0;
+    }
+
+
+    private boolean declaresVariables(ArrayList<Stmt> body){
+        for(Stmt stmt: body){
+            if(stmt instanceof DeclStmt && ((DeclStmt) stmt).declaration instanceof Var) return true;
+        }
+        return false;
+    }
+}
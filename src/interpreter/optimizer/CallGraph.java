@@ -0,0 +1,93 @@
+package interpreter.optimizer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+
+
+// Which functions every function calls, and how many call sites each function has. Calls to built-in functions are left out.
+// It walks the program through AstRewriter without changing anything. Like Bindings, it has to be computed again after a pass changes the program.
+
+
+public class CallGraph extends AstRewriter{
+    private LinkedHashMap<String,Func> functions = new LinkedHashMap<>();
+    private HashMap<String,HashSet<String>> callees = new HashMap<>();
+    private HashMap<String,Integer> callSites = new HashMap<>();
+
+    // Function whose body is being walked, or null for global initializers
+    private String current;
+
+
+    public static CallGraph of(Program program) throws Exception{
+        CallGraph graph = new CallGraph();
+
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+            graph.functions.put(func.identifier, func);
+            graph.callees.put(func.identifier, new HashSet<>());
+        }
+
+        program.accept(graph);
+        return graph;
+    }
+
+
+    public Func getFunction(String name){
+        return functions.get(name);
+    }
+
+    public Set<String> getFunctionNames(){
+        return functions.keySet();
+    }
+
+    public int countCallSites(String name){
+        return callSites.getOrDefault(name, 0);
+    }
+
+
+    // Whether the function can end up calling itself
+    public boolean isRecursive(String name){
+        return reachableFrom(name).contains(name);
+    }
+
+
+    // Functions that can be called, directly or not, while the given function runs
+    public Set<String> reachableFrom(String name){
+        HashSet<String> reached = new HashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>(callees.get(name));
+
+        while(!work.isEmpty()){
+            String next = work.pop();
+            if(reached.add(next)) work.addAll(callees.get(next));
+        }
+        return reached;
+    }
+
+
+
+    @Override
+    public Expr visitFuncDecl(Func decl) throws Exception {
+        current = decl.identifier;
+        super.visitFuncDecl(decl);
+        current = null;
+        return null;
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        super.visitCallExpr(expr);
+
+        if(functions.containsKey(expr.funcIdentifier)){
+            callSites.put(expr.funcIdentifier, countCallSites(expr.funcIdentifier) + 1);
+            if(current != null) callees.get(current).add(expr.funcIdentifier);
+        }
+        return expr;
+    }
+}
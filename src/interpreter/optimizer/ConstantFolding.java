@@ -0,0 +1,106 @@
+package interpreter.optimizer;
+
+import ast.*;
+import ast.Expr.*;
+
+
+// Replaces Binary and Unary expressions whose operands are all literals with the literal they evaluate to.
+// Operands are folded first, so whole constant subtrees collapse into a single literal.
+
+// The arithmetic is done exactly like the engines do it, including int overflow. A division by a literal zero is left alone,
+// so that it still fails at runtime with the usual error, and only if it's actually reached.
+
+
+public class ConstantFolding extends AstRewriter implements Pass{
+    private PassLog log;
+
+
+    @Override
+    public String getName(){
+        return "fold";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        program.accept(this);
+    }
+
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) throws Exception {
+        expr.left = expr.left.accept(this);
+        expr.right = expr.right.accept(this);
+
+        if( !(expr.left instanceof Literal) || !(expr.right instanceof Literal) ) return expr;
+
+        String left = ((Literal) expr.left).value;
+        String right = ((Literal) expr.right).value;
+        Literal folded;
+
+        if(expr.left.type == ASTEnums.STRING){
+            switch(expr.operator){
+                case PLUS:      folded = string(left + right, expr); break;
+                case EQUAL:     folded = integer(left.equals(right) ? 1 : 0, expr); break;
+                case NOT_EQUAL: folded = integer(left.equals(right) ? 0 : 1, expr); break;
+                default:        return expr;
+            }
+        }
+        else if(expr.left.type == ASTEnums.INT){
+            int l = Integer.parseInt(left);
+            int r = Integer.parseInt(right);
+
+            switch(expr.operator){
+                case PLUS:       folded = integer(l + r, expr); break;
+                case MINUS:      folded = integer(l - r, expr); break;
+                case MULTIPLY:   folded = integer(l * r, expr); break;
+                case DIVIDE:
+                    if(r == 0) return expr;
+                    folded = integer(l / r, expr);
+                    break;
+                case EQUAL:      folded = integer(l == r ? 1 : 0, expr); break;
+                case NOT_EQUAL:  folded = integer(l != r ? 1 : 0, expr); break;
+                case LESS:       folded = integer(l < r ? 1 : 0, expr); break;
+                case LESS_EQ:    folded = integer(l <= r ? 1 : 0, expr); break;
+                case GREATER:    folded = integer(l > r ? 1 : 0, expr); break;
+                case GREATER_EQ: folded = integer(l >= r ? 1 : 0, expr); break;
+                default:         return expr;
+            }
+        }
+        else return expr;
+
+        log.record(expr.lineNumber, "folded " + Source.of(expr) + " into " + Source.of(folded));
+        return folded;
+    }
+
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr = expr.expr.accept(this);
+
+        if( !(expr.expr instanceof Literal) || expr.expr.type != ASTEnums.INT ) return expr;
+
+        int value = Integer.parseInt(((Literal) expr.expr).value);
+        Literal folded;
+
+        switch(expr.operator){
+            case MINUS: folded = integer(-value, expr); break;
+            case NOT:   folded = integer(value == 0 ? 1 : 0, expr); break;
+            default:    return expr;
+        }
+
+        log.record(expr.lineNumber, "folded " + Source.of(expr) + " into " + Source.of(folded));
+        return folded;
+    }
+
+
+
+    private Literal integer(int value,Expr original){
+        return new Literal(Integer.toString(value), ASTEnums.INT, original.lineNumber);
+    }
+
+    private Literal string(String value,Expr original){
+        return new Literal(value, ASTEnums.STRING, original.lineNumber);
+    }
+}
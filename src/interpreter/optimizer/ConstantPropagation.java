@@ -0,0 +1,45 @@
+package interpreter.optimizer;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+
+
+// Replaces reads of variables that are initialized with a literal and never assigned afterwards with that literal.
+// Together with ConstantFolding this lets whole chains of constants collapse. The declarations themselves are kept.
+
+
+public class ConstantPropagation extends AstRewriter implements Pass{
+    private PassLog log;
+    private Bindings bindings;
+
+
+    @Override
+    public String getName(){
+        return "propagate";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        bindings = Bindings.of(program);
+        program.accept(this);
+    }
+
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        Decl decl = bindings.declarationOf(expr);
+        if( !(decl instanceof Var) ) return expr;
+
+        Var var = (Var) decl;
+        if( !(var.expr instanceof Literal) || bindings.isReassigned(var) ) return expr;
+
+        Literal value = (Literal) var.expr;
+        Literal replacement = new Literal(value.value, value.type, expr.lineNumber);
+
+        log.record(expr.lineNumber, "replaced '" + expr.identifier + "' with " + Source.of(replacement));
+        return replacement;
+    }
+}
@@ -0,0 +1,46 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+
+import ast.*;
+import ast.Stmt.*;
+
+
+// Removes the statements that follow a return statement in the same block, since they can never be reached
+
+
+public class DeadCodeElimination extends AstRewriter implements Pass{
+    private PassLog log;
+
+
+    @Override
+    public String getName(){
+        return "dead-code";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        program.accept(this);
+    }
+
+
+    @Override
+    protected ArrayList<Stmt> rewriteBody(ArrayList<Stmt> body) throws Exception{
+        ArrayList<Stmt> result = new ArrayList<>(body.size());
+
+        for(int i = 0; i < body.size(); i++){
+            Stmt stmt = body.get(i);
+            result.addAll(rewriteStmt(stmt));
+
+            if(stmt instanceof Ret){
+                int removed = body.size() - i - 1;
+                if(removed > 0) log.record(stmt.lineNumber, "removed " + removed + " unreachable statement(s) after return");
+                break;
+            }
+        }
+
+        return result;
+    }
+}
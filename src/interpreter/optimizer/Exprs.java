@@ -0,0 +1,152 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import ast.ASTEnums;
+import ast.Expr;
+
+
+// Small helpers for inspecting and copying expression trees, shared by the passes
+
+public class Exprs {
+
+    // Deep copy of an expression. Variables named in 'replacements' are replaced with a copy of the mapped expression.
+    // Copied calls are never tail calls, since the copy can end up anywhere
+    public static Expr copy(Expr expr,Map<String,Expr> replacements){
+        Expr result;
+
+        if(expr instanceof Expr.Literal){
+            Expr.Literal literal = (Expr.Literal) expr;
+            result = new Expr.Literal(literal.value, literal.type, literal.lineNumber);
+        }
+        else if(expr instanceof Expr.Variable){
+            Expr.Variable variable = (Expr.Variable) expr;
+            Expr replacement = (replacements == null ? null : replacements.get(variable.identifier));
+            if(replacement != null) return copy(replacement, null);
+            result = new Expr.Variable(variable.identifier, variable.lineNumber);
+        }
+        else if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            result = new Expr.Binary(copy(binary.left, replacements), binary.operator, copy(binary.right, replacements), binary.lineNumber);
+        }
+        else if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary) expr;
+            result = new Expr.Unary(unary.operator, copy(unary.expr, replacements), unary.lineNumber);
+        }
+        else if(expr instanceof Expr.Assign){
+            Expr.Assign assign = (Expr.Assign) expr;
+            result = new Expr.Assign(assign.identifier, copy(assign.expr, replacements), assign.lineNumber);
+        }
+        else if(expr instanceof Expr.Call){
+            Expr.Call call = (Expr.Call) expr;
+            ArrayList<Expr> args = new ArrayList<>();
+            for(Expr arg: call.arguments){
+                args.add(copy(arg, replacements));
+            }
+            result = new Expr.Call(call.funcIdentifier, args, call.lineNumber);
+        }
+        else{
+            internalError("copy: Unknown expression " + expr.getClass().getSimpleName());
+            return null;
+        }
+
+        result.type = expr.type;
+        return result;
+    }
+
+
+    // Number of nodes in the expression
+    public static int size(Expr expr){
+        int size = 1;
+        for(Expr child: children(expr)){
+            size += size(child);
+        }
+        return size;
+    }
+
+
+    // Whether evaluating the expression can change a variable or do input/output
+    public static boolean hasEffects(Expr expr){
+        if(expr instanceof Expr.Call || expr instanceof Expr.Assign) return true;
+
+        for(Expr child: children(expr)){
+            if(hasEffects(child)) return true;
+        }
+        return false;
+    }
+
+
+    // Whether evaluating the expression can neither have effects nor fail at runtime
+    public static boolean isSafe(Expr expr){
+        if(hasEffects(expr)) return false;
+        if(expr instanceof Expr.Binary && ((Expr.Binary) expr).operator == ASTEnums.DIVIDE) return false;
+
+        for(Expr child: children(expr)){
+            if(!isSafe(child)) return false;
+        }
+        return true;
+    }
+
+
+    // Number of times the variable is read in the expression
+    public static int countReads(Expr expr,String identifier){
+        int count = (expr instanceof Expr.Variable && ((Expr.Variable) expr).identifier.equals(identifier)) ? 1 : 0;
+
+        for(Expr child: children(expr)){
+            count += countReads(child, identifier);
+        }
+        return count;
+    }
+
+
+    // Names of all the variables the expression reads or assigns
+    public static void collectVariables(Expr expr,List<String> names){
+        if(expr instanceof Expr.Variable) names.add(((Expr.Variable) expr).identifier);
+        if(expr instanceof Expr.Assign) names.add(((Expr.Assign) expr).identifier);
+
+        for(Expr child: children(expr)){
+            collectVariables(child, names);
+        }
+    }
+
+
+    // Whether the expression assigns the variable
+    public static boolean assigns(Expr expr,String identifier){
+        if(expr instanceof Expr.Assign && ((Expr.Assign) expr).identifier.equals(identifier)) return true;
+
+        for(Expr child: children(expr)){
+            if(assigns(child, identifier)) return true;
+        }
+        return false;
+    }
+
+
+    public static List<Expr> children(Expr expr){
+        ArrayList<Expr> children = new ArrayList<>(2);
+
+        if(expr instanceof Expr.Binary){
+            children.add(((Expr.Binary) expr).left);
+            children.add(((Expr.Binary) expr).right);
+        }
+        else if(expr instanceof Expr.Unary){
+            children.add(((Expr.Unary) expr).expr);
+        }
+        else if(expr instanceof Expr.Assign){
+            children.add(((Expr.Assign) expr).expr);
+        }
+        else if(expr instanceof Expr.Call){
+            children.addAll(((Expr.Call) expr).arguments);
+        }
+
+        return children;
+    }
+
+
+
+    private static void internalError(String message){
+        System.out.println("Internal error: Exprs." + message);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,219 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.environment.BuiltIns;
+
+
+// Replaces calls to small functions with a copy of the function's body, where every parameter is replaced with its argument.
+// Only functions whose whole body is 'return EXPR;' (or a single expression statement, for VOID functions) are inlined,
+// and only if they can't end up calling themselves, so inlining always terminates.
+
+// How much code this copies is kept in check by two thresholds: the size of the body in ast nodes, and the number of
+// call sites the function has. Both can be changed from the CLI.
+
+// Replacing a parameter with its argument must not change what the program does, so a call is only inlined when:
+//  - the body doesn't assign any of the parameters
+//  - every argument is a literal, a local variable, or a global variable the body can't change
+//  - any other argument is read exactly once and can neither have effects nor fail, while the body itself has no effects
+//  - none of the globals the body uses is hidden by a local variable at the call site
+
+
+public class FunctionInlining extends AstRewriter implements Pass{
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final int DEFAULT_MAX_CALL_SITES = 8;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private int maxCallSites = DEFAULT_MAX_CALL_SITES;
+
+    private PassLog log;
+    private HashMap<String,Func> inlinable;
+    // Names of the parameters and local variables visible at the current point, innermost block last
+    private ArrayList< HashSet<String> > scopes;
+
+
+    @Override
+    public String getName(){
+        return "inline";
+    }
+
+
+    public void setMaxSize(int maxSize){
+        this.maxSize = maxSize;
+    }
+
+    public void setMaxCallSites(int maxCallSites){
+        this.maxCallSites = maxCallSites;
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    public int getMaxCallSites(){
+        return maxCallSites;
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        inlinable = new HashMap<>();
+        scopes = new ArrayList<>();
+
+        CallGraph graph = CallGraph.of(program);
+        for(String name: graph.getFunctionNames()){
+            Expr body = inlinableBody(graph.getFunction(name));
+            if(body == null) continue;
+
+            if(Exprs.size(body) > maxSize || graph.countCallSites(name) > maxCallSites) continue;
+            if(graph.isRecursive(name)) continue;
+
+            inlinable.put(name, graph.getFunction(name));
+        }
+
+        if(!inlinable.isEmpty()) program.accept(this);
+    }
+
+
+    // The expression a function boils down to, or null if its body is anything more than that
+    private Expr inlinableBody(Func func){
+        if(func.body.size() != 1) return null;
+        Stmt stmt = func.body.get(0);
+
+        if(stmt instanceof Ret) return ((Ret) stmt).expr;
+        if(stmt instanceof ExprStmt && func.type == ASTEnums.VOID) return ((ExprStmt) stmt).expr;
+        return null;
+    }
+
+
+
+    @Override
+    public Expr visitFuncDecl(Func decl) throws Exception {
+        HashSet<String> params = new HashSet<>();
+        for(Param param: decl.params){
+            params.add(param.identifier);
+        }
+
+        scopes.add(params);
+        super.visitFuncDecl(decl);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitForStmt(For stmt) throws Exception {
+        scopes.add(new HashSet<>());
+        super.visitForStmt(stmt);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+
+    @Override
+    public Expr visitVarDecl(Var decl) throws Exception {
+        // Like in the SemanticChecker, a local variable is visible in its own initializer
+        if(!scopes.isEmpty()) scopes.get(scopes.size() - 1).add(decl.identifier);
+        return super.visitVarDecl(decl);
+    }
+
+
+    // VOID functions can only be inlined where their call is a statement of its own
+    @Override
+    public Expr visitExprStmt(ExprStmt stmt) throws Exception {
+        if(stmt.expr instanceof Call){
+            Call call = (Call) stmt.expr;
+            super.visitCallExpr(call);
+            stmt.expr = inline(call, true);
+            return null;
+        }
+        return super.visitExprStmt(stmt);
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        super.visitCallExpr(expr);
+        return inline(expr, false);
+    }
+
+
+    @Override
+    protected ArrayList<Stmt> rewriteBody(ArrayList<Stmt> body) throws Exception{
+        scopes.add(new HashSet<>());
+        ArrayList<Stmt> result = super.rewriteBody(body);
+        scopes.remove(scopes.size() - 1);
+        return result;
+    }
+
+
+
+    private Expr inline(Call call,boolean isStatement) throws Exception{
+        Func func = inlinable.get(call.funcIdentifier);
+        if(func == null) return call;
+
+        Expr body = inlinableBody(func);
+        if(func.type == ASTEnums.VOID && !isStatement) return call;
+
+        HashMap<String,Expr> replacements = new HashMap<>();
+        for(int i = 0; i < func.params.size(); i++){
+            replacements.put(func.params.get(i).identifier, call.arguments.get(i));
+        }
+
+        if(!canSubstitute(body, replacements)) return call;
+
+        // Globals used by the body must still mean the same thing at the call site
+        ArrayList<String> names = new ArrayList<>();
+        Exprs.collectVariables(body, names);
+        for(String name: names){
+            if(!replacements.containsKey(name) && isLocal(name)) return call;
+        }
+
+        Expr result = Exprs.copy(body, replacements);
+
+        // A call that was returned by the caller is still returned once it takes the inlined call's place
+        if(call.isTailCall && result instanceof Call && !BuiltIns.isFuncBuiltIn(((Call) result).funcIdentifier)){
+            ((Call) result).isTailCall = true;
+        }
+
+        log.record(call.lineNumber, "inlined " + Source.of(call) + " as " + Source.of(result));
+        return result;
+    }
+
+
+    private boolean canSubstitute(Expr body,HashMap<String,Expr> replacements){
+        boolean bodyHasEffects = Exprs.hasEffects(body);
+
+        for(String param: replacements.keySet()){
+            Expr arg = replacements.get(param);
+
+            if(Exprs.assigns(body, param)) return false;
+
+            if(arg instanceof Literal) continue;
+
+            if(arg instanceof Variable){
+                if(bodyHasEffects && !isLocal(((Variable) arg).identifier)) return false;
+                continue;
+            }
+
+            if(bodyHasEffects || !Exprs.isSafe(arg) || Exprs.countReads(body, param) > 1) return false;
+        }
+
+        return true;
+    }
+
+
+    private boolean isLocal(String name){
+        for(HashSet<String> scope: scopes){
+            if(scope.contains(name)) return true;
+        }
+        return false;
+    }
+}
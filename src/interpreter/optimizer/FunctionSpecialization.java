@@ -0,0 +1,343 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Makes a copy of a function for calls that pass literals to it, with those parameters turned into local variables
+// initialized with the literals. The call then goes to the copy, without those arguments. In the next rounds of the PassManager
+// propagation puts the literals into the copy, folding evaluates what they decided, and branch elimination drops the
+// branches a mode flag or a fixed width rules out.
+
+// A copy is only made when one of the parameters that become constant decides a condition of an If, While or For
+// in the body and is never assigned, since otherwise nothing would fold away. Calls with the same literals for the same
+// parameters share one copy. All copies of a program together may add at most 'spec budget [N]' ast nodes.
+// Calls a recursive function makes to itself, or its copies make to it, only go to copies that already exist.
+// Otherwise a call like 'count(n - 1, ...)' with every argument folded would be copied once for every value of 'n'.
+
+// The copies stay with the program they were made for across the rounds of the PassManager.
+// Once every call goes to a copy, tree shaking removes the original. Tree shaking also removes a copy whose calls went away,
+// like with a dead branch, and a later call with the same literals then gets a new copy.
+
+
+public class FunctionSpecialization extends AstRewriter implements Pass{
+    public static final int DEFAULT_BUDGET = 1024;
+
+    private int budget = DEFAULT_BUDGET;
+
+    private PassLog log;
+    private Program program;
+    private HashMap<String,Func> functions;
+    private ArrayList<DeclStmt> added;
+    private CallGraph graph;
+    // Function whose body is being walked
+    private String current;
+
+    // What was made for the current program: the copy for every function and literals, the function every copy
+    // was made from, the number of copies made, and the ast nodes added so far
+    private HashMap<String,String> copies;
+    private HashMap<String,String> origins;
+    private int made;
+    private int spent;
+
+
+    @Override
+    public String getName(){
+        return "specialize";
+    }
+
+
+    public void setBudget(int budget){
+        this.budget = budget;
+    }
+
+    public int getBudget(){
+        return budget;
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        if(this.program != program){
+            this.program = program;
+            copies = new HashMap<>();
+            origins = new HashMap<>();
+            made = 0;
+            spent = 0;
+        }
+
+        this.log = log;
+        functions = new HashMap<>();
+        added = new ArrayList<>();
+        graph = CallGraph.of(program);
+
+        for(DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+            functions.put(func.identifier, func);
+        }
+
+        program.accept(this);
+
+        // Copies are walked in the next round, like the rest of the program
+        program.funcDeclStatements.addAll(added);
+    }
+
+
+
+    @Override
+    public Expr visitFuncDecl(Func decl) throws Exception {
+        current = decl.identifier;
+        super.visitFuncDecl(decl);
+        current = null;
+        return null;
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        super.visitCallExpr(expr);
+
+        Func func = functions.get(expr.funcIdentifier);
+        if(func == null) return expr;
+
+        // Parameters that get a literal, and the key of the copy for these literals
+        ArrayList<Integer> constant = new ArrayList<>();
+        StringBuilder key = new StringBuilder(func.identifier);
+        boolean decides = false;
+
+        for(int i = 0; i < expr.arguments.size(); i++){
+            if( !(expr.arguments.get(i) instanceof Literal) ) continue;
+
+            String param = func.params.get(i).identifier;
+            if(!canBeConstant(func.body, param)) continue;
+
+            constant.add(i);
+            String value = ((Literal) expr.arguments.get(i)).value;
+            key.append('|').append(i).append(':').append(value.length()).append(':').append(value);
+            if(decidesCondition(func.body, param)) decides = true;
+        }
+
+        if(!decides) return expr;
+
+        String name = copies.get(key.toString());
+        if(name != null && !exists(name)) name = null;
+
+        if(name == null){
+            if(isRecursiveCall(func.identifier)) return expr;
+
+            name = specialize(func, expr, constant);
+            if(name == null) return expr;
+            copies.put(key.toString(), name);
+        }
+
+        String before = Source.of(expr);
+
+        ArrayList<Expr> arguments = new ArrayList<>();
+        for(int i = 0; i < expr.arguments.size(); i++){
+            if(!constant.contains(i)) arguments.add(expr.arguments.get(i));
+        }
+        expr.funcIdentifier = name;
+        expr.arguments = arguments;
+
+        log.record(expr.lineNumber, "specialized " + before + " as " + Source.of(expr));
+        return expr;
+    }
+
+
+    // Returns the name of the new copy, or null when it doesn't fit in the budget
+    private String specialize(Func func,Call call,List<Integer> constant){
+        int size = size(func.body);
+        if(spent + size > budget) return null;
+        spent += size;
+
+        String name = func.identifier + "$" + made++;
+        origins.put(name, originOf(func.identifier));
+
+        ArrayList<Param> params = new ArrayList<>();
+        ArrayList<Stmt> body = new ArrayList<>();
+
+        for(int i = 0; i < func.params.size(); i++){
+            Param param = func.params.get(i);
+
+            if(!constant.contains(i)){
+                params.add(new Param(param.type, param.identifier, param.lineNumber));
+                continue;
+            }
+
+            Literal value = (Literal) call.arguments.get(i);
+            Var local = new Var(param.type, param.identifier, new Literal(value.value, value.type, param.lineNumber), param.lineNumber);
+            body.add(new DeclStmt(local, param.lineNumber));
+        }
+
+        body.addAll(copyBody(func.body));
+
+        Func copy = new Func(func.type, name, params, body, func.lineNumber);
+        copy.origin = originOf(func.identifier);
+        added.add(new DeclStmt(copy, func.lineNumber));
+        return name;
+    }
+
+
+    // Whether a copy made in an earlier round is still in the program, or was made during this run
+    private boolean exists(String name){
+        if(functions.containsKey(name)) return true;
+
+        for(DeclStmt declStmt: added){
+            if(((Func) declStmt.declaration).identifier.equals(name)) return true;
+        }
+        return false;
+    }
+
+
+    // Whether the call is made by the called function itself, by a copy of it, or by a function it calls
+    private boolean isRecursiveCall(String callee){
+        if(current == null || !graph.isRecursive(callee)) return false;
+        return originOf(current).equals(originOf(callee)) || graph.reachableFrom(callee).contains(current);
+    }
+
+
+    private String originOf(String name){
+        return origins.getOrDefault(name, name);
+    }
+
+
+    // A parameter that is assigned, or hidden by a local variable of the same name, wouldn't become a plain constant
+    private boolean canBeConstant(List<Stmt> body,String param){
+        for(Stmt stmt: statementsOf(body)){
+            if(stmt instanceof DeclStmt && ((Var) ((DeclStmt) stmt).declaration).identifier.equals(param)) return false;
+            if(stmt instanceof For && ((For) stmt).varDeclaration != null && ((For) stmt).varDeclaration.identifier.equals(param)) return false;
+        }
+        for(Expr expr: expressionsOf(body)){
+            if(Exprs.assigns(expr, param)) return false;
+        }
+        return true;
+    }
+
+
+    private boolean decidesCondition(List<Stmt> body,String param){
+        for(Stmt stmt: statementsOf(body)){
+            Expr condition = null;
+            if(stmt instanceof If) condition = ((If) stmt).condition;
+            else if(stmt instanceof While) condition = ((While) stmt).condition;
+            else if(stmt instanceof For) condition = ((For) stmt).condition;
+
+            if(condition != null && Exprs.countReads(condition, param) > 0) return true;
+        }
+        return false;
+    }
+
+
+    private int size(List<Stmt> body){
+        int size = statementsOf(body).size();
+        for(Expr expr: expressionsOf(body)){
+            size += Exprs.size(expr);
+        }
+        return size;
+    }
+
+
+
+    // Every statement of the body, nested ones included
+    private List<Stmt> statementsOf(List<Stmt> body){
+        ArrayList<Stmt> result = new ArrayList<>();
+        for(Stmt stmt: body){
+            result.add(stmt);
+            if(stmt instanceof While) result.addAll(statementsOf(((While) stmt).body));
+            else if(stmt instanceof For) result.addAll(statementsOf(((For) stmt).body));
+            else if(stmt instanceof If){
+                result.addAll(statementsOf(((If) stmt).body));
+                if(((If) stmt).elseBody != null) result.addAll(statementsOf(((If) stmt).elseBody));
+            }
+        }
+        return result;
+    }
+
+
+    // Every expression the statements of the body hold directly
+    private List<Expr> expressionsOf(List<Stmt> body){
+        ArrayList<Expr> result = new ArrayList<>();
+        for(Stmt stmt: statementsOf(body)){
+            if(stmt instanceof ExprStmt) result.add(((ExprStmt) stmt).expr);
+            else if(stmt instanceof DeclStmt) result.add(((Var) ((DeclStmt) stmt).declaration).expr);
+            else if(stmt instanceof While) result.add(((While) stmt).condition);
+            else if(stmt instanceof For){
+                For loop = (For) stmt;
+                if(loop.varDeclaration != null) result.add(loop.varDeclaration.expr);
+                result.add(loop.condition);
+                result.add(loop.update);
+            }
+            else if(stmt instanceof If) result.add(((If) stmt).condition);
+            else if(stmt instanceof Ret) result.add(((Ret) stmt).expr);
+        }
+        result.removeIf(expr -> expr == null);
+        return result;
+    }
+
+
+
+    private ArrayList<Stmt> copyBody(List<Stmt> body){
+        if(body == null) return null;
+
+        ArrayList<Stmt> result = new ArrayList<>();
+        for(Stmt stmt: body){
+            result.add(copyStmt(stmt));
+        }
+        return result;
+    }
+
+
+    private Stmt copyStmt(Stmt stmt){
+        if(stmt instanceof ExprStmt){
+            return new ExprStmt(Exprs.copy(((ExprStmt) stmt).expr, null), stmt.lineNumber);
+        }
+        if(stmt instanceof DeclStmt){
+            return new DeclStmt(copyVar((Var) ((DeclStmt) stmt).declaration), stmt.lineNumber);
+        }
+        if(stmt instanceof While){
+            While loop = (While) stmt;
+            return new While(Exprs.copy(loop.condition, null), copyBody(loop.body), stmt.lineNumber);
+        }
+        if(stmt instanceof For){
+            For loop = (For) stmt;
+            return new For(copyVar(loop.varDeclaration), copyExpr(loop.condition), copyExpr(loop.update), copyBody(loop.body), stmt.lineNumber);
+        }
+        if(stmt instanceof If){
+            If ifStmt = (If) stmt;
+            return new If(Exprs.copy(ifStmt.condition, null), copyBody(ifStmt.body), copyBody(ifStmt.elseBody), stmt.lineNumber);
+        }
+        if(stmt instanceof Ret){
+            Ret ret = (Ret) stmt;
+            Ret copy = new Ret(copyExpr(ret.expr), stmt.lineNumber);
+
+            // Exprs.copy() drops tail calls, but this one is still returned by its function
+            if(ret.expr instanceof Call) ((Call) copy.expr).isTailCall = ((Call) ret.expr).isTailCall;
+            return copy;
+        }
+
+        internalError("copyStmt: Unknown statement " + stmt.getClass().getSimpleName());
+        return null;
+    }
+
+
+    private Var copyVar(Var decl){
+        if(decl == null) return null;
+        return new Var(decl.type, decl.identifier, copyExpr(decl.expr), decl.lineNumber);
+    }
+
+
+    private Expr copyExpr(Expr expr){
+        return expr == null ? null : Exprs.copy(expr, null);
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: FunctionSpecialization." + message);
+        System.exit(0);
+    }
+}
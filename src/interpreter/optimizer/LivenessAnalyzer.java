@@ -0,0 +1,437 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Runs after the Resolver, once the PassManager's other passes are done. For every function it builds a control flow graph
+// out of the statement lists and computes which local variables are live, meaning read later before they are assigned again,
+// at every point of the function.
+// The result is used twice:
+//  - A store to a variable that is dead after it is removed: an assignment statement goes away, and a declaration loses
+//    its initializer. Only values that can neither have effects nor fail are dropped, no calls and no division except by a non-zero literal.
+//    Every removal can make earlier stores dead, so this goes on until nothing changes.
+//  - Variables that are never live at the same time share a frame slot. Two variables interfere when one of them is
+//    stored to while the other is live, and every variable gets the lowest slot no variable it interferes with has.
+//    Large generated functions with many short-lived temporaries end up with frames about as big as the most variables
+//    they have live at once.
+
+// The variables here are the Resolver's slots, with INT and STRING kept apart. Variables of sibling blocks that the Resolver
+// already put in the same slot count as one variable, which only ever makes them live for longer.
+// A declaration without an initializer counts as a store too, since the engines clear the slot there.
+// Parameters keep the first slots, in order, since the engines copy arguments straight into them.
+// The graph has a node for every expression statement, declaration, return, condition and for loop update.
+// Expressions have no short-circuit operators, so every assignment in a node always happens.
+// Removed stores are recorded in the log, and so are frames that got smaller.
+
+
+public class LivenessAnalyzer implements Pass{
+    private PassLog log;
+
+    // Local variables of the function being analyzed. A variable is the pair of a Resolver slot and a type, the key is slot * 2 + (STRING ? 1 : 0)
+    private HashMap<Integer,Integer> variables;
+    private ArrayList<Integer> keys;
+
+    private ArrayList<Node> nodes;
+
+
+    @Override
+    public String getName(){
+        return "liveness";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log){
+        this.log = log;
+
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+
+            while(removeDeadStores(func)){}
+
+            int frameSize = func.frameSize;
+            shareSlots(func);
+            if(func.frameSize < frameSize){
+                log.record(func.lineNumber, "function '" + func.identifier + "' needs " + func.frameSize + " frame slot(s) instead of " + frameSize);
+            }
+        }
+    }
+
+
+
+    // DEAD STORES
+
+    // Returns whether something was removed, the graph has to be built again then
+    private boolean removeDeadStores(Func func){
+        buildGraph(func);
+        computeLiveness();
+
+        boolean removed = false;
+        for(Node node: nodes){
+            if(node.block == null) continue;
+
+            if(node.stmt instanceof ExprStmt && ((ExprStmt) node.stmt).expr instanceof Assign){
+                Assign assign = (Assign) ((ExprStmt) node.stmt).expr;
+
+                if(!assign.isGlobal && isDead(assign.slot, assign.expr.type, node) && canDrop(assign.expr)){
+                    log.record(node.stmt.lineNumber, "removed " + Source.of(assign) + ", '" + assign.identifier + "' isn't read afterwards");
+                    node.block.remove(node.stmt);
+                    removed = true;
+                }
+            }
+            else if(node.stmt instanceof DeclStmt){
+                Var decl = (Var) ((DeclStmt) node.stmt).declaration;
+
+                if(decl.expr != null && isDead(decl.slot, decl.type, node) && canDrop(decl.expr)){
+                    log.record(node.stmt.lineNumber, "removed the initializer " + Source.of(decl.expr) + " of '" + decl.identifier + "', it isn't read afterwards");
+                    decl.expr = null;
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+
+    private boolean isDead(int slot,ASTEnums type,Node node){
+        return !node.out.get(variables.get(key(slot, type)));
+    }
+
+
+    private boolean canDrop(Expr expr){
+        if(expr instanceof Call || expr instanceof Assign) return false;
+
+        if(expr instanceof Binary){
+            Binary binary = (Binary) expr;
+            if(binary.operator == ASTEnums.DIVIDE){
+                if( !(binary.right instanceof Literal) || Integer.parseInt(((Literal) binary.right).value) == 0 ) return false;
+            }
+            return canDrop(binary.left) && canDrop(binary.right);
+        }
+        if(expr instanceof Unary) return canDrop(((Unary) expr).expr);
+        return true;
+    }
+
+
+
+
+    // SLOT SHARING
+
+    private void shareSlots(Func func){
+        buildGraph(func);
+        computeLiveness();
+
+        int count = keys.size();
+        BitSet[] interferes = new BitSet[count];
+        for(int i = 0; i < count; i++){
+            interferes[i] = new BitSet();
+        }
+
+        // A read in the same node may come after the store, so the variables the node reads count as live too
+        for(Node node: nodes){
+            BitSet live = (BitSet) node.out.clone();
+            live.or(node.use);
+
+            for(int def = node.def.nextSetBit(0); def >= 0; def = node.def.nextSetBit(def + 1)){
+                interfere(def, live, interferes);
+            }
+        }
+
+        // The arguments are stored at the start of the call, while everything live there is live
+        for(Param param: func.params){
+            interfere(variables.get(key(param.slot, param.type)), nodes.get(0).out, interferes);
+        }
+
+        int[] slots = new int[count];
+        Arrays.fill(slots, -1);
+        int frameSize = func.params.size();
+
+        for(Param param: func.params){
+            slots[variables.get(key(param.slot, param.type))] = param.slot;
+        }
+
+        for(int variable = 0; variable < count; variable++){
+            if(slots[variable] >= 0) continue;
+
+            BitSet taken = new BitSet();
+            for(int other = interferes[variable].nextSetBit(0); other >= 0; other = interferes[variable].nextSetBit(other + 1)){
+                if(slots[other] >= 0) taken.set(slots[other]);
+            }
+
+            slots[variable] = taken.nextClearBit(0);
+            frameSize = Math.max(frameSize, slots[variable] + 1);
+        }
+
+        renumber(func.body, slots);
+        func.frameSize = frameSize;
+    }
+
+
+    private void interfere(int variable,BitSet live,BitSet[] interferes){
+        for(int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)){
+            if(other == variable) continue;
+            interferes[variable].set(other);
+            interferes[other].set(variable);
+        }
+    }
+
+
+    private void renumber(List<Stmt> body,int[] slots){
+        for(Stmt stmt: body){
+            if(stmt instanceof ExprStmt){
+                renumber(((ExprStmt) stmt).expr, slots);
+            }
+            else if(stmt instanceof DeclStmt){
+                renumber((Var) ((DeclStmt) stmt).declaration, slots);
+            }
+            else if(stmt instanceof While){
+                renumber(((While) stmt).condition, slots);
+                renumber(((While) stmt).body, slots);
+            }
+            else if(stmt instanceof For){
+                For loop = (For) stmt;
+                if(loop.varDeclaration != null) renumber(loop.varDeclaration, slots);
+                if(loop.condition != null) renumber(loop.condition, slots);
+                if(loop.update != null) renumber(loop.update, slots);
+                renumber(loop.body, slots);
+            }
+            else if(stmt instanceof If){
+                renumber(((If) stmt).condition, slots);
+                renumber(((If) stmt).body, slots);
+                if(((If) stmt).elseBody != null) renumber(((If) stmt).elseBody, slots);
+            }
+            else if(stmt instanceof Ret){
+                if(((Ret) stmt).expr != null) renumber(((Ret) stmt).expr, slots);
+            }
+        }
+    }
+
+
+    private void renumber(Var decl,int[] slots){
+        if(decl.expr != null) renumber(decl.expr, slots);
+        decl.slot = slots[variables.get(key(decl.slot, decl.type))];
+    }
+
+
+    private void renumber(Expr expr,int[] slots){
+        if(expr instanceof Variable){
+            Variable variable = (Variable) expr;
+            if(!variable.isGlobal) variable.slot = slots[variables.get(key(variable.slot, variable.type))];
+        }
+        else if(expr instanceof Assign){
+            Assign assign = (Assign) expr;
+            renumber(assign.expr, slots);
+            if(!assign.isGlobal) assign.slot = slots[variables.get(key(assign.slot, assign.expr.type))];
+        }
+        else if(expr instanceof Binary){
+            renumber(((Binary) expr).left, slots);
+            renumber(((Binary) expr).right, slots);
+        }
+        else if(expr instanceof Unary){
+            renumber(((Unary) expr).expr, slots);
+        }
+        else if(expr instanceof Call){
+            for(Expr arg: ((Call) expr).arguments){
+                renumber(arg, slots);
+            }
+        }
+    }
+
+
+
+
+    // CONTROL FLOW GRAPH
+
+    // A point of the function that reads the variables in 'use' and then stores to the ones in 'def'.
+    // Statements that can be removed remember the block they are in
+    private static class Node {
+        Stmt stmt;
+        List<Stmt> block;
+        BitSet use = new BitSet();
+        BitSet def = new BitSet();
+        ArrayList<Node> successors = new ArrayList<>();
+
+        BitSet in = new BitSet();
+        BitSet out = new BitSet();
+    }
+
+
+    // The first node is where the function starts
+    private void buildGraph(Func func){
+        variables = new HashMap<>();
+        keys = new ArrayList<>();
+        nodes = new ArrayList<>();
+
+        for(Param param: func.params){
+            variable(key(param.slot, param.type));
+        }
+
+        Node entry = new Node();
+        nodes.add(entry);
+        entry.successors.add(buildBlock(func.body, null));
+        entry.successors.remove(null);
+    }
+
+
+    // Builds the nodes of the statements back to front, every statement goes on to the entry of the one after it.
+    // Returns the entry of the block, which is 'next' for an empty block
+    private Node buildBlock(List<Stmt> body,Node next){
+        for(int i = body.size() - 1; i >= 0; i--){
+            next = buildStmt(body.get(i), body, next);
+        }
+        return next;
+    }
+
+
+    private Node buildStmt(Stmt stmt,List<Stmt> block,Node next){
+        if(stmt instanceof ExprStmt){
+            Node node = node(((ExprStmt) stmt).expr, next);
+            node.stmt = stmt;
+            node.block = block;
+            return node;
+        }
+        if(stmt instanceof DeclStmt){
+            Node node = declaration((Var) ((DeclStmt) stmt).declaration, next);
+            node.stmt = stmt;
+            node.block = block;
+            return node;
+        }
+        if(stmt instanceof Ret){
+            return node(((Ret) stmt).expr, null);
+        }
+        if(stmt instanceof If){
+            If ifStmt = (If) stmt;
+            Node condition = node(ifStmt.condition, buildBlock(ifStmt.body, next));
+            condition.successors.add(ifStmt.elseBody != null ? buildBlock(ifStmt.elseBody, next) : next);
+            condition.successors.remove(null);
+            return condition;
+        }
+        if(stmt instanceof While){
+            While loop = (While) stmt;
+            Node condition = node(loop.condition, next);
+            condition.successors.add(buildBlock(loop.body, condition));
+            return condition;
+        }
+        if(stmt instanceof For){
+            For loop = (For) stmt;
+
+            // Without a condition the loop only ends with a return
+            Node condition = node(loop.condition, loop.condition != null ? next : null);
+            Node update = node(loop.update, condition);
+            condition.successors.add(buildBlock(loop.body, update));
+
+            if(loop.varDeclaration == null) return condition;
+            return declaration(loop.varDeclaration, condition);
+        }
+
+        internalError("buildStmt: Unknown statement " + stmt.getClass().getSimpleName());
+        return null;
+    }
+
+
+    private Node node(Expr expr,Node next){
+        Node node = new Node();
+        nodes.add(node);
+        if(next != null) node.successors.add(next);
+        if(expr != null) collect(expr, node);
+        return node;
+    }
+
+
+    private Node declaration(Var decl,Node next){
+        Node node = node(decl.expr, next);
+        node.def.set(variable(key(decl.slot, decl.type)));
+        return node;
+    }
+
+
+    private void collect(Expr expr,Node node){
+        if(expr instanceof Variable){
+            Variable variable = (Variable) expr;
+            if(!variable.isGlobal) node.use.set(variable(key(variable.slot, variable.type)));
+        }
+        else if(expr instanceof Assign){
+            Assign assign = (Assign) expr;
+            collect(assign.expr, node);
+            if(!assign.isGlobal) node.def.set(variable(key(assign.slot, assign.expr.type)));
+        }
+        else if(expr instanceof Binary){
+            collect(((Binary) expr).left, node);
+            collect(((Binary) expr).right, node);
+        }
+        else if(expr instanceof Unary){
+            collect(((Unary) expr).expr, node);
+        }
+        else if(expr instanceof Call){
+            for(Expr arg: ((Call) expr).arguments){
+                collect(arg, node);
+            }
+        }
+    }
+
+
+    // A read that comes after an assignment in the same node still counts as a use, which only keeps more variables live
+    private void computeLiveness(){
+        boolean changed = true;
+        while(changed){
+            changed = false;
+
+            // Nodes were made back to front, so in this order a node mostly comes after the nodes that follow it in the function,
+            // and this settles in a few rounds
+            for(int i = 1; i < nodes.size(); i++){
+                Node node = nodes.get(i);
+
+                BitSet out = new BitSet();
+                for(Node successor: node.successors){
+                    out.or(successor.in);
+                }
+
+                BitSet in = (BitSet) out.clone();
+                in.andNot(node.def);
+                in.or(node.use);
+
+                if(!in.equals(node.in) || !out.equals(node.out)){
+                    node.in = in;
+                    node.out = out;
+                    changed = true;
+                }
+            }
+        }
+
+        Node entry = nodes.get(0);
+        for(Node successor: entry.successors){
+            entry.out.or(successor.in);
+        }
+    }
+
+
+    private int variable(int key){
+        Integer index = variables.get(key);
+        if(index == null){
+            index = keys.size();
+            variables.put(key, index);
+            keys.add(key);
+        }
+        return index;
+    }
+
+
+    private static int key(int slot,ASTEnums type){
+        return slot * 2 + (type == ASTEnums.STRING ? 1 : 0);
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: LivenessAnalyzer." + message);
+        System.exit(0);
+    }
+}
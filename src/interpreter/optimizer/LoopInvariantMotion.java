@@ -0,0 +1,294 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+import interpreter.environment.BuiltIns;
+
+
+// Moves expressions that compute the same value on every iteration of a loop out of it. Each one is computed once,
+// into a new temporary declared right before the loop, and the loop reads the temporary instead.
+
+// An expression is invariant when none of the variables it reads is assigned or declared anywhere in the loop, nested loops
+// included. Globals are also off limits when the loop calls a function that can assign a global, directly or through its own calls.
+// Functions that never assign a global, like pure ones, leave the globals the loop reads alone.
+
+// The temporary is computed even when the loop never runs, or when the expression sits in a branch that isn't taken.
+// So only expressions that can neither have effects nor fail are moved: no calls, and no division except by a non-zero literal.
+// Loops are handled outermost first, so an expression moves out of as many loops as it is invariant in.
+
+
+public class LoopInvariantMotion extends AstRewriter implements Pass{
+    private static final String PREFIX = "$inv";
+
+    private PassLog log;
+    private Bindings bindings;
+    private HashSet<Decl> globals;
+    private HashSet<String> globalWriters;
+
+    // Names stay unique over every round of the PassManager
+    private int temporaries;
+
+    // What the statements and expressions walked by scanBlock() assign, declare and call
+    private HashSet<Decl> assigned;
+    private HashSet<Decl> declared;
+    private HashSet<String> called;
+
+    // Set for the loop whose expressions are being moved
+    private HashSet<Decl> variant;
+    private boolean globalsVariant;
+    private ArrayList<Stmt> hoisted;
+
+
+    @Override
+    public String getName(){
+        return "hoist";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        this.log = log;
+        bindings = Bindings.of(program);
+
+        globals = new HashSet<>();
+        for(DeclStmt declStmt: program.varDeclStatements){
+            globals.add(declStmt.declaration);
+        }
+
+        findGlobalWriters(program);
+        program.accept(this);
+    }
+
+
+    private void findGlobalWriters(Program program) throws Exception{
+        HashSet<String> direct = new HashSet<>();
+
+        for(DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+            scanBlock(func.body);
+
+            for(Decl decl: assigned){
+                if(globals.contains(decl)) direct.add(func.identifier);
+            }
+        }
+
+        CallGraph graph = CallGraph.of(program);
+        globalWriters = new HashSet<>(direct);
+
+        for(String name: graph.getFunctionNames()){
+            for(String callee: graph.reachableFrom(name)){
+                if(direct.contains(callee)) globalWriters.add(name);
+            }
+        }
+    }
+
+
+
+    @Override
+    protected List<Stmt> rewriteStmt(Stmt stmt) throws Exception{
+        if( !(stmt instanceof While) && !(stmt instanceof For) ) return super.rewriteStmt(stmt);
+
+        ArrayList<Stmt> result = hoistFrom(stmt);
+
+        // Loops inside this one move what is left into its body
+        stmt.accept(this);
+        result.add(stmt);
+        return result;
+    }
+
+
+    // Returns the declarations of the temporaries, which go right before the loop
+    private ArrayList<Stmt> hoistFrom(Stmt loop) throws Exception{
+        ArrayList<Stmt> block = new ArrayList<>();
+        block.add(loop);
+        scanBlock(block);
+
+        variant = new HashSet<>(assigned);
+        variant.addAll(declared);
+
+        globalsVariant = false;
+        for(String name: called){
+            if(globalWriters.contains(name)) globalsVariant = true;
+        }
+
+        hoisted = new ArrayList<>();
+        hoistBlock(block);
+        return hoisted;
+    }
+
+
+    private void hoistBlock(List<Stmt> body){
+        for(Stmt stmt: body){
+            if(stmt instanceof ExprStmt){
+                ((ExprStmt) stmt).expr = hoistExpr(((ExprStmt) stmt).expr);
+            }
+            else if(stmt instanceof DeclStmt){
+                Var decl = (Var) ((DeclStmt) stmt).declaration;
+                if(decl.expr != null) decl.expr = hoistExpr(decl.expr);
+            }
+            else if(stmt instanceof While){
+                While loop = (While) stmt;
+                loop.condition = hoistExpr(loop.condition);
+                hoistBlock(loop.body);
+            }
+            else if(stmt instanceof For){
+                For loop = (For) stmt;
+                if(loop.varDeclaration != null && loop.varDeclaration.expr != null){
+                    loop.varDeclaration.expr = hoistExpr(loop.varDeclaration.expr);
+                }
+                if(loop.condition != null) loop.condition = hoistExpr(loop.condition);
+                if(loop.update != null) loop.update = hoistExpr(loop.update);
+                hoistBlock(loop.body);
+            }
+            else if(stmt instanceof If){
+                If ifStmt = (If) stmt;
+                ifStmt.condition = hoistExpr(ifStmt.condition);
+                hoistBlock(ifStmt.body);
+                if(ifStmt.elseBody != null) hoistBlock(ifStmt.elseBody);
+            }
+            else if(stmt instanceof Ret){
+                if(((Ret) stmt).expr != null) ((Ret) stmt).expr = hoistExpr(((Ret) stmt).expr);
+            }
+        }
+    }
+
+
+    // Returns what takes the expression's place. The largest invariant expressions are moved, their parts stay with them
+    private Expr hoistExpr(Expr expr){
+        if(canHoist(expr)) return hoist(expr);
+
+        if(expr instanceof Binary){
+            ((Binary) expr).left = hoistExpr(((Binary) expr).left);
+            ((Binary) expr).right = hoistExpr(((Binary) expr).right);
+        }
+        else if(expr instanceof Unary){
+            ((Unary) expr).expr = hoistExpr(((Unary) expr).expr);
+        }
+        else if(expr instanceof Assign){
+            ((Assign) expr).expr = hoistExpr(((Assign) expr).expr);
+        }
+        else if(expr instanceof Call){
+            List<Expr> args = ((Call) expr).arguments;
+            for(int i = 0; i < args.size(); i++){
+                args.set(i, hoistExpr(args.get(i)));
+            }
+        }
+        return expr;
+    }
+
+
+    private Expr hoist(Expr expr){
+        String name = PREFIX + temporaries++;
+
+        Var temporary = new Var(expr.type, name, expr, expr.lineNumber);
+        hoisted.add(new DeclStmt(temporary, expr.lineNumber));
+
+        log.record(expr.lineNumber, "hoisted " + Source.of(expr) + " out of the loop as '" + name + "'");
+
+        Variable read = new Variable(name, expr.lineNumber);
+        read.type = expr.type;
+        return read;
+    }
+
+
+    // Moving a single literal or variable wouldn't save anything
+    private boolean canHoist(Expr expr){
+        if(expr instanceof Literal || expr instanceof Variable) return false;
+        return cannotFail(expr) && isInvariant(expr);
+    }
+
+
+    private boolean cannotFail(Expr expr){
+        if(Exprs.hasEffects(expr)) return false;
+
+        if(expr instanceof Binary && ((Binary) expr).operator == ASTEnums.DIVIDE){
+            Expr divisor = ((Binary) expr).right;
+            if( !(divisor instanceof Literal) || Integer.parseInt(((Literal) divisor).value) == 0 ) return false;
+        }
+
+        for(Expr child: Exprs.children(expr)){
+            if(!cannotFail(child)) return false;
+        }
+        return true;
+    }
+
+
+    // Temporaries added during this run aren't bound yet, so expressions that read them wait for the next round
+    private boolean isInvariant(Expr expr){
+        if(expr instanceof Variable){
+            Decl decl = bindings.declarationOf(expr);
+            if(decl == null || variant.contains(decl)) return false;
+            return !(globalsVariant && globals.contains(decl));
+        }
+
+        for(Expr child: Exprs.children(expr)){
+            if(!isInvariant(child)) return false;
+        }
+        return true;
+    }
+
+
+
+
+    // SCANNING
+
+    private void scanBlock(List<Stmt> body){
+        assigned = new HashSet<>();
+        declared = new HashSet<>();
+        called = new HashSet<>();
+        scanStmts(body);
+    }
+
+
+    private void scanStmts(List<Stmt> body){
+        for(Stmt stmt: body){
+            if(stmt instanceof ExprStmt){
+                scanExpr(((ExprStmt) stmt).expr);
+            }
+            else if(stmt instanceof DeclStmt){
+                scanVar((Var) ((DeclStmt) stmt).declaration);
+            }
+            else if(stmt instanceof While){
+                scanExpr(((While) stmt).condition);
+                scanStmts(((While) stmt).body);
+            }
+            else if(stmt instanceof For){
+                For loop = (For) stmt;
+                if(loop.varDeclaration != null) scanVar(loop.varDeclaration);
+                if(loop.condition != null) scanExpr(loop.condition);
+                if(loop.update != null) scanExpr(loop.update);
+                scanStmts(loop.body);
+            }
+            else if(stmt instanceof If){
+                scanExpr(((If) stmt).condition);
+                scanStmts(((If) stmt).body);
+                if(((If) stmt).elseBody != null) scanStmts(((If) stmt).elseBody);
+            }
+            else if(stmt instanceof Ret){
+                if(((Ret) stmt).expr != null) scanExpr(((Ret) stmt).expr);
+            }
+        }
+    }
+
+
+    private void scanVar(Var decl){
+        declared.add(decl);
+        if(decl.expr != null) scanExpr(decl.expr);
+    }
+
+
+    private void scanExpr(Expr expr){
+        if(expr instanceof Assign) assigned.add(bindings.declarationOf(expr));
+        if(expr instanceof Call && !BuiltIns.isFuncBuiltIn(((Call) expr).funcIdentifier)) called.add(((Call) expr).funcIdentifier);
+
+        for(Expr child: Exprs.children(expr)){
+            scanExpr(child);
+        }
+    }
+}
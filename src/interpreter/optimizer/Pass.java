@@ -0,0 +1,16 @@
+package interpreter.optimizer;
+
+import ast.Program;
+
+
+// A single optimization that rewrites a checked program in place
+// Most passes run before the Resolver, so they work with variable names and can freely add, remove or move nodes.
+// The PassManager runs the others after the Resolver, and they work with the slots it gave the variables
+
+public interface Pass {
+    // Name used to toggle the pass from the CLI and to label its changes in the report
+    public String getName();
+
+    // Records every change it makes in the log
+    public void run(Program program,PassLog log) throws Exception;
+}
@@ -0,0 +1,25 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+// Changes made by one pass, in the order they were made
+
+public class PassLog {
+    private ArrayList<String> entries = new ArrayList<>();
+
+
+    public void record(int lineNumber,String message){
+        entries.add("Line " + lineNumber + ": " + message);
+    }
+
+
+    public int count(){
+        return entries.size();
+    }
+
+    public List<String> getEntries(){
+        return entries;
+    }
+}
@@ -0,0 +1,161 @@
+package interpreter.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import ast.Program;
+
+
+// Runs the enabled optimization passes over a checked program, between the SemanticChecker and the Resolver.
+// Tree shaking also runs once before the SemanticChecker, so the checker only sees the code 'main' can reach.
+
+// One pass often opens up work for another: propagating a constant makes an expression foldable, folding a condition
+// makes a branch removable, and so on. That's why the whole pipeline is repeated until a round changes nothing,
+// up to MAX_ROUNDS times. Every change is recorded, so the CLI can show what each pass did to the program.
+
+// Passes in 'resolvedPasses' work with the slots the Resolver gives variables instead of their names. They run once, after the Resolver.
+
+
+public class PassManager {
+    private static final int MAX_ROUNDS = 10;
+
+    private ArrayList<Pass> passes;
+    private ArrayList<Pass> resolvedPasses;
+    private HashSet<String> disabled;
+    private LinkedHashMap<String,PassLog> logs;
+    private FunctionInlining inlining;
+    private TreeShaking shaking;
+    private FunctionSpecialization specialization;
+
+
+    public PassManager(){
+        passes = new ArrayList<>();
+        resolvedPasses = new ArrayList<>();
+        disabled = new HashSet<>();
+        logs = new LinkedHashMap<>();
+
+        inlining = new FunctionInlining();
+        shaking = new TreeShaking();
+        specialization = new FunctionSpecialization();
+
+        passes.add(shaking);
+        passes.add(inlining);
+        passes.add(specialization);
+        passes.add(new ConstantPropagation());
+        passes.add(new ConstantFolding());
+        passes.add(new BranchElimination());
+        passes.add(new DeadCodeElimination());
+        passes.add(new LoopInvariantMotion());
+
+        resolvedPasses.add(new LivenessAnalyzer());
+    }
+
+
+    // Runs before the SemanticChecker, so code that can never run isn't checked. Starts the logs optimize() adds to
+    public void shake(Program program) throws Exception{
+        logs.clear();
+        for(Pass pass: allPasses()){
+            logs.put(pass.getName(), new PassLog());
+        }
+
+        if(isEnabled(shaking.getName())) shaking.run(program, logs.get(shaking.getName()));
+    }
+
+
+    public void optimize(Program program) throws Exception{
+        for(int round = 0; round < MAX_ROUNDS; round++){
+            boolean changed = false;
+
+            for(Pass pass: passes){
+                if(disabled.contains(pass.getName())) continue;
+
+                PassLog log = logs.get(pass.getName());
+                int before = log.count();
+                pass.run(program, log);
+                if(log.count() != before) changed = true;
+            }
+
+            if(!changed) break;
+        }
+    }
+
+
+    // Runs after the Resolver, on the program optimize() left
+    public void optimizeResolved(Program program) throws Exception{
+        for(Pass pass: resolvedPasses){
+            if(disabled.contains(pass.getName())) continue;
+            pass.run(program, logs.get(pass.getName()));
+        }
+    }
+
+
+
+    public boolean isPass(String name){
+        for(Pass pass: allPasses()){
+            if(pass.getName().equals(name)) return true;
+        }
+        return false;
+    }
+
+    public void setEnabled(String name,boolean enabled){
+        if(enabled) disabled.remove(name);
+        else disabled.add(name);
+    }
+
+    public boolean isEnabled(String name){
+        return !disabled.contains(name);
+    }
+
+
+    // Thresholds of the inlining and specialization passes can be tuned from the CLI
+    public FunctionInlining getInlining(){
+        return inlining;
+    }
+
+    public FunctionSpecialization getSpecialization(){
+        return specialization;
+    }
+
+
+    public List<String> getPassNames(){
+        ArrayList<String> names = new ArrayList<>();
+        for(Pass pass: allPasses()){
+            names.add(pass.getName());
+        }
+        return names;
+    }
+
+
+    private List<Pass> allPasses(){
+        ArrayList<Pass> all = new ArrayList<>(passes);
+        all.addAll(resolvedPasses);
+        return all;
+    }
+
+
+    // Changes made by every pass while the last program was prepared
+    public String report(){
+        StringBuilder sb = new StringBuilder();
+
+        for(Pass pass: allPasses()){
+            String name = pass.getName();
+            PassLog log = logs.get(name);
+
+            if(!isEnabled(name)){
+                sb.append(name).append(": disabled\n");
+                continue;
+            }
+
+            sb.append(name).append(": ").append(log == null ? 0 : log.count()).append(" change(s)\n");
+            if(log == null) continue;
+
+            for(String entry: log.getEntries()){
+                sb.append("    ").append(entry).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package interpreter.optimizer;
+
+import ast.ASTEnums;
+import ast.Expr;
+
+
+// Turns expressions back into source code, so that the optimization report can show what was changed
+
+public class Source {
+
+    public static String of(Expr expr){
+        if(expr instanceof Expr.Literal){
+            Expr.Literal literal = (Expr.Literal) expr;
+            if(literal.type == ASTEnums.STRING) return "\"" + literal.value + "\"";
+            return literal.value;
+        }
+
+        if(expr instanceof Expr.Variable){
+            return ((Expr.Variable) expr).identifier;
+        }
+
+        if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            return wrap(binary.left) + " " + symbol(binary.operator) + " " + wrap(binary.right);
+        }
+
+        if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary) expr;
+            return symbol(unary.operator) + wrap(unary.expr);
+        }
+
+        if(expr instanceof Expr.Assign){
+            Expr.Assign assign = (Expr.Assign) expr;
+            return assign.identifier + " = " + of(assign.expr);
+        }
+
+        if(expr instanceof Expr.Call){
+            Expr.Call call = (Expr.Call) expr;
+            StringBuilder sb = new StringBuilder(call.funcIdentifier).append('(');
+            for(int i = 0; i < call.arguments.size(); i++){
+                if(i > 0) sb.append(", ");
+                sb.append(of(call.arguments.get(i)));
+            }
+            return sb.append(')').toString();
+        }
+
+        return "?";
+    }
+
+
+    // Nested operations and negative numbers are parenthesized so that the printed expression can't be misread
+    private static String wrap(Expr expr){
+        if(expr instanceof Expr.Binary || expr instanceof Expr.Assign) return "(" + of(expr) + ")";
+        if(expr instanceof Expr.Literal && ((Expr.Literal) expr).value.startsWith("-")) return "(" + of(expr) + ")";
+        return of(expr);
+    }
+
+
+    private static String symbol(ASTEnums operator){
+        switch(operator){
+            case PLUS:       return "+";
+            case MINUS:      return "-";
+            case MULTIPLY:   return "*";
+            case DIVIDE:     return "/";
+            case EQUAL:      return "==";
+            case NOT_EQUAL:  return "!=";
+            case LESS:       return "<";
+            case LESS_EQ:    return "<=";
+            case GREATER:    return ">";
+            case GREATER_EQ: return ">=";
+            case NOT:        return "!";
+            default:         return operator.toString();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package interpreter.optimizer;
+
+import java.util.HashSet;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Removes the functions 'main' can never call and the global variables nothing reads or assigns, so a script that bundles
+// a large library only carries the part it uses through checking, resolving and execution.
+
+// The PassManager runs it once before the SemanticChecker, which then doesn't spend time on code that never runs,
+// and again in every round, where inlining may have left more functions unused.
+
+// A global whose initializer could have effects or fail is always kept, the program would behave differently without it.
+// Functions called from a kept initializer count as reachable, in case the SemanticChecker ever allows such calls.
+// Variables are matched by name only, so a local variable with the name of a global keeps that global alive.
+
+
+public class TreeShaking extends AstRewriter implements Pass{
+    // Names read, assigned or called by the code walked so far
+    private HashSet<String> variables;
+    private HashSet<String> calls;
+
+
+    @Override
+    public String getName(){
+        return "shake";
+    }
+
+
+    @Override
+    public void run(Program program,PassLog log) throws Exception{
+        CallGraph graph = CallGraph.of(program);
+
+        // Without a 'main' the SemanticChecker reports the program, nothing is removed
+        if(graph.getFunction("main") == null) return;
+
+        HashSet<String> reached = new HashSet<>();
+        HashSet<Decl> kept = new HashSet<>();
+        variables = new HashSet<>();
+        calls = new HashSet<>();
+        calls.add("main");
+
+        for(DeclStmt declStmt: program.varDeclStatements){
+            Var decl = (Var) declStmt.declaration;
+            if(decl.expr != null && !Exprs.isSafe(decl.expr)) keep(decl, kept);
+        }
+
+        // Walking a function or an initializer can reach more of both, so this goes on until nothing new is found
+        boolean changed = true;
+        while(changed){
+            changed = false;
+
+            for(String name: new HashSet<>(calls)){
+                if(graph.getFunction(name) == null || reached.contains(name)) continue;
+
+                reached.add(name);
+                reached.addAll(graph.reachableFrom(name));
+                changed = true;
+            }
+
+            for(DeclStmt declStmt: program.funcDeclStatements){
+                Func func = (Func) declStmt.declaration;
+                if(reached.contains(func.identifier)) func.accept(this);
+            }
+
+            for(DeclStmt declStmt: program.varDeclStatements){
+                Var decl = (Var) declStmt.declaration;
+                if(!kept.contains(decl) && variables.contains(decl.identifier)){
+                    keep(decl, kept);
+                    changed = true;
+                }
+            }
+        }
+
+        for(DeclStmt declStmt: program.funcDeclStatements){
+            Func func = (Func) declStmt.declaration;
+            if(!reached.contains(func.identifier)){
+                log.record(declStmt.lineNumber, "removed function '" + func.identifier + "', it is never called from 'main'");
+            }
+        }
+        for(DeclStmt declStmt: program.varDeclStatements){
+            if(!kept.contains(declStmt.declaration)){
+                log.record(declStmt.lineNumber, "removed global '" + ((Var) declStmt.declaration).identifier + "', it is never used");
+            }
+        }
+
+        program.funcDeclStatements.removeIf(declStmt -> !reached.contains(((Func) declStmt.declaration).identifier));
+        program.varDeclStatements.removeIf(declStmt -> !kept.contains(declStmt.declaration));
+    }
+
+
+    private void keep(Var decl,HashSet<Decl> kept) throws Exception{
+        kept.add(decl);
+        if(decl.expr != null) decl.expr.accept(this);
+    }
+
+
+
+    @Override
+    public Expr visitVariableExpr(Variable expr){
+        variables.add(expr.identifier);
+        return expr;
+    }
+
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) throws Exception {
+        variables.add(expr.identifier);
+        return super.visitAssignExpr(expr);
+    }
+
+
+    @Override
+    public Expr visitCallExpr(Call expr) throws Exception {
+        calls.add(expr.funcIdentifier);
+        return super.visitCallExpr(expr);
+    }
+}
@@ -0,0 +1,459 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Compiles a checked and resolved program into bytecode for the VirtualMachine
+// The SemanticChecker has set the 'type' field of every Expr node, so we can pick a typed instruction for every operation.
+// The Resolver has bound every variable to a slot, so we can address variables by index.
+
+// Expressions leave exactly one value on the operand stack, unless they are calls to void functions, which leave nothing.
+
+
+public class BytecodeCompiler implements ASTVisitor<Void>{
+    private ArrayList<Object> constants;
+    private HashMap<Object,Integer> constantIndexes;
+    private HashMap<String,Integer> functionIndexes;
+
+    // State of the function that's currently being compiled
+    private int[] code;
+    private int[] lines;
+    private int codeSize;
+    private int stackDepth;
+    private int maxStackDepth;
+    private int currentLine;
+
+
+    public CompiledProgram compile(Program program) throws Exception{
+        constants = new ArrayList<>();
+        constantIndexes = new HashMap<>();
+        functionIndexes = new HashMap<>();
+
+        // Functions can call functions declared after them, so we number them all first
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+            functionIndexes.put(func.identifier, functionIndexes.size());
+        }
+
+        // Global initializers run in a frame of their own before main() is called
+        CompiledFunction globalInit = new CompiledFunction("<globals>", ASTEnums.VOID, 0, 0);
+        beginFunction();
+        for(Stmt stmt: program.varDeclStatements){
+            stmt.accept(this);
+        }
+        emit(OpCode.RET, 0);
+        endFunction(globalInit);
+
+        CompiledFunction[] functions = new CompiledFunction[functionIndexes.size()];
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+
+            CompiledFunction compiled = new CompiledFunction(func.identifier, func.type, func.params.size(), func.frameSize);
+            beginFunction();
+            func.accept(this);
+            endFunction(compiled);
+
+            functions[functionIndexes.get(func.identifier)] = compiled;
+        }
+
+        return new CompiledProgram(constants.toArray(), functions, globalInit, functionIndexes.get("main"), program.globalCount);
+    }
+
+
+    @Override
+    public Void visitProgram(Program prog) throws Exception {
+        internalError("visitProgram: Programs are compiled through compile()");
+        return null;
+    }
+
+
+    @Override
+    public Void visitExprStmt(ExprStmt stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+        compileDiscarded(stmt.expr);
+        return null;
+    }
+
+
+    @Override
+    public Void visitDeclStmt(DeclStmt stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    //  start:  condition
+    //          JZ end
+    //          body
+    //          JMP start
+    //  end:
+    @Override
+    public Void visitWhileStmt(While stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        int start = codeSize;
+        stmt.condition.accept(this);
+        int exitJump = emitJump(OpCode.JZ);
+
+        compileBody(stmt.body);
+
+        emit(OpCode.JMP, start, 0);
+        patchJump(exitJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitForStmt(For stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+
+        int start = codeSize;
+        int exitJump = -1;
+        if(stmt.condition != null){
+            stmt.condition.accept(this);
+            exitJump = emitJump(OpCode.JZ);
+        }
+
+        compileBody(stmt.body);
+
+        if(stmt.update != null) compileDiscarded(stmt.update);
+
+        emit(OpCode.JMP, start, 0);
+        if(exitJump != -1) patchJump(exitJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitIfStmt(If stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        stmt.condition.accept(this);
+        int elseJump = emitJump(OpCode.JZ);
+
+        compileBody(stmt.body);
+
+        if(stmt.elseBody == null){
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(OpCode.JMP);
+        patchJump(elseJump);
+        compileBody(stmt.elseBody);
+        patchJump(endJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitRetStmt(Ret stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        if(stmt.expr == null){
+            emit(OpCode.RET, 0);
+            return null;
+        }
+
+        // The callee returns straight to our caller, so there's nothing to emit after the jump
+        if(stmt.expr instanceof Call && ((Call) stmt.expr).isTailCall){
+            Call call = (Call) stmt.expr;
+            for(Expr arg: call.arguments){
+                arg.accept(this);
+            }
+            emit(OpCode.TAILCALL, functionIndexes.get(call.funcIdentifier), -call.arguments.size());
+            return null;
+        }
+
+        stmt.expr.accept(this);
+        if(stmt.expr.type == ASTEnums.STRING) emit(OpCode.SRET, -1);
+        else emit(OpCode.IRET, -1);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitVarDecl(Var decl) throws Exception {
+        // Declarations without initializers don't generate any code. The SemanticChecker makes sure locals aren't read before
+        // being assigned, and a global starts out unassigned for the reads that are checked
+        if(decl.expr == null) return null;
+
+        decl.expr.accept(this);
+        emitStore(decl.type, decl.isGlobal, decl.slot);
+        if(decl.isTracked && decl.isGlobal) emit(OpCode.GMARK, decl.slot, 0);
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitFuncDecl(Func decl) throws Exception {
+        currentLine = decl.lineNumber;
+
+        compileBody(decl.body);
+
+        // Non-void functions always end with a return statement, void functions may just run off the end
+        if(decl.type == ASTEnums.VOID) emit(OpCode.RET, 0);
+
+        return null;
+    }
+
+
+    // Arguments are already on the stack when the function is called, they become the callee's first slots
+    @Override
+    public Void visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) throws Exception {
+        expr.left.accept(this);
+        expr.right.accept(this);
+
+        if(expr.left.type == ASTEnums.STRING){
+            switch(expr.operator){
+                case PLUS:      emit(OpCode.SCONCAT, -1); break;
+                case EQUAL:     emit(OpCode.SEQ, -1); break;
+                case NOT_EQUAL: emit(OpCode.SNE, -1); break;
+                default:
+                    internalError("visitBinaryExpr: Unsupported string operator " + expr.operator);
+            }
+            return null;
+        }
+
+        switch(expr.operator){
+            case PLUS:       emit(OpCode.IADD, -1); break;
+            case MINUS:      emit(OpCode.ISUB, -1); break;
+            case MULTIPLY:   emit(OpCode.IMUL, -1); break;
+            case DIVIDE:     emit(OpCode.IDIV, -1); break;
+            case EQUAL:      emit(OpCode.IEQ, -1); break;
+            case NOT_EQUAL:  emit(OpCode.INE, -1); break;
+            case LESS:       emit(OpCode.ILT, -1); break;
+            case LESS_EQ:    emit(OpCode.ILE, -1); break;
+            case GREATER:    emit(OpCode.IGT, -1); break;
+            case GREATER_EQ: emit(OpCode.IGE, -1); break;
+            default:
+                internalError("visitBinaryExpr: Unrecognized operator " + expr.operator);
+        }
+
+        return null;
+    }
+
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) throws Exception {
+        expr.expr.accept(this);
+
+        switch(expr.operator){
+            case MINUS: emit(OpCode.INEG, 0); break;
+            case NOT:   emit(OpCode.INOT, 0); break;
+            default:
+                internalError("visitUnaryExpr: Unrecognized operator " + expr.operator);
+        }
+
+        return null;
+    }
+
+
+    // An assignment is an expression, so it leaves the assigned value on the stack
+    @Override
+    public Void visitAssignExpr(Assign expr) throws Exception {
+        expr.expr.accept(this);
+        emit(OpCode.DUP, 1);
+        emitStore(expr.expr.type, expr.isGlobal, expr.slot);
+        if(expr.isTracked && expr.isGlobal) emit(OpCode.GMARK, expr.slot, 0);
+        return null;
+    }
+
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        switch(expr.type){
+            case INT:
+                emit(OpCode.ICONST, Integer.parseInt(expr.value), 1);
+                break;
+            case STRING:
+                emit(OpCode.SCONST, constantIndex(expr.value), 1);
+                break;
+            default:
+                internalError("visitLiteralExpr: Invalid literal type " + expr.type);
+        }
+        return null;
+    }
+
+
+    @Override
+    public Void visitCallExpr(Call expr) throws Exception {
+        for(Expr arg: expr.arguments){
+            arg.accept(this);
+        }
+
+        int argCnt = expr.arguments.size();
+        int result = (expr.type == ASTEnums.VOID ? 0 : 1);
+
+        if(expr.builtIn != null){
+            // The VM doesn't know which half of the stack holds each argument, so we tell it
+            int stringMask = 0;
+            for(int i = 0; i < argCnt; i++){
+                if(expr.arguments.get(i).type == ASTEnums.STRING) stringMask |= (1 << i);
+            }
+
+            write(OpCode.BUILTIN);
+            write(constantIndex(expr.builtIn));
+            write(argCnt);
+            write(stringMask);
+            adjustStack(result - argCnt);
+        }
+        else{
+            emit(OpCode.CALL, functionIndexes.get(expr.funcIdentifier), result - argCnt);
+        }
+
+        return null;
+    }
+
+
+    // Globals the SafetyAnalyzer couldn't prove assigned get a checked load, which needs the name for the error report.
+    // Every read of a local is proven, the SemanticChecker only accepts locals assigned earlier in their function
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        boolean isString = (expr.type == ASTEnums.STRING);
+
+        // The error is reported at the line of the read, which an inlined body brings along into its caller
+        if(expr.isGlobal && !expr.isAssigned){
+            int statementLine = currentLine;
+            currentLine = expr.lineNumber;
+            write(isString ? OpCode.SGLOADC : OpCode.IGLOADC);
+            write(expr.slot);
+            write(constantIndex(expr.identifier));
+            adjustStack(1);
+            currentLine = statementLine;
+        }
+        else if(expr.isGlobal) emit(isString ? OpCode.SGLOAD : OpCode.IGLOAD, expr.slot, 1);
+        else emit(isString ? OpCode.SLOAD : OpCode.ILOAD, expr.slot, 1);
+
+        return null;
+    }
+
+
+
+
+    private void compileBody(ArrayList<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+
+
+    // Compiles an expression whose value isn't used
+    private void compileDiscarded(Expr expr) throws Exception{
+        // No need to duplicate the value of an assignment just to pop it afterwards
+        if(expr instanceof Assign){
+            Assign assign = (Assign) expr;
+            assign.expr.accept(this);
+            emitStore(assign.expr.type, assign.isGlobal, assign.slot);
+            if(assign.isTracked && assign.isGlobal) emit(OpCode.GMARK, assign.slot, 0);
+            return;
+        }
+
+        expr.accept(this);
+        if(expr.type != ASTEnums.VOID) emit(OpCode.POP, -1);
+    }
+
+
+    private void emitStore(ASTEnums type,boolean isGlobal,int slot){
+        boolean isString = (type == ASTEnums.STRING);
+
+        if(isGlobal) emit(isString ? OpCode.SGSTORE : OpCode.IGSTORE, slot, -1);
+        else emit(isString ? OpCode.SSTORE : OpCode.ISTORE, slot, -1);
+    }
+
+
+    private int constantIndex(Object value){
+        Integer index = constantIndexes.get(value);
+        if(index == null){
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+
+
+
+    // Emitting code. 'stackEffect' is how much the instruction changes the depth of the operand stack
+
+    private void beginFunction(){
+        code = new int[64];
+        lines = new int[64];
+        codeSize = 0;
+        stackDepth = 0;
+        maxStackDepth = 0;
+    }
+
+    private void endFunction(CompiledFunction function){
+        function.code = Arrays.copyOf(code, codeSize);
+        function.lines = Arrays.copyOf(lines, codeSize);
+        function.maxStack = maxStackDepth;
+    }
+
+
+    private void emit(int op,int stackEffect){
+        write(op);
+        adjustStack(stackEffect);
+    }
+
+    private void emit(int op,int operand,int stackEffect){
+        write(op);
+        write(operand);
+        adjustStack(stackEffect);
+    }
+
+
+    // Emits a jump with a placeholder target and returns the position of the target so it can be patched later
+    private int emitJump(int op){
+        emit(op, -1, (op == OpCode.JZ ? -1 : 0));
+        return codeSize - 1;
+    }
+
+    private void patchJump(int position){
+        code[position] = codeSize;
+    }
+
+
+    private void write(int word){
+        if(codeSize == code.length){
+            code = Arrays.copyOf(code, codeSize * 2);
+            lines = Arrays.copyOf(lines, codeSize * 2);
+        }
+        lines[codeSize] = currentLine;
+        code[codeSize++] = word;
+    }
+
+
+    private void adjustStack(int stackEffect){
+        stackDepth += stackEffect;
+        if(stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: BytecodeCompiler." + message);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,47 @@
+package interpreter.vm;
+
+import ast.ASTEnums;
+
+
+// Bytecode of a single function together with everything the VM needs to call it
+// Used by both the stack machine and the register machine, which differ only in their instruction sets
+
+public class CompiledFunction {
+    public String name;
+    public ASTEnums returnType;
+    public int paramCount;
+    public int frameSize;           // Parameters and locals, as laid out by the Resolver
+    public int maxStack;            // Deepest the operand stack gets above the frame, or the number of temporary registers
+    public int[] code;
+    public int[] lines;             // Source line of every code word, used for runtime error reports
+
+
+    public CompiledFunction(String name,ASTEnums returnType,int paramCount,int frameSize){
+        this.name = name;
+        this.returnType = returnType;
+        this.paramCount = paramCount;
+        this.frameSize = frameSize;
+    }
+
+
+    public String disassemble(String[] names,int[] operands){
+        StringBuilder sb = new StringBuilder();
+        sb.append("fn ").append(name).append(" (params: ").append(paramCount)
+          .append(", frame: ").append(frameSize).append(", stack: ").append(maxStack).append(")\n");
+
+        int pc = 0;
+        while(pc < code.length){
+            int op = code[pc];
+            sb.append(String.format("%5d  %-8s", pc, names[op]));
+
+            for(int i = 1; i <= operands[op]; i++){
+                sb.append(' ').append(code[pc + i]);
+            }
+
+            sb.append('\n');
+            pc += 1 + operands[op];
+        }
+
+        return sb.toString();
+    }
+}
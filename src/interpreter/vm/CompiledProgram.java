@@ -0,0 +1,55 @@
+package interpreter.vm;
+
+
+// Output of the BytecodeCompiler and the RegisterCompiler. Global initializers are compiled into their own function that runs before main()
+
+public class CompiledProgram {
+    public Object[] constants;
+    public CompiledFunction[] functions;
+    public CompiledFunction globalInit;
+    public int mainIndex;
+    public int globalCount;
+
+    // Instruction set the code was compiled for, used for disassembling
+    public String[] opNames = OpCode.NAMES;
+    public int[] opOperands = OpCode.OPERANDS;
+
+
+    public CompiledProgram(Object[] constants,CompiledFunction[] functions,CompiledFunction globalInit,int mainIndex,int globalCount){
+        this.constants = constants;
+        this.functions = functions;
+        this.globalInit = globalInit;
+        this.mainIndex = mainIndex;
+        this.globalCount = globalCount;
+    }
+
+
+    // The most stack space a single activation of any function can take
+    public int maxFrameFootprint(){
+        int max = globalInit.frameSize + globalInit.maxStack;
+
+        for(CompiledFunction function: functions){
+            max = Math.max(max, function.frameSize + function.maxStack);
+        }
+
+        return max;
+    }
+
+
+    public String disassemble(){
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("constants:\n");
+        for(int i = 0; i < constants.length; i++){
+            sb.append(String.format("%5d  \"%s\"%n", i, constants[i]));
+        }
+        sb.append('\n');
+
+        sb.append(globalInit.disassemble(opNames, opOperands)).append('\n');
+        for(CompiledFunction function: functions){
+            sb.append(function.disassemble(opNames, opOperands)).append('\n');
+        }
+
+        return sb.toString();
+    }
+}
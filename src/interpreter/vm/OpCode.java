@@ -0,0 +1,80 @@
+package interpreter.vm;
+
+
+// Instruction set of the stack based virtual machine
+// Every instruction is one int in the code array, followed by its operands (if it has any).
+// Instructions are typed. The compiler knows the static type of every value, so the VM never has to check what it's working with.
+// Values of type INT and STRING share the same stack positions, but INT values live in the int stack and STRING values in the reference stack
+
+public final class OpCode {
+
+    // Constants and variables
+    public static final int ICONST  = 0;     // ICONST value         pushes an int literal stored inline
+    public static final int SCONST  = 1;     // SCONST index         pushes a string from the constant pool
+    public static final int ILOAD   = 2;     // ILOAD slot           pushes an int local
+    public static final int SLOAD   = 3;     // SLOAD slot           pushes a string local
+    public static final int ISTORE  = 4;     // ISTORE slot          pops into an int local
+    public static final int SSTORE  = 5;     // SSTORE slot          pops into a string local
+    public static final int IGLOAD  = 6;     // IGLOAD slot          pushes an int global
+    public static final int SGLOAD  = 7;     // SGLOAD slot          pushes a string global
+    public static final int IGSTORE = 8;     // IGSTORE slot         pops into an int global
+    public static final int SGSTORE = 9;     // SGSTORE slot         pops into a string global
+    public static final int DUP     = 10;
+    public static final int POP     = 11;
+
+    // Arithmetic
+    public static final int IADD    = 12;
+    public static final int ISUB    = 13;
+    public static final int IMUL    = 14;
+    public static final int IDIV    = 15;
+    public static final int INEG    = 16;
+    public static final int INOT    = 17;
+    public static final int SCONCAT = 18;
+
+    // Comparisons push 1 or 0
+    public static final int IEQ     = 19;
+    public static final int INE     = 20;
+    public static final int ILT     = 21;
+    public static final int ILE     = 22;
+    public static final int IGT     = 23;
+    public static final int IGE     = 24;
+    public static final int SEQ     = 25;
+    public static final int SNE     = 26;
+
+    // Control flow
+    public static final int JMP     = 27;    // JMP target
+    public static final int JZ      = 28;    // JZ target            pops an int and jumps if it's 0
+    public static final int CALL    = 29;    // CALL function        arguments are on the stack and become the callee's first slots
+    public static final int BUILTIN = 30;    // BUILTIN handler argCnt stringMask   handler is an index into the constant pool, bit i of the mask is set if argument i is a STRING
+    public static final int IRET    = 31;
+    public static final int SRET    = 32;
+    public static final int RET     = 33;    // return from a void function
+    public static final int TAILCALL = 34;   // TAILCALL function    arguments on the stack replace the current frame, which the callee takes over
+
+    // Globals the SafetyAnalyzer couldn't prove assigned before a read. A STRING global is null until it's assigned,
+    // and tracked writes to an INT global leave a mark in the reference half of its slot
+    public static final int IGLOADC = 35;    // IGLOADC slot name    pushes an int global, or reports it unassigned. 'name' is its name in the constant pool
+    public static final int SGLOADC = 36;    // SGLOADC slot name    pushes a string global, or reports it unassigned
+    public static final int GMARK   = 37;    // GMARK slot           marks an int global as assigned
+
+
+    // Mnemonics and operand counts, used for disassembling
+    public static final String[] NAMES = {
+        "ICONST", "SCONST", "ILOAD", "SLOAD", "ISTORE", "SSTORE", "IGLOAD", "SGLOAD", "IGSTORE", "SGSTORE", "DUP", "POP",
+        "IADD", "ISUB", "IMUL", "IDIV", "INEG", "INOT", "SCONCAT",
+        "IEQ", "INE", "ILT", "ILE", "IGT", "IGE", "SEQ", "SNE",
+        "JMP", "JZ", "CALL", "BUILTIN", "IRET", "SRET", "RET", "TAILCALL",
+        "IGLOADC", "SGLOADC", "GMARK"
+    };
+
+    public static final int[] OPERANDS = {
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0,
+        0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 3, 0, 0, 0, 1,
+        2, 2, 1
+    };
+
+
+    private OpCode(){}
+}
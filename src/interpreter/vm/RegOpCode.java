@@ -0,0 +1,82 @@
+package interpreter.vm;
+
+
+// Instruction set of the register based virtual machine
+// Instructions address registers of the current function's register window directly, so most expressions need no copying at all.
+// The first registers of a window are the function's parameters and locals, as laid out by the Resolver. Temporaries come after them.
+// Like in the stack machine, every register has an int half and a reference half, and typed instructions pick the right one.
+
+public final class RegOpCode {
+
+    // Constants, copies and globals
+    public static final int ICONST  = 0;     // ICONST dst value
+    public static final int SCONST  = 1;     // SCONST dst index         index into the constant pool
+    public static final int IMOV    = 2;     // IMOV dst src
+    public static final int SMOV    = 3;     // SMOV dst src
+    public static final int IGLOAD  = 4;     // IGLOAD dst global
+    public static final int SGLOAD  = 5;     // SGLOAD dst global
+    public static final int IGSTORE = 6;     // IGSTORE global src
+    public static final int SGSTORE = 7;     // SGSTORE global src
+
+    // Arithmetic, all of the form OP dst a b or OP dst a
+    public static final int IADD    = 8;
+    public static final int ISUB    = 9;
+    public static final int IMUL    = 10;
+    public static final int IDIV    = 11;
+    public static final int IADDI   = 12;    // IADDI dst a value        adds an inline constant
+    public static final int INEG    = 13;
+    public static final int INOT    = 14;
+    public static final int SCONCAT = 15;
+
+    // Comparisons store 1 or 0 into dst
+    public static final int IEQ     = 16;
+    public static final int INE     = 17;
+    public static final int ILT     = 18;
+    public static final int ILE     = 19;
+    public static final int IGT     = 20;
+    public static final int IGE     = 21;
+    public static final int SEQ     = 22;
+    public static final int SNE     = 23;
+
+    // Control flow
+    public static final int JMP     = 24;    // JMP target
+    public static final int JZ      = 25;    // JZ src target
+    public static final int JEQ     = 26;    // JEQ a b target           jumps if the comparison holds
+    public static final int JNE     = 27;
+    public static final int JLT     = 28;
+    public static final int JLE     = 29;
+    public static final int JGT     = 30;
+    public static final int JGE     = 31;
+    public static final int CALL    = 32;    // CALL dst function base   arguments are in registers base.. and become the callee's first registers
+    public static final int BUILTIN = 33;    // BUILTIN dst handler base argCnt stringMask
+    public static final int IRET    = 34;    // IRET src
+    public static final int SRET    = 35;    // SRET src
+    public static final int RET     = 36;
+    public static final int TAILCALL = 37;   // TAILCALL function base   arguments in registers base.. replace the current window, which the callee takes over
+
+    // Globals the SafetyAnalyzer couldn't prove assigned before a read, checked like in the stack machine
+    public static final int IGLOADC = 38;    // IGLOADC dst global name  'name' is the global's name in the constant pool, for the error report
+    public static final int SGLOADC = 39;    // SGLOADC dst global name
+    public static final int GMARK   = 40;    // GMARK global             marks an int global as assigned
+
+
+    // Mnemonics and operand counts, used for disassembling
+    public static final String[] NAMES = {
+        "ICONST", "SCONST", "IMOV", "SMOV", "IGLOAD", "SGLOAD", "IGSTORE", "SGSTORE",
+        "IADD", "ISUB", "IMUL", "IDIV", "IADDI", "INEG", "INOT", "SCONCAT",
+        "IEQ", "INE", "ILT", "ILE", "IGT", "IGE", "SEQ", "SNE",
+        "JMP", "JZ", "JEQ", "JNE", "JLT", "JLE", "JGT", "JGE", "CALL", "BUILTIN", "IRET", "SRET", "RET", "TAILCALL",
+        "IGLOADC", "SGLOADC", "GMARK"
+    };
+
+    public static final int[] OPERANDS = {
+        2, 2, 2, 2, 2, 2, 2, 2,
+        3, 3, 3, 3, 3, 2, 2, 3,
+        3, 3, 3, 3, 3, 3, 3, 3,
+        1, 2, 3, 3, 3, 3, 3, 3, 3, 5, 1, 1, 0, 2,
+        3, 3, 1
+    };
+
+
+    private RegOpCode(){}
+}
@@ -0,0 +1,595 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import ast.*;
+import ast.Decl.*;
+import ast.Expr.*;
+import ast.Stmt.*;
+
+
+// Compiles a checked and resolved program into code for the RegisterMachine
+
+// Every function gets a window of registers. The first 'frameSize' registers are its parameters and locals, exactly as laid out
+// by the Resolver, and the temporaries needed to evaluate expressions come after them. Temporaries are allocated like a stack:
+// we remember the first free temporary before compiling an expression and free everything above it once the value has been used.
+
+// Expression visitors return the register that holds the expression's value. The caller can ask for the value to end up in a
+// specific register by passing it to compileExpr(). Reading a local variable without such a request costs no instruction at all,
+// we just return the variable's own register.
+
+
+public class RegisterCompiler implements ASTVisitor<Integer>{
+    private static final int ANY = -1;
+
+    private ArrayList<Object> constants;
+    private HashMap<Object,Integer> constantIndexes;
+    private HashMap<String,Integer> functionIndexes;
+
+    // State of the function that's currently being compiled
+    private int[] code;
+    private int[] lines;
+    private int codeSize;
+    private int currentLine;
+    private int frameSize;
+    private int nextTemp;
+    private int maxRegister;
+
+    // Register requested for the value of the expression that's being visited, or ANY
+    private int destination;
+
+
+    public CompiledProgram compile(Program program) throws Exception{
+        constants = new ArrayList<>();
+        constantIndexes = new HashMap<>();
+        functionIndexes = new HashMap<>();
+
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+            functionIndexes.put(func.identifier, functionIndexes.size());
+        }
+
+        CompiledFunction globalInit = new CompiledFunction("<globals>", ASTEnums.VOID, 0, 0);
+        beginFunction(0);
+        for(Stmt stmt: program.varDeclStatements){
+            stmt.accept(this);
+        }
+        emit(RegOpCode.RET);
+        endFunction(globalInit);
+
+        CompiledFunction[] functions = new CompiledFunction[functionIndexes.size()];
+        for(Stmt.DeclStmt declStmt: program.funcDeclStatements){
+            Decl.Func func = (Decl.Func) declStmt.declaration;
+
+            CompiledFunction compiled = new CompiledFunction(func.identifier, func.type, func.params.size(), func.frameSize);
+            beginFunction(func.frameSize);
+            func.accept(this);
+            endFunction(compiled);
+
+            functions[functionIndexes.get(func.identifier)] = compiled;
+        }
+
+        CompiledProgram compiled = new CompiledProgram(constants.toArray(), functions, globalInit, functionIndexes.get("main"), program.globalCount);
+        compiled.opNames = RegOpCode.NAMES;
+        compiled.opOperands = RegOpCode.OPERANDS;
+        return compiled;
+    }
+
+
+    @Override
+    public Integer visitProgram(Program prog) throws Exception {
+        internalError("visitProgram: Programs are compiled through compile()");
+        return null;
+    }
+
+
+    @Override
+    public Integer visitExprStmt(ExprStmt stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        int mark = nextTemp;
+        compileExpr(stmt.expr, ANY);
+        nextTemp = mark;
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitDeclStmt(DeclStmt stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+
+    @Override
+    public Integer visitWhileStmt(While stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        int start = codeSize;
+        int exitJump = compileJumpIfFalse(stmt.condition);
+
+        compileBody(stmt.body);
+
+        emit(RegOpCode.JMP, start);
+        patchJump(exitJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitForStmt(For stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        if(stmt.varDeclaration != null) stmt.varDeclaration.accept(this);
+
+        int start = codeSize;
+        int exitJump = -1;
+        if(stmt.condition != null) exitJump = compileJumpIfFalse(stmt.condition);
+
+        compileBody(stmt.body);
+
+        if(stmt.update != null){
+            int mark = nextTemp;
+            compileExpr(stmt.update, ANY);
+            nextTemp = mark;
+        }
+
+        emit(RegOpCode.JMP, start);
+        if(exitJump != -1) patchJump(exitJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitIfStmt(If stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        int elseJump = compileJumpIfFalse(stmt.condition);
+
+        compileBody(stmt.body);
+
+        if(stmt.elseBody == null){
+            patchJump(elseJump);
+            return null;
+        }
+
+        emit(RegOpCode.JMP, -1);
+        int endJump = codeSize - 1;
+        patchJump(elseJump);
+        compileBody(stmt.elseBody);
+        patchJump(endJump);
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitRetStmt(Ret stmt) throws Exception {
+        currentLine = stmt.lineNumber;
+
+        if(stmt.expr == null){
+            emit(RegOpCode.RET);
+            return null;
+        }
+
+        int mark = nextTemp;
+
+        // Arguments are computed like for a regular call, and then moved down to the start of the window
+        if(stmt.expr instanceof Call && ((Call) stmt.expr).isTailCall){
+            Call call = (Call) stmt.expr;
+            int argCnt = call.arguments.size();
+
+            int base = nextTemp;
+            for(int i = 0; i < argCnt; i++){
+                allocTemp();
+            }
+            for(int i = 0; i < argCnt; i++){
+                compileExpr(call.arguments.get(i), base + i);
+            }
+
+            emit(RegOpCode.TAILCALL, functionIndexes.get(call.funcIdentifier), base);
+            nextTemp = mark;
+            return null;
+        }
+
+        int value = compileExpr(stmt.expr, ANY);
+        emit(stmt.expr.type == ASTEnums.STRING ? RegOpCode.SRET : RegOpCode.IRET, value);
+        nextTemp = mark;
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitVarDecl(Var decl) throws Exception {
+        // Declarations without initializers don't generate any code. The SemanticChecker makes sure locals aren't read before
+        // being assigned, and a global starts out unassigned for the reads that are checked
+        if(decl.expr == null) return null;
+
+        int mark = nextTemp;
+        if(decl.isGlobal){
+            int value = compileExpr(decl.expr, ANY);
+            emit(decl.type == ASTEnums.STRING ? RegOpCode.SGSTORE : RegOpCode.IGSTORE, decl.slot, value);
+            if(decl.isTracked) emit(RegOpCode.GMARK, decl.slot);
+        }
+        else{
+            compileExpr(decl.expr, decl.slot);
+        }
+        nextTemp = mark;
+
+        return null;
+    }
+
+
+    @Override
+    public Integer visitFuncDecl(Func decl) throws Exception {
+        currentLine = decl.lineNumber;
+
+        compileBody(decl.body);
+
+        // Non-void functions always end with a return statement, void functions may just run off the end
+        if(decl.type == ASTEnums.VOID) emit(RegOpCode.RET);
+
+        return null;
+    }
+
+
+    // Arguments are copied into the callee's first registers by the caller
+    @Override
+    public Integer visitParamDecl(Param decl) {
+        return null;
+    }
+
+
+    @Override
+    public Integer visitBinaryExpr(Binary expr) throws Exception {
+        int dst = destination;
+        int mark = nextTemp;
+
+        // Adding or subtracting a constant doesn't need a register for the constant
+        if(expr.left.type == ASTEnums.INT && expr.right instanceof Literal && (expr.operator == ASTEnums.PLUS || expr.operator == ASTEnums.MINUS)){
+            int value = Integer.parseInt(((Literal) expr.right).value);
+            if(expr.operator == ASTEnums.MINUS) value = -value;
+
+            int left = compileExpr(expr.left, ANY);
+            nextTemp = mark;
+            int result = target(dst);
+            emit(RegOpCode.IADDI, result, left, value);
+            return result;
+        }
+
+        int left = compileLeftOperand(expr.left, expr.right);
+        int right = compileExpr(expr.right, ANY);
+
+        // Operands are read before the result is written, so the result can take the place of the operands' temporaries
+        nextTemp = mark;
+        int result = target(dst);
+        emit(binaryOpCode(expr), result, left, right);
+
+        return result;
+    }
+
+
+    @Override
+    public Integer visitUnaryExpr(Unary expr) throws Exception {
+        int dst = destination;
+        int mark = nextTemp;
+
+        int operand = compileExpr(expr.expr, ANY);
+
+        nextTemp = mark;
+        int result = target(dst);
+
+        switch(expr.operator){
+            case MINUS: emit(RegOpCode.INEG, result, operand); break;
+            case NOT:   emit(RegOpCode.INOT, result, operand); break;
+            default:
+                internalError("visitUnaryExpr: Unrecognized operator " + expr.operator);
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Integer visitAssignExpr(Assign expr) throws Exception {
+        int dst = destination;
+        boolean isString = (expr.expr.type == ASTEnums.STRING);
+
+        if(expr.isGlobal){
+            int value = compileExpr(expr.expr, dst);
+            emit(isString ? RegOpCode.SGSTORE : RegOpCode.IGSTORE, expr.slot, value);
+            if(expr.isTracked) emit(RegOpCode.GMARK, expr.slot);
+            return value;
+        }
+
+        // The value is computed straight into the variable's register
+        compileExpr(expr.expr, expr.slot);
+
+        if(dst == ANY || dst == expr.slot) return expr.slot;
+
+        emit(isString ? RegOpCode.SMOV : RegOpCode.IMOV, dst, expr.slot);
+        return dst;
+    }
+
+
+    @Override
+    public Integer visitLiteralExpr(Literal expr) {
+        int result = target(destination);
+
+        switch(expr.type){
+            case INT:
+                emit(RegOpCode.ICONST, result, Integer.parseInt(expr.value));
+                break;
+            case STRING:
+                emit(RegOpCode.SCONST, result, constantIndex(expr.value));
+                break;
+            default:
+                internalError("visitLiteralExpr: Invalid literal type " + expr.type);
+        }
+
+        return result;
+    }
+
+
+    @Override
+    public Integer visitCallExpr(Call expr) throws Exception {
+        int dst = destination;
+        int mark = nextTemp;
+        int argCnt = expr.arguments.size();
+
+        // Arguments go into consecutive registers, which become the first registers of the callee's window
+        int base = nextTemp;
+        for(int i = 0; i < argCnt; i++){
+            allocTemp();
+        }
+        for(int i = 0; i < argCnt; i++){
+            compileExpr(expr.arguments.get(i), base + i);
+        }
+
+        nextTemp = mark;
+        int result = (expr.type == ASTEnums.VOID ? ANY : target(dst));
+
+        if(expr.builtIn != null){
+            int stringMask = 0;
+            for(int i = 0; i < argCnt; i++){
+                if(expr.arguments.get(i).type == ASTEnums.STRING) stringMask |= (1 << i);
+            }
+            emit(RegOpCode.BUILTIN, result, constantIndex(expr.builtIn), base, argCnt, stringMask);
+        }
+        else{
+            emit(RegOpCode.CALL, result, functionIndexes.get(expr.funcIdentifier), base);
+        }
+
+        return result;
+    }
+
+
+    // Globals the SafetyAnalyzer couldn't prove assigned get a checked load, reported at the line of the read.
+    // Every read of a local is proven, the SemanticChecker only accepts locals assigned earlier in their function
+    @Override
+    public Integer visitVariableExpr(Variable expr) {
+        int dst = destination;
+        boolean isString = (expr.type == ASTEnums.STRING);
+
+        if(expr.isGlobal && !expr.isAssigned){
+            int result = target(dst);
+            int statementLine = currentLine;
+            currentLine = expr.lineNumber;
+            emit(isString ? RegOpCode.SGLOADC : RegOpCode.IGLOADC, result, expr.slot, constantIndex(expr.identifier));
+            currentLine = statementLine;
+            return result;
+        }
+
+        if(expr.isGlobal){
+            int result = target(dst);
+            emit(isString ? RegOpCode.SGLOAD : RegOpCode.IGLOAD, result, expr.slot);
+            return result;
+        }
+
+        if(dst == ANY || dst == expr.slot) return expr.slot;
+
+        emit(isString ? RegOpCode.SMOV : RegOpCode.IMOV, dst, expr.slot);
+        return dst;
+    }
+
+
+
+
+    private void compileBody(ArrayList<Stmt> body) throws Exception{
+        for(Stmt stmt: body){
+            stmt.accept(this);
+        }
+    }
+
+
+    private int compileExpr(Expr expr,int dst) throws Exception{
+        destination = dst;
+        return expr.accept(this);
+    }
+
+
+    // If the left operand is a local variable and the right operand assigns to it, the left value has to be copied first
+    private int compileLeftOperand(Expr left,Expr right) throws Exception{
+        int register = compileExpr(left, ANY);
+
+        if(register < frameSize && assignsLocal(right, register)){
+            int copy = allocTemp();
+            emit(left.type == ASTEnums.STRING ? RegOpCode.SMOV : RegOpCode.IMOV, copy, register);
+            return copy;
+        }
+
+        return register;
+    }
+
+
+    // Comparisons of two ints in conditions become a single compare-and-jump instruction
+    // Returns the position of the jump target so it can be patched later
+    private int compileJumpIfFalse(Expr condition) throws Exception{
+        int mark = nextTemp;
+
+        if(condition instanceof Binary && ((Binary) condition).left.type == ASTEnums.INT){
+            Binary binary = (Binary) condition;
+            int jump = invertedJump(binary.operator);
+
+            if(jump != -1){
+                int left = compileLeftOperand(binary.left, binary.right);
+                int right = compileExpr(binary.right, ANY);
+                emit(jump, left, right, -1);
+                nextTemp = mark;
+                return codeSize - 1;
+            }
+        }
+
+        int value = compileExpr(condition, ANY);
+        emit(RegOpCode.JZ, value, -1);
+        nextTemp = mark;
+        return codeSize - 1;
+    }
+
+
+    private int invertedJump(ASTEnums operator){
+        switch(operator){
+            case EQUAL:      return RegOpCode.JNE;
+            case NOT_EQUAL:  return RegOpCode.JEQ;
+            case LESS:       return RegOpCode.JGE;
+            case LESS_EQ:    return RegOpCode.JGT;
+            case GREATER:    return RegOpCode.JLE;
+            case GREATER_EQ: return RegOpCode.JLT;
+            default:         return -1;
+        }
+    }
+
+
+    private int binaryOpCode(Binary expr){
+        if(expr.left.type == ASTEnums.STRING){
+            switch(expr.operator){
+                case PLUS:      return RegOpCode.SCONCAT;
+                case EQUAL:     return RegOpCode.SEQ;
+                case NOT_EQUAL: return RegOpCode.SNE;
+                default:
+                    internalError("binaryOpCode: Unsupported string operator " + expr.operator);
+            }
+        }
+
+        switch(expr.operator){
+            case PLUS:       return RegOpCode.IADD;
+            case MINUS:      return RegOpCode.ISUB;
+            case MULTIPLY:   return RegOpCode.IMUL;
+            case DIVIDE:     return RegOpCode.IDIV;
+            case EQUAL:      return RegOpCode.IEQ;
+            case NOT_EQUAL:  return RegOpCode.INE;
+            case LESS:       return RegOpCode.ILT;
+            case LESS_EQ:    return RegOpCode.ILE;
+            case GREATER:    return RegOpCode.IGT;
+            case GREATER_EQ: return RegOpCode.IGE;
+            default:
+                internalError("binaryOpCode: Unrecognized operator " + expr.operator);
+                return -1;
+        }
+    }
+
+
+    // Checks if evaluating the expression can assign to the local variable in the given slot
+    // Calls can't touch the caller's locals, but their arguments can
+    private boolean assignsLocal(Expr expr,int slot){
+        if(expr instanceof Assign){
+            Assign assign = (Assign) expr;
+            return (!assign.isGlobal && assign.slot == slot) || assignsLocal(assign.expr, slot);
+        }
+        if(expr instanceof Binary){
+            Binary binary = (Binary) expr;
+            return assignsLocal(binary.left, slot) || assignsLocal(binary.right, slot);
+        }
+        if(expr instanceof Unary){
+            return assignsLocal(((Unary) expr).expr, slot);
+        }
+        if(expr instanceof Call){
+            for(Expr arg: ((Call) expr).arguments){
+                if(assignsLocal(arg, slot)) return true;
+            }
+        }
+        return false;
+    }
+
+
+    private int constantIndex(Object value){
+        Integer index = constantIndexes.get(value);
+        if(index == null){
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        return index;
+    }
+
+
+
+
+    // Registers
+
+    private int target(int dst){
+        if(dst == ANY) return allocTemp();
+        return dst;
+    }
+
+    private int allocTemp(){
+        int register = nextTemp++;
+        if(nextTemp > maxRegister) maxRegister = nextTemp;
+        return register;
+    }
+
+
+
+
+    // Emitting code
+
+    private void beginFunction(int frameSize){
+        code = new int[64];
+        lines = new int[64];
+        codeSize = 0;
+        this.frameSize = frameSize;
+        nextTemp = frameSize;
+        maxRegister = frameSize;
+    }
+
+    private void endFunction(CompiledFunction function){
+        function.code = Arrays.copyOf(code, codeSize);
+        function.lines = Arrays.copyOf(lines, codeSize);
+        function.maxStack = maxRegister - frameSize;
+    }
+
+
+    private void emit(int op,int... operands){
+        write(op);
+        for(int operand: operands){
+            write(operand);
+        }
+    }
+
+    private void patchJump(int position){
+        code[position] = codeSize;
+    }
+
+
+    private void write(int word){
+        if(codeSize == code.length){
+            code = Arrays.copyOf(code, codeSize * 2);
+            lines = Arrays.copyOf(lines, codeSize * 2);
+        }
+        lines[codeSize] = currentLine;
+        code[codeSize++] = word;
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: RegisterCompiler." + message);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,375 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ast.BuiltInFunction;
+import interpreter.environment.Environment;
+
+
+// Executes the code produced by the RegisterCompiler in a single dispatch loop
+
+// Registers live in two parallel arrays, one for INT values and one for STRING values. Every function works in its own window
+// of these arrays, starting at 'fp'. A call slides the window up to the registers holding the arguments, so the arguments become
+// the callee's parameters without being copied. Like in the stack machine, script calls don't recurse on the Java stack,
+// and the register arrays grow on demand up to the configured call depth limit.
+
+
+public class RegisterMachine {
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+    // Number of frames the arrays below currently have room for, and the most slots a single frame can take
+    private int capacity;
+    private int footprint;
+
+    private Object[] constants;
+    private CompiledFunction[] functions;
+
+    private int[] ints;
+    private Object[] refs;
+    private int[] globalInts;
+    private Object[] globalRefs;
+
+    // Saved state of the callers, indexed by call depth
+    private CompiledFunction[] callerFunctions;
+    private int[] callerPcs;
+    private int[] callerFps;
+    private int[] callerResults;        // Caller's register that receives the return value
+
+
+    // Limit on the number of active calls. The stack starts small and grows as the calls get deeper, up to this limit
+    public void setMaxCallDepth(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
+    }
+
+
+    public Object execute(CompiledProgram program) throws Exception{
+        constants = program.constants;
+        functions = program.functions;
+
+        footprint = program.maxFrameFootprint();
+        capacity = Math.min(INITIAL_CAPACITY, maxCallDepth);
+        ints = new int[capacity * footprint + 1];
+        refs = new Object[capacity * footprint + 1];
+        globalInts = new int[program.globalCount];
+        globalRefs = new Object[program.globalCount];
+
+        callerFunctions = new CompiledFunction[capacity];
+        callerPcs = new int[capacity];
+        callerFps = new int[capacity];
+        callerResults = new int[capacity];
+
+        run(program.globalInit);
+        return run(functions[program.mainIndex]);
+    }
+
+
+
+    private Object run(CompiledFunction entry) throws Exception{
+        CompiledFunction function = entry;
+        int[] code = function.code;
+        int[] ints = this.ints;
+        Object[] refs = this.refs;
+        int pc = 0;
+        int fp = 0;
+        int depth = 1;
+
+        while(true){
+            switch(code[pc]){
+                case RegOpCode.ICONST:
+                    ints[fp + code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                    break;
+                case RegOpCode.SCONST:
+                    refs[fp + code[pc + 1]] = constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.IMOV:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.SMOV:
+                    refs[fp + code[pc + 1]] = refs[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case RegOpCode.IGLOAD:
+                    ints[fp + code[pc + 1]] = globalInts[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.SGLOAD:
+                    refs[fp + code[pc + 1]] = globalRefs[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.IGSTORE:
+                    globalInts[code[pc + 1]] = ints[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.SGSTORE:
+                    globalRefs[code[pc + 1]] = refs[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+
+                case RegOpCode.IGLOADC:
+                    if(globalRefs[code[pc + 2]] == null) uninitialized(function, pc);
+                    ints[fp + code[pc + 1]] = globalInts[code[pc + 2]];
+                    pc += 4;
+                    break;
+                case RegOpCode.SGLOADC:
+                    if(globalRefs[code[pc + 2]] == null) uninitialized(function, pc);
+                    refs[fp + code[pc + 1]] = globalRefs[code[pc + 2]];
+                    pc += 4;
+                    break;
+                case RegOpCode.GMARK:
+                    globalRefs[code[pc + 1]] = Environment.ASSIGNED;
+                    pc += 2;
+                    break;
+
+
+                case RegOpCode.IADD:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]] + ints[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case RegOpCode.ISUB:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]] - ints[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case RegOpCode.IMUL:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]] * ints[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case RegOpCode.IDIV:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]] / ints[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+                case RegOpCode.IADDI:
+                    ints[fp + code[pc + 1]] = ints[fp + code[pc + 2]] + code[pc + 3];
+                    pc += 4;
+                    break;
+                case RegOpCode.INEG:
+                    ints[fp + code[pc + 1]] = -ints[fp + code[pc + 2]];
+                    pc += 3;
+                    break;
+                case RegOpCode.INOT:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] == 0 ? 1 : 0);
+                    pc += 3;
+                    break;
+                case RegOpCode.SCONCAT:
+                    refs[fp + code[pc + 1]] = (String) refs[fp + code[pc + 2]] + (String) refs[fp + code[pc + 3]];
+                    pc += 4;
+                    break;
+
+
+                case RegOpCode.IEQ:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] == ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.INE:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] != ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.ILT:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] < ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.ILE:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] <= ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.IGT:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] > ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.IGE:
+                    ints[fp + code[pc + 1]] = (ints[fp + code[pc + 2]] >= ints[fp + code[pc + 3]] ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.SEQ:
+                    ints[fp + code[pc + 1]] = (refs[fp + code[pc + 2]].equals(refs[fp + code[pc + 3]]) ? 1 : 0);
+                    pc += 4;
+                    break;
+                case RegOpCode.SNE:
+                    ints[fp + code[pc + 1]] = (refs[fp + code[pc + 2]].equals(refs[fp + code[pc + 3]]) ? 0 : 1);
+                    pc += 4;
+                    break;
+
+
+                case RegOpCode.JMP:
+                    pc = code[pc + 1];
+                    break;
+                case RegOpCode.JZ:
+                    if(ints[fp + code[pc + 1]] == 0) pc = code[pc + 2];
+                    else pc += 3;
+                    break;
+                case RegOpCode.JEQ:
+                    if(ints[fp + code[pc + 1]] == ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+                case RegOpCode.JNE:
+                    if(ints[fp + code[pc + 1]] != ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+                case RegOpCode.JLT:
+                    if(ints[fp + code[pc + 1]] < ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+                case RegOpCode.JLE:
+                    if(ints[fp + code[pc + 1]] <= ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+                case RegOpCode.JGT:
+                    if(ints[fp + code[pc + 1]] > ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+                case RegOpCode.JGE:
+                    if(ints[fp + code[pc + 1]] >= ints[fp + code[pc + 2]]) pc = code[pc + 3];
+                    else pc += 4;
+                    break;
+
+
+                case RegOpCode.CALL: {
+                    CompiledFunction callee = functions[code[pc + 2]];
+
+                    if(depth == capacity){
+                        if(depth == maxCallDepth){
+                            runtimeError(function.lines[pc], "Cannot call function '" + callee.name + "' . Maximum function call stack size reached ");
+                        }
+                        grow();
+                        ints = this.ints;
+                        refs = this.refs;
+                    }
+
+                    callerFunctions[depth] = function;
+                    callerPcs[depth] = pc + 4;
+                    callerFps[depth] = fp;
+                    callerResults[depth] = code[pc + 1];
+                    depth++;
+
+                    fp += code[pc + 3];
+                    function = callee;
+                    code = callee.code;
+                    pc = 0;
+                    break;
+                }
+
+                // The arguments are moved down to the start of the current window and the callee runs in it. The call depth stays the same
+                case RegOpCode.TAILCALL: {
+                    CompiledFunction callee = functions[code[pc + 1]];
+                    int base = fp + code[pc + 2];
+
+                    for(int i = 0; i < callee.paramCount; i++){
+                        ints[fp + i] = ints[base + i];
+                        refs[fp + i] = refs[base + i];
+                    }
+
+                    function = callee;
+                    code = callee.code;
+                    pc = 0;
+                    break;
+                }
+
+                case RegOpCode.BUILTIN: {
+                    int result = code[pc + 1];
+                    BuiltInFunction builtIn = (BuiltInFunction) constants[code[pc + 2]];
+                    int base = fp + code[pc + 3];
+                    int argCnt = code[pc + 4];
+                    int stringMask = code[pc + 5];
+
+                    ArrayList<Object> args = new ArrayList<>(argCnt);
+                    for(int i = 0; i < argCnt; i++){
+                        if((stringMask & (1 << i)) != 0) args.add(refs[base + i]);
+                        else args.add(ints[base + i]);
+                    }
+
+                    Object value = builtIn.execute(args);
+                    if(value instanceof Integer) ints[fp + result] = (Integer) value;
+                    else if(value != null) refs[fp + result] = value;
+
+                    pc += 6;
+                    break;
+                }
+
+
+                case RegOpCode.IRET: {
+                    int value = ints[fp + code[pc + 1]];
+                    depth--;
+                    if(depth == 0) return value;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    ints[fp + callerResults[depth]] = value;
+                    break;
+                }
+
+                case RegOpCode.SRET: {
+                    Object value = refs[fp + code[pc + 1]];
+                    depth--;
+                    if(depth == 0) return value;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    refs[fp + callerResults[depth]] = value;
+                    break;
+                }
+
+                case RegOpCode.RET:
+                    depth--;
+                    if(depth == 0) return null;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    break;
+
+
+                default:
+                    internalError("run: Unknown opcode " + code[pc] + " in function '" + function.name + "'");
+            }
+        }
+    }
+
+
+
+    // Doubles the room for frames. Frames are addressed by index, so the contents are simply copied over
+    private void grow(){
+        capacity = (int) Math.min((long) capacity * 2, maxCallDepth);
+
+        int[] oldInts = ints;
+        Object[] oldRefs = refs;
+        ints = new int[capacity * footprint + 1];
+        refs = new Object[capacity * footprint + 1];
+        System.arraycopy(oldInts, 0, ints, 0, oldInts.length);
+        System.arraycopy(oldRefs, 0, refs, 0, oldRefs.length);
+
+        callerFunctions = Arrays.copyOf(callerFunctions, capacity);
+        callerPcs = Arrays.copyOf(callerPcs, capacity);
+        callerFps = Arrays.copyOf(callerFps, capacity);
+        callerResults = Arrays.copyOf(callerResults, capacity);
+    }
+
+
+
+
+    // 'pc' points at a checked load, whose last operand is the name of the variable
+    private void uninitialized(CompiledFunction function,int pc) throws Exception{
+        runtimeError(function.lines[pc], "Using an uninitialized variable '" + constants[function.code[pc + 3]] + "'");
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: RegisterMachine." + message);
+        System.exit(0);
+    }
+
+    private void runtimeError(int lineNumber,String message) throws Exception{
+        System.out.println("Line " + lineNumber +": Runtime error: " + message);
+        throw new Exception();
+    }
+}
@@ -0,0 +1,355 @@
+package interpreter.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ast.BuiltInFunction;
+import interpreter.environment.Environment;
+
+
+// Executes the bytecode produced by the BytecodeCompiler in a single dispatch loop
+
+// The operand stack is split into two parallel arrays, one for INT values and one for STRING values, that share the same stack pointer.
+// That way INT values are never boxed. A function's frame is just a window of the operand stack: the caller pushes the arguments,
+// and they become the callee's first slots. The rest of the frame holds the callee's locals and above them is its operand stack.
+
+// Script calls don't recurse on the Java stack. Return addresses are kept in arrays and the loop simply switches to the callee's code.
+// These arrays start small and grow when the calls get deeper, so the depth of recursion is bounded only by the configured limit.
+
+
+public class VirtualMachine {
+    public static final int DEFAULT_MAX_CALL_DEPTH = 100;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+    // Number of frames the arrays below currently have room for, and the most slots a single frame can take
+    private int capacity;
+    private int footprint;
+
+    private Object[] constants;
+    private CompiledFunction[] functions;
+
+    private int[] ints;
+    private Object[] refs;
+    private int[] globalInts;
+    private Object[] globalRefs;
+
+    // Saved state of the callers, indexed by call depth
+    private CompiledFunction[] callerFunctions;
+    private int[] callerPcs;
+    private int[] callerFps;
+
+
+    // Limit on the number of active calls. The stack starts small and grows as the calls get deeper, up to this limit
+    public void setMaxCallDepth(int maxCallDepth){
+        this.maxCallDepth = maxCallDepth;
+    }
+
+
+    public Object execute(CompiledProgram program) throws Exception{
+        constants = program.constants;
+        functions = program.functions;
+
+        footprint = program.maxFrameFootprint();
+        capacity = Math.min(INITIAL_CAPACITY, maxCallDepth);
+        ints = new int[capacity * footprint + 1];
+        refs = new Object[capacity * footprint + 1];
+        globalInts = new int[program.globalCount];
+        globalRefs = new Object[program.globalCount];
+
+        callerFunctions = new CompiledFunction[capacity];
+        callerPcs = new int[capacity];
+        callerFps = new int[capacity];
+
+        run(program.globalInit);
+        return run(functions[program.mainIndex]);
+    }
+
+
+
+    private Object run(CompiledFunction entry) throws Exception{
+        CompiledFunction function = entry;
+        int[] code = function.code;
+        int[] ints = this.ints;
+        Object[] refs = this.refs;
+        int pc = 0;
+        int fp = 0;
+        int sp = function.frameSize;
+        int depth = 1;
+
+        while(true){
+            switch(code[pc++]){
+                case OpCode.ICONST:
+                    ints[sp++] = code[pc++];
+                    break;
+                case OpCode.SCONST:
+                    refs[sp++] = constants[code[pc++]];
+                    break;
+
+                case OpCode.ILOAD:
+                    ints[sp++] = ints[fp + code[pc++]];
+                    break;
+                case OpCode.SLOAD:
+                    refs[sp++] = refs[fp + code[pc++]];
+                    break;
+                case OpCode.ISTORE:
+                    ints[fp + code[pc++]] = ints[--sp];
+                    break;
+                case OpCode.SSTORE:
+                    refs[fp + code[pc++]] = refs[--sp];
+                    break;
+
+                case OpCode.IGLOAD:
+                    ints[sp++] = globalInts[code[pc++]];
+                    break;
+                case OpCode.SGLOAD:
+                    refs[sp++] = globalRefs[code[pc++]];
+                    break;
+                case OpCode.IGSTORE:
+                    globalInts[code[pc++]] = ints[--sp];
+                    break;
+                case OpCode.SGSTORE:
+                    globalRefs[code[pc++]] = refs[--sp];
+                    break;
+
+                case OpCode.IGLOADC:
+                    if(globalRefs[code[pc]] == null) uninitialized(function, pc);
+                    ints[sp++] = globalInts[code[pc]];
+                    pc += 2;
+                    break;
+                case OpCode.SGLOADC:
+                    if(globalRefs[code[pc]] == null) uninitialized(function, pc);
+                    refs[sp++] = globalRefs[code[pc]];
+                    pc += 2;
+                    break;
+                case OpCode.GMARK:
+                    globalRefs[code[pc++]] = Environment.ASSIGNED;
+                    break;
+
+                // We don't know the type of the value on top, so we copy both halves of the stack
+                case OpCode.DUP:
+                    ints[sp] = ints[sp - 1];
+                    refs[sp] = refs[sp - 1];
+                    sp++;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+
+
+                case OpCode.IADD:
+                    sp--;
+                    ints[sp - 1] += ints[sp];
+                    break;
+                case OpCode.ISUB:
+                    sp--;
+                    ints[sp - 1] -= ints[sp];
+                    break;
+                case OpCode.IMUL:
+                    sp--;
+                    ints[sp - 1] *= ints[sp];
+                    break;
+                case OpCode.IDIV:
+                    sp--;
+                    ints[sp - 1] /= ints[sp];
+                    break;
+                case OpCode.INEG:
+                    ints[sp - 1] = -ints[sp - 1];
+                    break;
+                case OpCode.INOT:
+                    ints[sp - 1] = (ints[sp - 1] == 0 ? 1 : 0);
+                    break;
+                case OpCode.SCONCAT:
+                    sp--;
+                    refs[sp - 1] = (String) refs[sp - 1] + (String) refs[sp];
+                    break;
+
+
+                case OpCode.IEQ:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] == ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.INE:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] != ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.ILT:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] < ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.ILE:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] <= ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.IGT:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] > ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.IGE:
+                    sp--;
+                    ints[sp - 1] = (ints[sp - 1] >= ints[sp] ? 1 : 0);
+                    break;
+                case OpCode.SEQ:
+                    sp--;
+                    ints[sp - 1] = (refs[sp - 1].equals(refs[sp]) ? 1 : 0);
+                    break;
+                case OpCode.SNE:
+                    sp--;
+                    ints[sp - 1] = (refs[sp - 1].equals(refs[sp]) ? 0 : 1);
+                    break;
+
+
+                case OpCode.JMP:
+                    pc = code[pc];
+                    break;
+                case OpCode.JZ:
+                    if(ints[--sp] == 0) pc = code[pc];
+                    else pc++;
+                    break;
+
+
+                case OpCode.CALL: {
+                    CompiledFunction callee = functions[code[pc++]];
+
+                    if(depth == capacity){
+                        if(depth == maxCallDepth){
+                            runtimeError(function.lines[pc - 1], "Cannot call function '" + callee.name + "' . Maximum function call stack size reached ");
+                        }
+                        grow();
+                        ints = this.ints;
+                        refs = this.refs;
+                    }
+
+                    callerFunctions[depth] = function;
+                    callerPcs[depth] = pc;
+                    callerFps[depth] = fp;
+                    depth++;
+
+                    fp = sp - callee.paramCount;
+                    sp = fp + callee.frameSize;
+                    function = callee;
+                    code = callee.code;
+                    pc = 0;
+                    break;
+                }
+
+                // The arguments are moved down to the start of the current frame and the callee runs in it. The call depth stays the same
+                case OpCode.TAILCALL: {
+                    CompiledFunction callee = functions[code[pc]];
+                    int argBase = sp - callee.paramCount;
+
+                    for(int i = 0; i < callee.paramCount; i++){
+                        ints[fp + i] = ints[argBase + i];
+                        refs[fp + i] = refs[argBase + i];
+                    }
+
+                    sp = fp + callee.frameSize;
+                    function = callee;
+                    code = callee.code;
+                    pc = 0;
+                    break;
+                }
+
+                case OpCode.BUILTIN: {
+                    BuiltInFunction builtIn = (BuiltInFunction) constants[code[pc++]];
+                    int argCnt = code[pc++];
+                    int stringMask = code[pc++];
+
+                    ArrayList<Object> args = new ArrayList<>(argCnt);
+                    for(int i = 0; i < argCnt; i++){
+                        int position = sp - argCnt + i;
+                        if((stringMask & (1 << i)) != 0) args.add(refs[position]);
+                        else args.add(ints[position]);
+                    }
+                    sp -= argCnt;
+
+                    Object result = builtIn.execute(args);
+                    if(result instanceof Integer) ints[sp++] = (Integer) result;
+                    else if(result != null) refs[sp++] = result;
+                    break;
+                }
+
+
+                case OpCode.IRET: {
+                    int value = ints[sp - 1];
+                    sp = fp;
+                    depth--;
+                    if(depth == 0) return value;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    ints[sp++] = value;
+                    break;
+                }
+
+                case OpCode.SRET: {
+                    Object value = refs[sp - 1];
+                    sp = fp;
+                    depth--;
+                    if(depth == 0) return value;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    refs[sp++] = value;
+                    break;
+                }
+
+                case OpCode.RET:
+                    sp = fp;
+                    depth--;
+                    if(depth == 0) return null;
+
+                    function = callerFunctions[depth];
+                    code = function.code;
+                    pc = callerPcs[depth];
+                    fp = callerFps[depth];
+                    break;
+
+
+                default:
+                    internalError("run: Unknown opcode " + code[pc - 1] + " in function '" + function.name + "'");
+            }
+        }
+    }
+
+
+
+    // Doubles the room for frames. Frames are addressed by index, so the contents are simply copied over
+    private void grow(){
+        capacity = (int) Math.min((long) capacity * 2, maxCallDepth);
+
+        int[] oldInts = ints;
+        Object[] oldRefs = refs;
+        ints = new int[capacity * footprint + 1];
+        refs = new Object[capacity * footprint + 1];
+        System.arraycopy(oldInts, 0, ints, 0, oldInts.length);
+        System.arraycopy(oldRefs, 0, refs, 0, oldRefs.length);
+
+        callerFunctions = Arrays.copyOf(callerFunctions, capacity);
+        callerPcs = Arrays.copyOf(callerPcs, capacity);
+        callerFps = Arrays.copyOf(callerFps, capacity);
+    }
+
+
+
+
+    // 'pc' points at the slot operand of a checked load, the name of the variable follows it
+    private void uninitialized(CompiledFunction function,int pc) throws Exception{
+        runtimeError(function.lines[pc], "Using an uninitialized variable '" + constants[function.code[pc + 1]] + "'");
+    }
+
+
+    private void internalError(String message){
+        System.out.println("Internal error: VirtualMachine." + message);
+        System.exit(0);
+    }
+
+    private void runtimeError(int lineNumber,String message) throws Exception{
+        System.out.println("Line " + lineNumber +": Runtime error: " + message);
+        throw new Exception();
+    }
+}